@@ -0,0 +1,60 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link Acceptance} table against calculating each acceptance probability directly, over the fields
+ * met while flipping spins at each temperature. That the table makes the same decisions as the direct calculation is
+ * checked by {@code AcceptanceTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AcceptanceBenchmark {
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"23", "50", "80"})
+    public double temp;
+
+    private Acceptance acceptance;
+    private final int[] spins = new int[SAMPLES];
+    private final long[] fields = new long[SAMPLES];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        acceptance = new Acceptance(temp, Lattice.gibbs(temp), Neighbourhood.of(Lattice.INTERACTION_DISTANCE));
+        Lattice lattice = new Lattice();
+        lattice.setSeed(42);
+        lattice.setTemp(temp);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            lattice.randomFlip();
+            int site = random.nextInt(lattice.size());
+            spins[i] = lattice.getSpin(site);
+            fields[i] = lattice.getField(site);
+        }
+    }
+
+    @Benchmark
+    public double table() {
+        int i = next++ & (SAMPLES - 1);
+        return acceptance.probability(spins[i], fields[i]);
+    }
+
+    @Benchmark
+    public double direct() {
+        int i = next++ & (SAMPLES - 1);
+        return acceptance.calculate(spins[i], fields[i]);
+    }
+}
@@ -0,0 +1,66 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a full evaluation of the energy and local field of every particle by the scalar and the vectorised
+ * {@link EnergyKernel}, over a random configuration of spins, for lattices of several thicknesses and interaction
+ * distances. The longer rows of the larger distances give the vectorised kernel more to gain, and the gc profiler shows
+ * that neither kernel allocates once warmed up. {@link LatticeBenchmark#calculateState()} measures the whole
+ * recalculation, including unpacking the spins and the totals.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EnergyKernelBenchmark {
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    @Param({"6", "12", "24"})
+    public int thickness;
+
+    @Param({"3", "5", "7"})
+    public int interactionDistance;
+
+    private EnergyKernel energyKernel;
+    private double[] spins;
+    private double[] energies;
+    private long[] fields;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(Position.THICKNESS_PROPERTY, Integer.toString(thickness));
+        System.setProperty(Lattice.INTERACTION_DISTANCE_PROPERTY, Integer.toString(interactionDistance));
+        if (Position.THICKNESS != thickness || Lattice.INTERACTION_DISTANCE != interactionDistance)
+            throw new IllegalStateException("Lattice was initialised before its size was set");
+        spins = new double[Position.count()];
+        energies = new double[spins.length];
+        fields = new long[spins.length];
+        Neighbourhood neighbourhood = Neighbourhood.of(Lattice.INTERACTION_DISTANCE);
+        if (kernel.equals("scalar"))
+            energyKernel = new ScalarEnergyKernel(neighbourhood);
+        else if (EnergyKernel.isVectorAvailable())
+            energyKernel = EnergyKernel.of(neighbourhood);
+        else
+            throw new IllegalStateException("Vector API is not available");
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < spins.length; i++)
+            spins[i] = random.nextBoolean() ? 1.0 : -1.0;
+    }
+
+    @Benchmark
+    public double[] calculate() {
+        energyKernel.calculate(spins, Lattice.DELTA_H - 40 * Lattice.DELTA_S, energies, fields, 0, spins.length);
+        return energies;
+    }
+}
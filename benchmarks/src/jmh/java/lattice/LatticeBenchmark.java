@@ -0,0 +1,67 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Benchmarks of the lattice hot paths: a single Metropolis step, and the full recalculation of the state of the lattice
+ * that happens whenever the temperature is set. The temperatures cover the cold end of the sweep, where most flips are
+ * rejected, and the warm end, where most are accepted. Flips are measured with the synchronized legacy generator as
+ * well as the unsynchronized algorithms a sweep can use.
+ * <p>
+ * Both are measured for lattices of several thicknesses and interaction distances, which set the number of particles
+ * and the number each flip updates. They are fixed when the lattice classes are initialised, which happens in the set
+ * up of each forked trial.
+ */
+@State(Scope.Thread)
+public class LatticeBenchmark {
+    @Param({"6", "12", "24"})
+    public int thickness;
+
+    @Param({"3", "5", "7"})
+    public int interactionDistance;
+
+    @Param({"23", "50", "80"})
+    public double temp;
+
+    @Param({"SplittableRandom", "L64X128MixRandom", "Xoshiro256PlusPlus", "Random"})
+    public String generator;
+
+    private Lattice lattice;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(Position.THICKNESS_PROPERTY, Integer.toString(thickness));
+        System.setProperty(Lattice.INTERACTION_DISTANCE_PROPERTY, Integer.toString(interactionDistance));
+        if (Position.THICKNESS != thickness || Lattice.INTERACTION_DISTANCE != interactionDistance)
+            throw new IllegalStateException("Lattice was initialised before its size was set");
+        lattice = new Lattice();
+        lattice.setTemp(temp);
+        lattice.setRandom(RandomGeneratorFactory.of(generator).create(42));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Lattice randomFlip() {
+        lattice.randomFlip();
+        return lattice;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double calculateState() {
+        lattice.setTemp(temp);
+        return lattice.getEnergy();
+    }
+}
@@ -0,0 +1,63 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a {@link MultiSpinLattice} step against a {@link Lattice} step, both counted per replica, so the scores
+ * are the flips attempted per second of each replica. The replicas share random numbers, so they are not independent
+ * lattices, and the scores time the steps rather than compare the cost of independent samples. The temperatures run
+ * from 23, where most flips are accepted, to 200, where almost all are rejected and a lattice step rarely draws a random
+ * number for its decision. Both are warmed up at the temperature first, so their fields are those of a simulation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MultiSpinBenchmark {
+    private static final int WARM_UP_SWEEPS = 100;
+
+    @Param({"23", "50", "80", "200"})
+    public double temp;
+
+    private MultiSpinLattice ensemble;
+    private Lattice lattice;
+
+    @Setup
+    public void setUp() {
+        ensemble = new MultiSpinLattice();
+        ensemble.setRandom(new SplittableRandom(42));
+        ensemble.randomise();
+        ensemble.setTemp(temp);
+        lattice = new Lattice();
+        lattice.setSeed(42);
+        lattice.setTemp(temp);
+        for (int i = 0; i < WARM_UP_SWEEPS; i++) {
+            ensemble.sweep();
+            for (int site = 0; site < lattice.size(); site++)
+                lattice.randomFlip();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MultiSpinLattice.REPLICAS)
+    public MultiSpinLattice multiSpinStep() {
+        ensemble.step();
+        return ensemble;
+    }
+
+    @Benchmark
+    public Lattice latticeStep() {
+        lattice.randomFlip();
+        return lattice;
+    }
+}
@@ -0,0 +1,52 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the selection of random positions and the lookup of the positions within an interaction distance, for
+ * lattices of several thicknesses. The thickness is fixed when the lattice classes are initialised, which happens in
+ * the set up of each forked trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PositionBenchmark {
+    @Param({"6", "12", "24"})
+    public int thickness;
+
+    @Param({"1", "3", "5", "7"})
+    public int interactionDistance;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private Position position;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(Position.THICKNESS_PROPERTY, Integer.toString(thickness));
+        if (Position.THICKNESS != thickness)
+            throw new IllegalStateException("Lattice was initialised before the thickness was set");
+        Neighbourhood.of(interactionDistance);
+        position = Position.at(Position.count() / 2);
+    }
+
+    @Benchmark
+    public Position random() {
+        return Position.random(random);
+    }
+
+    @Benchmark
+    public Map<Position, Integer> positionsWithin() {
+        return position.positionsWithin(interactionDistance);
+    }
+}
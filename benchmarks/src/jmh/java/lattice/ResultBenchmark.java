@@ -0,0 +1,47 @@
+package lattice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the aggregation of the states of a simulation into a {@link Result}, both from a recorded history and
+ * by folding each state into running {@link Observables}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResultBenchmark {
+    private final List<lattice.State> states = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Lattice lattice = new Lattice();
+        lattice.setTemp(40);
+        for (int i = 0; i < Simulation.SIMULATION_ITERATIONS; i++) {
+            lattice.randomFlip();
+            states.add(lattice.getState());
+        }
+    }
+
+    @Benchmark
+    public Result calculateFromHistory() {
+        return Result.calculate(40, states);
+    }
+
+    @Benchmark
+    public Result calculateFromObservables() {
+        Observables observables = new Observables();
+        for (lattice.State state : states)
+            observables.add(state);
+        return Result.calculate(40, observables);
+    }
+}
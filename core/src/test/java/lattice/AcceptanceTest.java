@@ -0,0 +1,136 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that the {@link Acceptance} table makes exactly the decisions of the Metropolis criterion it replaced, which
+ * summed the change in energy of a flip over the interacting particles and accepted an uphill flip if
+ * {@code exp(-change / temp)} exceeded a random number. Each decision is made with its own generator seeded alike, so
+ * the two must also draw the same random numbers.
+ */
+class AcceptanceTest {
+    private static final double[] TEMPS = {1, 23, 50, 80, 200, 1000};
+    private static final Neighbourhood NEIGHBOURHOOD = Neighbourhood.of(Lattice.INTERACTION_DISTANCE);
+
+    @Test
+    void tableMatchesDirectCalculation() {
+        for (double temp : temps()) {
+            Acceptance acceptance = acceptance(temp);
+            for (int spin : new int[]{+1, -1}) {
+                for (long field = -NEIGHBOURHOOD.maxField; field <= NEIGHBOURHOOD.maxField; field++)
+                    assertEquals(acceptance.calculate(spin, field), acceptance.probability(spin, field),
+                            "temp " + temp + ", spin " + spin + ", field " + field);
+            }
+        }
+    }
+
+    @Test
+    void decisionsMatchFormulaOverFields() {
+        SplittableRandom fields = new SplittableRandom(12);
+        long max = NEIGHBOURHOOD.maxField;
+        for (double temp : temps()) {
+            Acceptance acceptance = acceptance(temp);
+            double gibbs = Lattice.gibbs(temp);
+            long threshold = (long) Math.floor(-gibbs * NEIGHBOURHOOD.fieldScale);
+            long[] boundaries = {0, max, -max, threshold - 1, threshold, threshold + 1};
+            for (int spin : new int[]{+1, -1}) {
+                for (long field : boundaries)
+                    assertSameDecisions(acceptance, temp, spin, Math.max(-max, Math.min(max, field)), 100);
+                for (int i = 0; i < 1000; i++)
+                    assertSameDecisions(acceptance, temp, spin, fields.nextLong(-max, max + 1), 10);
+            }
+        }
+    }
+
+    @Test
+    void decisionsMatchFormulaOverLattices() {
+        Neighbourhood.Table within = NEIGHBOURHOOD.within;
+        Neighbourhood.Table reaching = NEIGHBOURHOOD.reaching;
+        for (double temp : temps()) {
+            Lattice lattice = new Lattice();
+            lattice.setSeed(13);
+            lattice.setTemp(temp);
+            Acceptance acceptance = acceptance(temp);
+            SplittableRandom table = new SplittableRandom(14);
+            SplittableRandom formula = new SplittableRandom(14);
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 5 * lattice.size(); i++)
+                    lattice.randomFlip();
+                for (int site = 0; site < lattice.size(); site++) {
+                    int spin = lattice.getSpin(site);
+                    double field = sum(lattice, within, site) + sum(lattice, reaching, site);
+                    double change = -2.0 * spin * (lattice.getGibbs() + field);
+                    boolean expected = change < 0 || Math.exp(-change / temp) > formula.nextDouble();
+                    assertEquals(expected, acceptance.accept(spin, lattice.getField(site), table),
+                            "temp " + temp + ", site " + site);
+                }
+            }
+            assertEquals(formula.nextLong(), table.nextLong());
+        }
+    }
+
+    @Test
+    void downhillFlipsAreAlwaysAccepted() {
+        for (double temp : temps()) {
+            Acceptance acceptance = acceptance(temp);
+            double gibbs = Lattice.gibbs(temp);
+            SplittableRandom random = new SplittableRandom(15);
+            long before = new SplittableRandom(15).nextLong();
+            for (int spin : new int[]{+1, -1}) {
+                for (long field : new long[]{0, spin * NEIGHBOURHOOD.maxField}) {
+                    if (spin * (gibbs + (double) field / NEIGHBOURHOOD.fieldScale) > 0) {
+                        assertTrue(acceptance.accept(spin, field, random), "temp " + temp + ", field " + field);
+                        assertTrue(acceptance.probability(spin, field) > 1);
+                    }
+                }
+            }
+            assertEquals(before, random.nextLong(), "a random number was drawn for a downhill flip");
+        }
+    }
+
+    private static void assertSameDecisions(Acceptance acceptance, double temp, int spin, long field, int draws) {
+        long seed = field * 31 + spin;
+        SplittableRandom table = new SplittableRandom(seed);
+        SplittableRandom formula = new SplittableRandom(seed);
+        double change = -2.0 * spin * (Lattice.gibbs(temp) + (double) field / NEIGHBOURHOOD.fieldScale);
+        for (int i = 0; i < draws; i++) {
+            boolean expected = change < 0 || Math.exp(-change / temp) > formula.nextDouble();
+            assertEquals(expected, acceptance.accept(spin, field, table),
+                    "temp " + temp + ", spin " + spin + ", field " + field);
+        }
+        assertEquals(formula.nextLong(), table.nextLong());
+    }
+
+    /**
+     * Sums the spins of the particles in a table's entries for a particle, weighted by the inverse square of their
+     * distances, as the field was summed before it was held in units of {@code 1 / fieldScale}.
+     */
+    private static double sum(Lattice lattice, Neighbourhood.Table table, int site) {
+        int shift = table.shift(site);
+        double field = 0;
+        for (int n = table.offsets()[site]; n < table.offsets()[site + 1]; n++)
+            field += lattice.getSpin(table.indices()[n]) * table.weights()[n + shift];
+        return field;
+    }
+
+    /**
+     * Gets the fixed temperatures, which include extremes at either end, and seeded random temperatures between them.
+     */
+    private static double[] temps() {
+        SplittableRandom random = new SplittableRandom(11);
+        double[] temps = new double[TEMPS.length + 10];
+        System.arraycopy(TEMPS, 0, temps, 0, TEMPS.length);
+        for (int i = TEMPS.length; i < temps.length; i++)
+            temps[i] = random.nextDouble(10, 150);
+        return temps;
+    }
+
+    private static Acceptance acceptance(double temp) {
+        return new Acceptance(temp, Lattice.gibbs(temp), NEIGHBOURHOOD);
+    }
+}
@@ -0,0 +1,159 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests a {@link Binning} analysis and the stopping rule of {@link Simulation} on autoregressive series
+ * {@code x[n] = mean + phi (x[n-1] - mean) + noise}, whose variance {@code 1 / (1 - phi^2)} and integrated
+ * autocorrelation time {@code (1 + phi) / (2 (1 - phi))} are known exactly. The binning error is the largest estimate
+ * over the block sizes, so it leans high, and the bounds allow more above the exact values than below. A series too
+ * short for its autocorrelation time must have no error rather than one that is too small, while a simulation with the
+ * default iterations must have one.
+ */
+class BinningTest {
+    private static final double MEAN = 20;
+
+    @Test
+    void autocorrelationTimeMatchesSeries() {
+        for (double phi : new double[]{0, 0.5, 0.9}) {
+            int count = 1 << 20;
+            Binning binning = new Binning(1, 16);
+            Series series = new Series(phi, 41);
+            for (int i = 0; i < count; i++)
+                binning.add(new double[]{series.next()});
+            assertBetween(0.9, 1.35, binning.autocorrelationTime(0) / series.autocorrelationTime(), "phi " + phi);
+            assertBetween(0.95, 1.2, binning.error(0) / series.error(count), "phi " + phi);
+            assertEquals(MEAN, binning.mean(0), 4 * series.error(count), "phi " + phi);
+        }
+    }
+
+    @Test
+    void tooFewBlocksHaveNoEstimate() {
+        Binning binning = new Binning(1, 16);
+        Series series = new Series(0.5, 42);
+        for (int i = 0; i < 2 * 16 * Binning.MIN_BLOCKS - 1; i++)
+            binning.add(new double[]{series.next()});
+        assertTrue(Double.isNaN(binning.error(0)));
+        assertTrue(Double.isNaN(binning.autocorrelationTime(0)));
+        binning.add(new double[]{series.next()});
+        assertTrue(binning.autocorrelationTime(0) > 0);
+    }
+
+    @Test
+    void longCorrelationsAreNotUnderestimated() {
+        Series series = new Series(199.0 / 201.0, 46);
+        int count = 1 << 12;
+        for (int run = 0; run < 20; run++) {
+            Binning binning = new Binning(1, 16);
+            for (int i = 0; i < count; i++)
+                binning.add(new double[]{series.next()});
+            double error = binning.error(0);
+            assertTrue(Double.isNaN(error) || error >= 0.5 * series.error(count), "error " + error);
+        }
+    }
+
+    @Test
+    void repeatsMatchMeasurementsAddedSeparately() {
+        Binning repeated = new Binning(2, 16);
+        Binning separate = new Binning(2, 16);
+        Series series = new Series(0.7, 43);
+        SplittableRandom random = new SplittableRandom(44);
+        for (int i = 0; i < 20_000; i++) {
+            double value = series.next();
+            double[] values = {value, value * value};
+            int times = random.nextInt(1, 40);
+            repeated.add(values, times);
+            for (int j = 0; j < times; j++)
+                separate.add(values);
+        }
+        assertEquals(separate.getCount(), repeated.getCount());
+        for (int observable = 0; observable < 2; observable++) {
+            assertEquals(separate.mean(observable), repeated.mean(observable),
+                    1e-9 * Math.abs(separate.mean(observable)));
+            assertEquals(separate.error(observable), repeated.error(observable), 1e-6 * separate.error(observable));
+            assertEquals(separate.autocorrelationTime(observable), repeated.autocorrelationTime(observable),
+                    1e-6 * separate.autocorrelationTime(observable));
+        }
+    }
+
+    /**
+     * Extends a series by a tenth at a time, as a simulation with a precision does, until the binning error meets the
+     * target. The length at which it stops must be that which the autocorrelation time calls for, rather than the
+     * {@code 2 tau} times shorter length at which the naive error would meet it.
+     */
+    @Test
+    void stoppingRuleAccountsForCorrelation() {
+        double target = 0.002;
+        Series series = new Series(0.9, 45);
+        double required = series.variance() * 2 * series.autocorrelationTime() / Math.pow(target * MEAN, 2);
+        Binning binning = new Binning(1, 16);
+        long spent = 0;
+        long length = 1 << 12;
+        do {
+            for (long i = 0; i < length; i++)
+                binning.add(new double[]{series.next()});
+            spent += length;
+            length = Math.max(16, spent / 10);
+        } while (!Simulation.isWithin(binning.error(0), binning.mean(0), target));
+        assertBetween(0.85, 1.4, spent / required, "length");
+        assertTrue(series.error(spent) <= 1.2 * target * MEAN, "error " + series.error(spent));
+        assertEquals(MEAN, binning.mean(0), 4 * target * MEAN);
+    }
+
+    @Test
+    void defaultIterationsGiveErrors() {
+        for (double temp : new double[]{23, 50, 80}) {
+            Lattice lattice = new Lattice();
+            lattice.setSeed(47);
+            Simulation simulation = new Simulation(lattice);
+            simulation.warmup(temp);
+            Result result = simulation.simulate(temp);
+            for (double error : new double[]{result.energyError(), result.magnetismError(), result.heatCapacityError()})
+                assertTrue(error > 0 && Double.isFinite(error), "temp " + temp + ": error " + error);
+        }
+    }
+
+    private static void assertBetween(double min, double max, double ratio, String message) {
+        assertTrue(ratio >= min && ratio <= max, message + ": ratio " + ratio);
+    }
+
+    /**
+     * A first-order autoregressive series started from its stationary distribution.
+     */
+    private static class Series {
+        private final double phi;
+        private final SplittableRandom random;
+        private double value;
+
+        Series(double phi, long seed) {
+            this.phi = phi;
+            this.random = new SplittableRandom(seed);
+            this.value = MEAN + random.nextGaussian() * Math.sqrt(variance());
+        }
+
+        double next() {
+            value = MEAN + phi * (value - MEAN) + random.nextGaussian();
+            return value;
+        }
+
+        double variance() {
+            return 1 / (1 - phi * phi);
+        }
+
+        double autocorrelationTime() {
+            return (1 + phi) / (2 * (1 - phi));
+        }
+
+        /**
+         * Gets the standard error of the mean of a number of successive values.
+         */
+        double error(long count) {
+            return Math.sqrt(variance() * 2 * autocorrelationTime() / count);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link Checkpoint} is only resumed once it has been started, and that a sweep resumed from one gives
+ * the same results as a sweep run without one.
+ */
+class CheckpointTest {
+    private static final Simulation.Iterations ITERATIONS = new Simulation.Iterations(
+            Position.count() * 5, Position.count(), Position.count() * 10);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void unstartedCheckpointIsStartedAfresh() throws IOException {
+        Path file = directory.resolve("sweep.checkpoint");
+        try (Checkpoint checkpoint = Checkpoint.open(file, parameters(1))) {
+            checkpoint.saveChunk(0, 0, new Lattice());
+        }
+        try (Checkpoint checkpoint = Checkpoint.open(file, parameters(2))) {
+            assertFalse(checkpoint.isResumed());
+            assertEquals(2, checkpoint.getSeed());
+            assertFalse(checkpoint.next(0).isPresent());
+        }
+    }
+
+    @Test
+    void startedCheckpointResumes() throws IOException {
+        Path file = directory.resolve("sweep.checkpoint");
+        Lattice lattice = new Lattice();
+        lattice.setSeed(3);
+        lattice.setTemp(60);
+        for (int i = 0; i < 10 * lattice.size(); i++)
+            lattice.randomFlip();
+        Result result = new Result(41, -120.25, 3.5, 0.125, 17.0, 2.5, 0.6, 0.01, 0.2, 0.003, 1234);
+        try (Checkpoint checkpoint = Checkpoint.open(file, parameters(1))) {
+            checkpoint.saveChunk(0, 0, lattice);
+            checkpoint.saveChunk(1, 1, new Lattice());
+            checkpoint.start();
+            checkpoint.saveResult(1, result);
+            checkpoint.saveChunk(1, 2, lattice);
+        }
+        try (Checkpoint checkpoint = Checkpoint.open(file, parameters(2))) {
+            assertTrue(checkpoint.isResumed());
+            assertEquals(1, checkpoint.getSeed());
+            assertEquals(0, checkpoint.next(0).orElseThrow());
+            assertEquals(2, checkpoint.next(1).orElseThrow());
+            assertEquals(result, checkpoint.result(1).orElseThrow());
+            assertFalse(checkpoint.result(0).isPresent());
+            Lattice loaded = new Lattice();
+            checkpoint.loadChunk(1, loaded);
+            assertEquals(lattice.snapshotSpins(), loaded.snapshotSpins());
+        }
+    }
+
+    @Test
+    void sweepRecoversFromInterruptedWarmUp() throws IOException, InterruptedException {
+        Path file = directory.resolve("sweep.checkpoint");
+        try (Checkpoint checkpoint = Checkpoint.open(file, parameters(9))) {
+            checkpoint.saveChunk(0, 0, new Lattice());
+        }
+        assertEquals(sweep(null), sweep(file));
+    }
+
+    @Test
+    void sweepResumesFromCompletedCheckpoint() throws InterruptedException {
+        Path file = directory.resolve("sweep.checkpoint");
+        List<Result> results = sweep(file);
+        assertEquals(results, sweep(file));
+        assertEquals(sweep(null), results);
+    }
+
+    @Test
+    void sweepWithAnotherEngineIsRejected() throws InterruptedException {
+        Path file = directory.resolve("sweep.checkpoint");
+        sweep(file);
+        Sweep sweep = new Sweep(40, 42, 1, 2);
+        sweep.setIterations(ITERATIONS);
+        sweep.setRejectionFree(true);
+        sweep.setCheckpoint(file);
+        assertThrows(IllegalStateException.class, () -> sweep.run(results -> { }));
+    }
+
+    private static List<Result> sweep(Path checkpoint) throws InterruptedException {
+        Sweep sweep = new Sweep(40, 42, 1, 2);
+        sweep.setSeed(9);
+        sweep.setIterations(ITERATIONS);
+        if (checkpoint != null)
+            sweep.setCheckpoint(checkpoint);
+        return sweep.run(results -> { });
+    }
+
+    private static Checkpoint.Parameters parameters(long seed) {
+        return new Checkpoint.Parameters(seed, 40, 42, 1, 2, 3, ITERATIONS, Position.count(),
+                Lattice.INTERACTION_DISTANCE, Sweep.DEFAULT_GENERATOR.hashCode(), 0, 0, false);
+    }
+}
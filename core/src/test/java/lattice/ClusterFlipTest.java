@@ -0,0 +1,67 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static lattice.SimulationFixture.assertMatches;
+import static lattice.SimulationFixture.assertReproduced;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a lattice updated by a {@link ClusterFlip} reproduces itself from a seed, grows clusters of more than one
+ * particle and samples the same distribution as random single flips, and that a {@link Sweep} applies it.
+ */
+class ClusterFlipTest {
+    private static final double TEMP = 80;
+    private static final double LOW_TEMP = 23;
+    private static final double HIGH_TEMP = 200;
+
+    @Test
+    void clusterFlipIsReproducedFromSeed() throws InterruptedException {
+        assertReproduced(9, seed -> simulate(seed, TEMP, new ClusterFlip()));
+    }
+
+    @Test
+    void clusterFlipMatchesMetropolis() {
+        for (double temp : new double[]{LOW_TEMP, HIGH_TEMP})
+            assertMatches(simulate(10, temp, new SingleFlip()), simulate(11, temp, new ClusterFlip()));
+    }
+
+    @Test
+    void clustersGrowBeyondTheirSeed() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(12);
+        lattice.setTemp(LOW_TEMP);
+        ClusterFlip clusterFlip = new ClusterFlip();
+        lattice.setMove(clusterFlip);
+        int largest = 0;
+        for (int i = 0; i < 10 * lattice.size(); i++) {
+            lattice.step();
+            largest = Math.max(largest, clusterFlip.getLastClusterSize());
+        }
+        assertTrue(largest > 1, "no bonds were added to any cluster");
+    }
+
+    @Test
+    void sweepAppliesClusterMove() throws InterruptedException {
+        List<Result> clusters = sweep(13, true);
+        assertEquals(clusters, sweep(13, true));
+        assertNotEquals(sweep(13, false), clusters);
+    }
+
+    private static List<Result> sweep(long seed, boolean cluster) throws InterruptedException {
+        Sweep sweep = new Sweep(LOW_TEMP, LOW_TEMP + 2, 1, 2);
+        sweep.setSeed(seed);
+        sweep.setIterations(new Simulation.Iterations(Position.count() * 5, Position.count(), Position.count() * 5));
+        if (cluster)
+            sweep.setMove(ClusterFlip::new);
+        return sweep.run(results -> { });
+    }
+
+    private static Result simulate(long seed, double temp, Move move) {
+        return SimulationFixture.simulate(seed, temp, simulation -> simulation.getMatrix().setMove(move));
+    }
+}
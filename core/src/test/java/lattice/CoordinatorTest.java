@@ -0,0 +1,186 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link Coordinator} only hands out units to workers with its token, and that the temperatures of a
+ * worker that is killed, stops responding or fails are assigned again, up to {@link Coordinator#MAX_ATTEMPTS} times.
+ * Apart from the local workers, the workers are played by the test over the {@link WorkerProtocol}. A coordinator
+ * that fails to reassign waits for ever, so each test has a timeout.
+ */
+@Timeout(120)
+class CoordinatorTest {
+    private static final String TOKEN = "coordinator-test";
+
+    @Test
+    void killedLocalWorkerIsReplaced() throws InterruptedException {
+        Sweep sweep = new Sweep(30, 41, 1);
+        sweep.setIterations(new Simulation.Iterations(
+                Position.count() * 2_000, Position.count() * 500, Position.count() * 10_000));
+        sweep.setSeed(31);
+        Coordinator coordinator = new Coordinator(sweep);
+        coordinator.setLocalWorkers(2);
+        coordinator.setUnitSize(4);
+        AtomicBoolean killed = new AtomicBoolean(false);
+        List<Result> results = coordinator.run(completed -> {
+            if (!killed.getAndSet(true))
+                coordinator.getProcesses().get(0).destroyForcibly();
+        });
+        assertTrue(killed.get());
+        assertTrue(coordinator.getReassignments() > 0, "reassignments " + coordinator.getReassignments());
+        assertEquals(sweep.getTemps(), results.stream().map(Result::temp).toList());
+    }
+
+    @Test
+    void workerWithWrongTokenIsRejected() throws Exception {
+        Sweep sweep = new Sweep(40, 47, 1);
+        Coordinator coordinator = new Coordinator(sweep);
+        coordinator.setUnitSize(3);
+        int port = freePort();
+        FutureTask<List<Result>> run = start(coordinator, port);
+        try (Socket socket = connect(port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            new WorkerProtocol.Hello("wrong").write(out);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        try (Socket socket = connect(port)) {
+            assertEquals(3, serve(socket, false));
+        }
+        assertEquals(sweep.getTemps(), run.get().stream().map(Result::temp).toList());
+        assertEquals(0, coordinator.getReassignments());
+    }
+
+    @Test
+    void silentWorkerIsTimedOut() throws Exception {
+        Sweep sweep = new Sweep(40, 47, 1);
+        Coordinator coordinator = new Coordinator(sweep);
+        int port = freePort();
+        FutureTask<List<Result>> run = start(coordinator, port);
+        try (Socket silent = connect(port); Socket socket = connect(port)) {
+            DataInputStream in = handshake(silent);
+            WorkerProtocol.expect(in, WorkerProtocol.UNIT);
+            WorkerProtocol.Unit.read(in);
+            long start = System.currentTimeMillis();
+            assertEquals(1, serve(socket, false));
+            assertTrue(System.currentTimeMillis() - start >= WorkerProtocol.TIMEOUT_MILLIS);
+            assertThrows(EOFException.class, in::readByte);
+        }
+        assertEquals(sweep.getTemps(), run.get().stream().map(Result::temp).toList());
+        assertEquals(1, coordinator.getReassignments());
+    }
+
+    @Test
+    void unitFailingRepeatedlyFailsTheSweep() throws Exception {
+        Coordinator coordinator = new Coordinator(new Sweep(40, 47, 1));
+        int port = freePort();
+        FutureTask<List<Result>> run = start(coordinator, port);
+        try (Socket socket = connect(port)) {
+            assertEquals(Coordinator.MAX_ATTEMPTS, serve(socket, true));
+        }
+        ExecutionException ex = assertThrows(ExecutionException.class, run::get);
+        assertTrue(ex.getCause() instanceof IllegalStateException, String.valueOf(ex.getCause()));
+        assertEquals(Coordinator.MAX_ATTEMPTS - 1, coordinator.getReassignments());
+    }
+
+    /**
+     * Runs a coordinator for remote workers in the background.
+     */
+    private static FutureTask<List<Result>> start(Coordinator coordinator, int port) {
+        coordinator.setPort(port);
+        coordinator.setToken(TOKEN);
+        FutureTask<List<Result>> run = new FutureTask<>(() -> coordinator.run(completed -> {
+        }));
+        Thread thread = new Thread(run, "coordinator-test");
+        thread.setDaemon(true);
+        thread.start();
+        return run;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket free = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return free.getLocalPort();
+        }
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException ex) {
+                if (attempt == 100)
+                    throw ex;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Connects as a worker with the right token and reads the settings.
+     */
+    private static DataInputStream handshake(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        new WorkerProtocol.Hello(TOKEN).write(out);
+        WorkerProtocol.Settings.read(in);
+        out.writeByte(WorkerProtocol.READY);
+        out.writeInt(Position.count());
+        out.flush();
+        return in;
+    }
+
+    /**
+     * Acts as a worker until the coordinator stops it or closes the connection, either failing each unit or sending a
+     * result with the temperature of each point and no other values.
+     *
+     * @return the number of units received
+     */
+    private static int serve(Socket socket, boolean fail) throws IOException {
+        DataInputStream in = handshake(socket);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        int units = 0;
+        try {
+            for (byte type = in.readByte(); type == WorkerProtocol.UNIT; type = in.readByte()) {
+                WorkerProtocol.Unit unit = WorkerProtocol.Unit.read(in);
+                units++;
+                if (fail) {
+                    out.writeByte(WorkerProtocol.FAILED);
+                    out.writeUTF("failure " + units);
+                } else {
+                    for (int i = 0; i < unit.temps().length; i++) {
+                        double[] values = new double[Result.FIELDS];
+                        values[0] = unit.temps()[i];
+                        out.writeByte(WorkerProtocol.RESULT);
+                        out.writeInt(unit.first() + i);
+                        for (double value : values)
+                            out.writeDouble(value);
+                    }
+                    out.writeByte(WorkerProtocol.DONE);
+                }
+                out.flush();
+            }
+        } catch (EOFException ex) {
+            // a coordinator that has failed closes the connection without stopping the worker
+        }
+        return units;
+    }
+}
@@ -0,0 +1,66 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests that the vectorised {@link EnergyKernel} gives the same fields as the scalar kernel and the same energies to
+ * within rounding, including when ranges are calculated concurrently. The vectorised kernel is only tested when the
+ * Vector API module is added to the JVM.
+ */
+class EnergyKernelTest {
+    private static final int[] DISTANCES = {1, 3, Lattice.INTERACTION_DISTANCE};
+    private static final double GIBBS = Lattice.gibbs(40);
+
+    @Test
+    void kernelsAgree() {
+        assumeTrue(EnergyKernel.isVectorAvailable(), "Vector API is not available");
+        SplittableRandom random = new SplittableRandom(21);
+        for (int distance : DISTANCES) {
+            Neighbourhood neighbourhood = Neighbourhood.of(distance);
+            EnergyKernel vector = EnergyKernel.of(neighbourhood);
+            assertEquals("VectorEnergyKernel", vector.getClass().getSimpleName());
+            double[] spins = spins(random);
+            assertSame(spins, new ScalarEnergyKernel(neighbourhood), vector, 1);
+        }
+    }
+
+    @Test
+    void concurrentRangesAgree() {
+        SplittableRandom random = new SplittableRandom(22);
+        Neighbourhood neighbourhood = Neighbourhood.of(Lattice.INTERACTION_DISTANCE);
+        double[] spins = spins(random);
+        assertSame(spins, new ScalarEnergyKernel(neighbourhood), EnergyKernel.of(neighbourhood), 4);
+    }
+
+    /**
+     * Asserts that a kernel calculating the particles in a number of ranges at once agrees with another calculating
+     * them all in one.
+     */
+    private static void assertSame(double[] spins, EnergyKernel expected, EnergyKernel actual, int ranges) {
+        int count = spins.length;
+        double[] expectedEnergies = new double[count];
+        long[] expectedFields = new long[count];
+        expected.calculate(spins, GIBBS, expectedEnergies, expectedFields, 0, count);
+        double[] energies = new double[count];
+        long[] fields = new long[count];
+        IntStream.range(0, ranges).parallel().forEach(range -> actual.calculate(spins, GIBBS, energies, fields,
+                range * count / ranges, (range + 1) * count / ranges));
+        assertArrayEquals(expectedFields, fields);
+        for (int site = 0; site < count; site++)
+            assertEquals(expectedEnergies[site], energies[site], 1e-12 * (1 + Math.abs(expectedEnergies[site])));
+    }
+
+    private static double[] spins(SplittableRandom random) {
+        double[] spins = new double[Position.count()];
+        for (int site = 0; site < spins.length; site++)
+            spins[site] = random.nextBoolean() ? 1.0 : -1.0;
+        return spins;
+    }
+}
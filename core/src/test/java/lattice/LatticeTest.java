@@ -0,0 +1,79 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that the state a lattice maintains as it flips particles agrees with recalculating it from the spins, and that
+ * a lattice can be stepped before it is given a temperature.
+ */
+class LatticeTest {
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    void changeInEnergyMatchesField() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(1);
+        lattice.setTemp(50);
+        long scale = Neighbourhood.of(Lattice.INTERACTION_DISTANCE).fieldScale;
+        for (int site = 0; site < lattice.size(); site++) {
+            int spin = lattice.getSpin(site);
+            double expected = -2.0 * spin * (lattice.getGibbs() + (double) lattice.getField(site) / scale);
+            double before = lattice.getEnergy();
+            lattice.acceptFlip(site);
+            assertEquals(expected, lattice.getEnergy() - before, TOLERANCE * lattice.size(), "site " + site);
+        }
+    }
+
+    @Test
+    void latticeStepsAtItsInitialTemperature() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(3);
+        for (int i = 0; i < lattice.size(); i++)
+            lattice.step();
+        assertEquals(lattice.size(), lattice.getCounters().attempts());
+        Lattice copy = new Lattice(lattice);
+        copy.step();
+        assertEquals(1, copy.getCounters().attempts());
+    }
+
+    @Test
+    void maintainedStateMatchesRecalculation() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(2);
+        lattice.setRecalculationInterval(Integer.MAX_VALUE);
+        for (double temp : new double[]{23, 50, 80}) {
+            lattice.setTemp(temp);
+            for (int i = 0; i < 50 * lattice.size(); i++)
+                lattice.randomFlip();
+            double energy = lattice.getEnergy();
+            double energySquared = lattice.getEnergySquared();
+            double fieldSum = lattice.getFieldSum();
+            int magnetism = lattice.getMagnetism();
+            long[] fields = new long[lattice.size()];
+            for (int site = 0; site < fields.length; site++)
+                fields[site] = lattice.getField(site);
+            lattice.setTemp(temp);
+            double tolerance = TOLERANCE * lattice.size();
+            assertEquals(lattice.getEnergy(), energy, tolerance);
+            assertEquals(lattice.getEnergySquared(), energySquared, tolerance * Math.abs(energySquared));
+            assertEquals(lattice.getFieldSum(), fieldSum, tolerance);
+            assertEquals(lattice.getMagnetism(), magnetism);
+            for (int site = 0; site < fields.length; site++)
+                assertEquals(lattice.getField(site), fields[site], "site " + site);
+        }
+    }
+
+    @Test
+    void energyAtAnotherTemperatureMatchesRecalculation() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(3);
+        lattice.setTemp(50);
+        for (int i = 0; i < 20 * lattice.size(); i++)
+            lattice.randomFlip();
+        double energy = lattice.getEnergyAt(70);
+        lattice.setTemp(70);
+        assertEquals(lattice.getEnergy(), energy, TOLERANCE * lattice.size());
+    }
+}
@@ -0,0 +1,209 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that each replica of a {@link MultiSpinLattice} starts from its own random spins and is recorded with the state
+ * a {@link Lattice} with the same spins has, and that a {@link MultiSpinSimulation} is reproduced from a seed and
+ * samples the same distribution as a {@link Simulation}, with errors that do not count the replicas as independent.
+ * The replicas must accept flips as often as a lattice, and a multi-spin {@link Sweep} must publish running results.
+ */
+class MultiSpinLatticeTest {
+    private static final double TEMP = 50;
+
+    @Test
+    void recordedReplicasMatchLattices() {
+        MultiSpinLattice ensemble = new MultiSpinLattice();
+        ensemble.setRandom(new SplittableRandom(31));
+        ensemble.randomise();
+        ensemble.setTemp(TEMP);
+        for (int i = 0; i < 10; i++)
+            ensemble.sweep();
+        Observables[] observables = new Observables[MultiSpinLattice.REPLICAS];
+        Arrays.setAll(observables, replica -> new Observables());
+        Binning binning = new Binning(4, 1);
+        ensemble.record(observables, binning);
+        double energy = 0;
+        for (int replica = 0; replica < MultiSpinLattice.REPLICAS; replica++) {
+            Lattice lattice = ensemble.getReplica(replica);
+            double tolerance = 1e-9 * lattice.size();
+            assertEquals(lattice.getEnergy(), observables[replica].averageEnergy(), tolerance, "replica " + replica);
+            assertEquals(lattice.getEnergySquared(), observables[replica].averageEnergySquared(),
+                    tolerance * Math.abs(lattice.getEnergySquared()), "replica " + replica);
+            assertEquals(lattice.getMagnetism(), observables[replica].averageMagnetism(), "replica " + replica);
+            energy += lattice.getEnergy() / MultiSpinLattice.REPLICAS;
+        }
+        assertEquals(energy, binning.mean(Observables.ENERGY), 1e-9 * Position.count());
+        assertNotEquals(ensemble.getReplica(0).snapshotSpins(), ensemble.getReplica(1).snapshotSpins());
+    }
+
+    @Test
+    void replicasStepAtTheirInitialTemperature() {
+        MultiSpinLattice ensemble = new MultiSpinLattice();
+        ensemble.setRandom(new SplittableRandom(41));
+        ensemble.sweep();
+        assertEquals((long) Position.count() * MultiSpinLattice.REPLICAS, ensemble.getCounters().attempts());
+    }
+
+    @Test
+    void replicasStartFromIndependentSpins() {
+        MultiSpinLattice ensemble = new MultiSpinLattice();
+        ensemble.setRandom(new SplittableRandom(35));
+        ensemble.randomise();
+        Set<BitSet> starts = new HashSet<>();
+        long up = 0;
+        for (int replica = 0; replica < MultiSpinLattice.REPLICAS; replica++) {
+            Lattice lattice = ensemble.getReplica(replica);
+            starts.add(lattice.snapshotSpins());
+            up += (lattice.size() + lattice.getMagnetism()) / 2;
+        }
+        assertEquals(MultiSpinLattice.REPLICAS, starts.size());
+        double fraction = (double) up / (MultiSpinLattice.REPLICAS * Position.count());
+        assertEquals(0.5, fraction, 0.05);
+    }
+
+    @Test
+    void multiSpinIsReproducedFromSeed() {
+        assertEquals(simulate(36), simulate(36));
+    }
+
+    /**
+     * Records replicas that are all in the same state, as replicas sharing random numbers may be, so the errors must
+     * be those of a single replica rather than of independent ones.
+     */
+    @Test
+    void errorsAreThoseOfTheReplicaAverage() {
+        SplittableRandom random = new SplittableRandom(37);
+        int steps = 16 * 2 * Binning.MIN_BLOCKS;
+        double spread = 10;
+        Observables[] observables = new Observables[MultiSpinLattice.REPLICAS];
+        Arrays.setAll(observables, replica -> new Observables(1));
+        Binning binning = new Binning(4, 1);
+        for (int i = 0; i < steps; i++) {
+            double energy = -100 + spread * random.nextGaussian();
+            int magnetism = random.nextInt(-5, 6);
+            for (Observables replica : observables)
+                replica.add(energy, energy * energy / Position.count(), magnetism);
+            binning.add(new double[]{energy, energy * energy / Position.count(), magnetism, Math.abs(magnetism)});
+        }
+        Result result = Result.calculate(TEMP, observables, binning);
+        double expected = spread / Math.sqrt(steps) / Position.count();
+        assertEquals(expected, result.energyError(), 0.1 * expected);
+    }
+
+    @Test
+    void errorsAreNaNUntilTheBinningLevelsOff() {
+        Result result = simulate(36);
+        assertTrue(Double.isNaN(result.energyError()), "error " + result.energyError());
+        assertTrue(Double.isNaN(result.magnetismError()), "error " + result.magnetismError());
+        assertTrue(Double.isNaN(result.heatCapacityError()), "error " + result.heatCapacityError());
+    }
+
+    @Test
+    void errorsAreEstimatedWithDefaultIterations() {
+        MultiSpinSimulation simulation = new MultiSpinSimulation();
+        simulation.getEnsemble().setRandom(new SplittableRandom(32));
+        simulation.warmup(TEMP);
+        Result result = simulation.simulate(TEMP);
+        for (double error : new double[]{result.energyError(), result.magnetismError(), result.heatCapacityError()})
+            assertTrue(error > 0 && Double.isFinite(error), "error " + error);
+        int sweeps = (Simulation.Iterations.DEFAULT.simulation() + Position.count() - 1) / Position.count();
+        assertEquals((long) sweeps * MultiSpinLattice.REPLICAS, result.samples());
+    }
+
+    @Test
+    void multiSpinMatchesMetropolis() {
+        Simulation.Iterations iterations = new Simulation.Iterations(
+                Position.count() * 50, Position.count() * 10, Position.count() * 4000);
+        MultiSpinSimulation multiSpin = new MultiSpinSimulation();
+        multiSpin.setIterations(iterations);
+        multiSpin.getEnsemble().setRandom(new SplittableRandom(33));
+        multiSpin.warmup(TEMP);
+        Result replicas = multiSpin.simulate(TEMP);
+        Lattice lattice = new Lattice();
+        lattice.setSeed(34);
+        Simulation single = new Simulation(lattice);
+        single.setIterations(new Simulation.Iterations(iterations.initialWarmUp(), iterations.followingWarmUp(),
+                iterations.simulation() * 4));
+        single.warmup(TEMP);
+        Result metropolis = single.simulate(TEMP);
+        ResultAssertions.assertAgree(metropolis.averageEnergy(), metropolis.energyError(), replicas.averageEnergy(),
+                replicas.energyError());
+        ResultAssertions.assertAgree(metropolis.averageMagnetism(), metropolis.magnetismError(),
+                replicas.averageMagnetism(), replicas.magnetismError());
+        ResultAssertions.assertAgree(metropolis.averageHeatCapacity(), metropolis.heatCapacityError(),
+                replicas.averageHeatCapacity(), replicas.heatCapacityError());
+    }
+
+    @Test
+    void acceptanceMatchesMetropolis() {
+        for (double temp : new double[]{23, TEMP, 200}) {
+            MultiSpinLattice ensemble = new MultiSpinLattice();
+            ensemble.setRandom(new SplittableRandom(38));
+            ensemble.randomise();
+            ensemble.setTemp(temp);
+            Lattice lattice = new Lattice();
+            lattice.setSeed(39);
+            lattice.setTemp(temp);
+            for (int i = 0; i < 50; i++)
+                ensemble.sweep();
+            for (int i = 0; i < 50 * lattice.size(); i++)
+                lattice.step();
+            Lattice.Counters replicas = ensemble.getCounters();
+            Lattice.Counters single = lattice.getCounters();
+            for (int i = 0; i < 50; i++)
+                ensemble.sweep();
+            for (int i = 0; i < 50 * MultiSpinLattice.REPLICAS * lattice.size(); i++)
+                lattice.step();
+            Lattice.Counters expected = lattice.getCounters().minus(single);
+            Lattice.Counters actual = ensemble.getCounters().minus(replicas);
+            ResultAssertions.assertAgree(expected.acceptanceRatio(), countError(expected), actual.acceptanceRatio(),
+                    countError(actual));
+        }
+    }
+
+    /**
+     * Gets the standard error of an acceptance ratio, counting the flips as independent.
+     */
+    private static double countError(Lattice.Counters counters) {
+        return Math.sqrt(counters.flips()) / counters.attempts();
+    }
+
+    @Test
+    void sweepPublishesPartialResults() throws InterruptedException {
+        List<Result> partial = Collections.synchronizedList(new ArrayList<>());
+        Sweep sweep = new Sweep(TEMP, TEMP + 2, 1, 2);
+        sweep.setSeed(40);
+        sweep.setIterations(new Simulation.Iterations(Position.count() * 5, Position.count(), Position.count() * 5));
+        sweep.setMultiSpin(true);
+        sweep.setPartialResults(partial::add);
+        List<Result> results = sweep.run(progress -> { });
+        assertFalse(partial.isEmpty());
+        for (Result result : partial)
+            assertTrue(result.temp() >= TEMP && result.temp() <= TEMP + 2, "temp " + result.temp());
+        assertEquals(3, results.size());
+    }
+
+    private static Result simulate(long seed) {
+        MultiSpinSimulation simulation = new MultiSpinSimulation();
+        simulation.setIterations(new Simulation.Iterations(
+                Position.count() * 10, Position.count() * 5, Position.count() * 20));
+        simulation.getEnsemble().setRandom(new SplittableRandom(seed));
+        simulation.warmup(TEMP);
+        return simulation.simulate(TEMP);
+    }
+}
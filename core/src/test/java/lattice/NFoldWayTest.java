@@ -0,0 +1,51 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import static lattice.SimulationFixture.ITERATIONS;
+import static lattice.SimulationFixture.assertMatches;
+import static lattice.SimulationFixture.assertReproduced;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a simulation with the {@link NFoldWay} reproduces itself from a seed, as one with random single flips
+ * does, and samples the same distribution.
+ */
+class NFoldWayTest {
+    private static final double TEMP = 80;
+
+    @Test
+    void metropolisIsReproducedFromSeed() throws InterruptedException {
+        assertReproduced(5, seed -> simulate(seed, false));
+    }
+
+    @Test
+    void rejectionFreeIsReproducedFromSeed() throws InterruptedException {
+        assertReproduced(5, seed -> simulate(seed, true));
+    }
+
+    @Test
+    void rejectionFreeMatchesMetropolis() {
+        assertMatches(simulate(6, false), simulate(7, true));
+    }
+
+    @Test
+    void rejectionFreeStepsAreTaken() {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(8);
+        Simulation simulation = new Simulation(lattice);
+        simulation.setIterations(ITERATIONS);
+        simulation.setRejectionFree(true);
+        simulation.warmup(TEMP);
+        simulation.simulate(TEMP);
+        NFoldWay nFoldWay = simulation.getNFoldWay().orElseThrow();
+        assertTrue(nFoldWay.getRejectionFreeSteps() > 0);
+        assertEquals(lattice.getCounters().attempts(), ITERATIONS.initialWarmUp() + ITERATIONS.followingWarmUp()
+                + ITERATIONS.simulation());
+    }
+
+    private static Result simulate(long seed, boolean rejectionFree) {
+        return SimulationFixture.simulate(seed, TEMP, simulation -> simulation.setRejectionFree(rejectionFree));
+    }
+}
@@ -0,0 +1,91 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that the entries translated from the templates of a {@link Neighbourhood} are those found by searching from
+ * every particle, and that the couplings are the sums of the interactions in each direction.
+ */
+class NeighbourhoodTest {
+    private static final int[] DISTANCES = {1, 3, Lattice.INTERACTION_DISTANCE};
+
+    @Test
+    void translatedTemplatesMatchSearch() {
+        for (int distance : DISTANCES) {
+            Neighbourhood neighbourhood = Neighbourhood.of(distance);
+            for (int site = 0; site < Position.count(); site++)
+                assertEquals(search(Position.at(site), distance), neighbourhood.within(site), "site " + site);
+        }
+    }
+
+    @Test
+    void reachingIsTheReverseOfWithin() {
+        for (int distance : DISTANCES) {
+            Neighbourhood neighbourhood = Neighbourhood.of(distance);
+            List<Map<Position, Integer>> reaching = new ArrayList<>();
+            for (int site = 0; site < Position.count(); site++)
+                reaching.add(new HashMap<>());
+            for (int site = 0; site < Position.count(); site++) {
+                Position from = Position.at(site);
+                neighbourhood.within(site).forEach((to, d) -> reaching.get(to.index()).put(from, d));
+            }
+            for (int site = 0; site < Position.count(); site++)
+                assertEquals(reaching.get(site), neighbourhood.reaching(site), "site " + site);
+        }
+    }
+
+    @Test
+    void couplingsAreSumsOfInteractions() {
+        Neighbourhood neighbourhood = Neighbourhood.of(Lattice.INTERACTION_DISTANCE);
+        Neighbourhood.Table couplings = neighbourhood.couplings;
+        for (int site = 0; site < Position.count(); site++) {
+            Map<Position, Integer> within = neighbourhood.within(site);
+            Map<Position, Integer> reaching = neighbourhood.reaching(site);
+            int shift = couplings.shift(site);
+            int entries = 0;
+            for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++, entries++) {
+                Position other = Position.at(couplings.indices()[n]);
+                long expected = units(within.get(other), neighbourhood.fieldScale)
+                        + units(reaching.get(other), neighbourhood.fieldScale);
+                assertEquals(expected, neighbourhood.fieldWeights[n + shift], "site " + site + " to " + other);
+            }
+            Map<Position, Integer> coupled = new HashMap<>(within);
+            coupled.putAll(reaching);
+            assertEquals(coupled.size() - 1, entries, "site " + site);
+        }
+    }
+
+    private static long units(Integer distance, long scale) {
+        return distance == null ? 0 : scale / ((long) distance * distance);
+    }
+
+    /**
+     * Finds the positions within a distance of a position by a breadth first search over its connections.
+     */
+    private static Map<Position, Integer> search(Position start, int distance) {
+        Map<Position, Integer> found = new HashMap<>();
+        Queue<Position> queue = new ArrayDeque<>();
+        found.put(start, 0);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Position from = queue.remove();
+            int d = found.get(from);
+            if (d < distance) {
+                from.neighbours().filter(to -> !found.containsKey(to)).forEach(to -> {
+                    found.put(to, d + 1);
+                    queue.add(to);
+                });
+            }
+        }
+        return found;
+    }
+}
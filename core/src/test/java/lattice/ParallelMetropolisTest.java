@@ -0,0 +1,105 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that the colours of a {@link ParallelMetropolis} let their particles be updated concurrently, that the state of
+ * the lattice after parallel sweeps agrees with recalculating it from the spins, and that sweeps are reproduced from a
+ * seed and a number of blocks, including by a {@link Sweep} with parallel lattices.
+ */
+class ParallelMetropolisTest {
+    private static final double TOLERANCE = 1e-9;
+    private static final int THREADS = 4;
+
+    @Test
+    void coloursAreNotCoupled() {
+        Neighbourhood.Table couplings = Neighbourhood.of(Lattice.INTERACTION_DISTANCE).couplings;
+        try (ParallelMetropolis parallel = new ParallelMetropolis(new Lattice(), THREADS, 41)) {
+            int[] colourOf = new int[Position.count()];
+            int coloured = 0;
+            for (int colour = 0; colour < parallel.getColourCount(); colour++) {
+                for (int site : parallel.getColours()[colour]) {
+                    colourOf[site] = colour;
+                    coloured++;
+                }
+            }
+            assertEquals(Position.count(), coloured);
+            for (int site = 0; site < Position.count(); site++) {
+                for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++)
+                    assertNotEquals(colourOf[site], colourOf[couplings.indices()[n]], "site " + site);
+            }
+        }
+    }
+
+    @Test
+    void maintainedStateMatchesRecalculation() {
+        Lattice lattice = new Lattice();
+        lattice.setRecalculationInterval(Integer.MAX_VALUE);
+        try (ParallelMetropolis parallel = new ParallelMetropolis(lattice, THREADS, 42)) {
+            for (double temp : new double[]{23, 50, 80}) {
+                lattice.setTemp(temp);
+                for (int i = 0; i < 20; i++)
+                    parallel.sweep();
+                double energy = lattice.getEnergy();
+                double energySquared = lattice.getEnergySquared();
+                double fieldSum = lattice.getFieldSum();
+                int magnetism = lattice.getMagnetism();
+                long[] fields = new long[lattice.size()];
+                for (int site = 0; site < fields.length; site++)
+                    fields[site] = lattice.getField(site);
+                lattice.setTemp(temp);
+                double tolerance = TOLERANCE * lattice.size();
+                assertEquals(lattice.getEnergy(), energy, tolerance);
+                assertEquals(lattice.getEnergySquared(), energySquared, tolerance * Math.abs(energySquared));
+                assertEquals(lattice.getFieldSum(), fieldSum, tolerance);
+                assertEquals(lattice.getMagnetism(), magnetism);
+                for (int site = 0; site < fields.length; site++)
+                    assertEquals(lattice.getField(site), fields[site], "site " + site);
+            }
+        }
+    }
+
+    @Test
+    void sweepsAreReproducedFromSeed() {
+        assertEquals(simulate(43), simulate(43));
+    }
+
+    @Test
+    void sweepsWithParallelLatticesAreReproducedFromSeed() throws InterruptedException {
+        List<Result> results = sweep(44).run(progress -> { });
+        assertEquals(3, results.size());
+        assertEquals(results, sweep(44).run(progress -> { }));
+        assertEquals(50, results.get(0).samples());
+    }
+
+    @Test
+    void sweepWithParallelLatticesAndPrecisionIsRejected() {
+        Sweep sweep = sweep(45);
+        sweep.setPrecision(new Simulation.Precision(0.01, Position.count() * 100));
+        assertThrows(IllegalStateException.class, () -> sweep.run(progress -> { }));
+    }
+
+    private static Sweep sweep(long seed) {
+        Sweep sweep = new Sweep(40, 60, 10, 2);
+        sweep.setSeed(seed);
+        sweep.setIterations(new Simulation.Iterations(
+                Position.count() * 20, Position.count() * 5, Position.count() * 50));
+        sweep.setLatticeThreads(THREADS);
+        return sweep;
+    }
+
+    private static Result simulate(long seed) {
+        Simulation simulation = new Simulation();
+        simulation.setIterations(new Simulation.Iterations(
+                Position.count() * 20, Position.count() * 5, Position.count() * 50));
+        simulation.setParallelism(THREADS, seed);
+        simulation.warmup(50);
+        return simulation.simulate(50);
+    }
+}
@@ -0,0 +1,81 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static lattice.SimulationFixture.ITERATIONS;
+import static lattice.SimulationFixture.assertMatches;
+import static lattice.SimulationFixture.assertReproduced;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link ReplicaExchange} is reproduced from a seed however its replicas are scheduled, and that
+ * exchanging configurations leaves the distribution at each temperature of the ladder that of a plain
+ * {@link Simulation}, whether it is run directly or by a {@link Sweep}.
+ */
+class ReplicaExchangeTest {
+    private static final List<Double> TEMPS = List.of(45.0, 50.0, 55.0, 60.0);
+
+    @Test
+    void replicaExchangeIsReproducedFromSeed() throws InterruptedException {
+        assertReproduced(21, seed -> simulate(seed, 1));
+        assertEquals(simulate(21, 1), simulate(21, TEMPS.size()));
+    }
+
+    @Test
+    void exchangesAreAccepted() throws InterruptedException {
+        ReplicaExchange exchange = new ReplicaExchange(TEMPS, 1);
+        exchange.setSeed(22);
+        exchange.run(Position.count() * 10, Position.count() * 40);
+        for (double rate : exchange.getAcceptanceRates())
+            assertTrue(rate > 0 && rate < 1, "rate " + rate);
+    }
+
+    @Test
+    void replicaExchangeMatchesMetropolis() throws InterruptedException {
+        List<Result> exchanged = simulate(23, 1);
+        for (int i = 0; i < TEMPS.size(); i++)
+            assertMatches(SimulationFixture.simulate(24 + i, TEMPS.get(i), simulation -> { }), exchanged.get(i));
+    }
+
+    @Test
+    void sweepRunsReplicaExchange() throws InterruptedException {
+        List<List<Result>> published = new ArrayList<>();
+        Sweep sweep = sweep(25);
+        sweep.setPartialResults(result -> { });
+        List<Result> results = sweep.run(published::add);
+        assertEquals(List.of(results), published);
+        assertEquals(results, sweep(25).run(progress -> { }));
+        assertEquals(TEMPS.size() - 1, sweep.getExchangeAcceptanceRates().length);
+        for (int i = 0; i < TEMPS.size(); i++) {
+            assertEquals((double) TEMPS.get(i), results.get(i).temp());
+            assertEquals(ITERATIONS.simulation(), results.get(i).samples());
+        }
+    }
+
+    @Test
+    void sweepWithCheckpointIsRejected() {
+        Sweep sweep = sweep(26);
+        sweep.setCheckpoint(Path.of("sweep.checkpoint"));
+        assertThrows(IllegalStateException.class, () -> sweep.run(results -> { }));
+    }
+
+    private static Sweep sweep(long seed) {
+        Sweep sweep = new Sweep(TEMPS.get(0), TEMPS.get(TEMPS.size() - 1), 5, 2);
+        sweep.setSeed(seed);
+        sweep.setIterations(ITERATIONS);
+        sweep.setReplicaExchange(true);
+        return sweep;
+    }
+
+    private static List<Result> simulate(long seed, int parallelism) throws InterruptedException {
+        ReplicaExchange exchange = new ReplicaExchange(TEMPS, parallelism);
+        exchange.setSeed(seed);
+        return exchange.run(ITERATIONS.initialWarmUp(), ITERATIONS.simulation());
+    }
+}
@@ -0,0 +1,32 @@
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Assertions shared by the tests that compare the results of different ways of simulating the lattice.
+ */
+final class ResultAssertions {
+    private ResultAssertions() {
+    }
+
+    /**
+     * Asserts that the energy, absolute magnetism and heat capacity of two results agree.
+     */
+    static void assertAgree(Result first, Result second) {
+        assertAgree(first.averageEnergy(), first.energyError(), second.averageEnergy(), second.energyError());
+        assertAgree(first.averageAbsoluteMagnetism(), first.magnetismError(),
+                second.averageAbsoluteMagnetism(), second.magnetismError());
+        assertAgree(first.averageHeatCapacity(), first.heatCapacityError(),
+                second.averageHeatCapacity(), second.heatCapacityError());
+    }
+
+    /**
+     * Asserts that two estimates differ by less than five times their combined standard error.
+     */
+    static void assertAgree(double first, double firstError, double second, double secondError) {
+        double error = Math.hypot(firstError, secondError);
+        assertTrue(error > 0, "no error estimate");
+        assertTrue(Math.abs(first - second) < 5 * error, first + " +/- " + firstError + " against " + second + " +/- "
+                + secondError);
+    }
+}
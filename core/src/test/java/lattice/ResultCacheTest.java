@@ -0,0 +1,81 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link ResultCache} returns exactly what was written for a point, and nothing for any other point.
+ */
+class ResultCacheTest {
+    private static final Simulation.Iterations ITERATIONS = new Simulation.Iterations(100, 50, 200);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesRoundTrip() throws IOException {
+        ResultCache cache = new ResultCache(directory);
+        Lattice lattice = flipped(7);
+        Result result = result(42.5);
+        cache.put(point(42.5, false), result, lattice);
+        ResultCache.Entry entry = cache.get(point(42.5, false)).orElseThrow();
+        assertEquals(result, entry.result());
+        Lattice loaded = new Lattice();
+        loaded.loadSpins(entry.spins(), 0);
+        assertEquals(lattice.snapshotSpins(), loaded.snapshotSpins());
+    }
+
+    @Test
+    void otherPointsAreMissing() throws IOException {
+        ResultCache cache = new ResultCache(directory);
+        cache.put(point(42.5, false), result(42.5), flipped(7));
+        assertFalse(cache.get(point(43.5, false)).isPresent());
+        assertFalse(cache.get(point(42.5, true)).isPresent());
+    }
+
+    @Test
+    void unreadableEntriesAreMissing() throws IOException {
+        ResultCache cache = new ResultCache(directory);
+        cache.put(point(42.5, false), result(42.5), flipped(7));
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList())
+                Files.write(file, new byte[]{1, 2, 3});
+        }
+        assertFalse(cache.get(point(42.5, false)).isPresent());
+    }
+
+    @Test
+    void entriesOverTheMaximumSizeAreEvicted() throws IOException {
+        ResultCache cache = new ResultCache(directory, 1);
+        cache.put(point(42.5, false), result(42.5), flipped(7));
+        assertTrue(cache.getSize() <= 1);
+        assertFalse(cache.get(point(42.5, false)).isPresent());
+    }
+
+    private static ResultCache.Point point(double temp, boolean rejectionFree) {
+        return new ResultCache.Point(11, "SplittableRandom", ITERATIONS, 0, 0, rejectionFree, 20, 0.5, 0, 0, 45,
+                temp);
+    }
+
+    private static Result result(double temp) {
+        return new Result(temp, -120.25, 3.5, 0.125, 17.0, 2.5, 0.6, 0.01, 0.2, 0.003, 1234);
+    }
+
+    private static Lattice flipped(long seed) {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(seed);
+        lattice.setTemp(60);
+        for (int i = 0; i < 10 * lattice.size(); i++)
+            lattice.randomFlip();
+        return lattice;
+    }
+}
@@ -0,0 +1,115 @@
+package lattice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link Reweighting} solves for free energies that satisfy the equations of multiple histogram
+ * reweighting, that it reproduces the results simulated at each of its temperatures within its jackknife errors, and
+ * that histograms too far apart to overlap are rejected.
+ */
+class ReweightingTest {
+    private static final Simulation.Iterations ITERATIONS = new Simulation.Iterations(
+            Position.count() * 50, Position.count() * 10, Position.count() * 3200);
+
+    private static final double[] TEMPS = {45, 50, 55, 60};
+
+    @Test
+    void freeEnergiesSolveTheirEquations() {
+        List<Histogram> histograms = simulate(50, TEMPS, new ArrayList<>());
+        double[] freeEnergies = new Reweighting(histograms).getFreeEnergies();
+        // the count and total enthalpy of each bin over all histograms, and the count of each histogram
+        Map<Long, double[]> bins = new HashMap<>();
+        double[] logCounts = new double[TEMPS.length];
+        for (int run = 0; run < TEMPS.length; run++) {
+            for (Map<Long, double[]> group : histograms.get(run).groups()) {
+                for (Map.Entry<Long, double[]> bin : group.entrySet()) {
+                    double[] sums = bins.computeIfAbsent(bin.getKey(), key -> new double[2]);
+                    sums[0] += bin.getValue()[Histogram.COUNT];
+                    sums[1] += bin.getValue()[Histogram.ENTHALPY];
+                    logCounts[run] += bin.getValue()[Histogram.COUNT];
+                }
+            }
+            logCounts[run] = Math.log(logCounts[run]);
+        }
+        // exp(-f_k) = sum_H N(H) exp(-H / T_k) / sum_j n_j exp(f_j - H / T_j)
+        double[] logSums = new double[TEMPS.length];
+        Arrays.fill(logSums, Double.NEGATIVE_INFINITY);
+        double[] terms = new double[TEMPS.length];
+        for (double[] bin : bins.values()) {
+            double enthalpy = bin[1] / bin[0];
+            for (int run = 0; run < TEMPS.length; run++)
+                terms[run] = logCounts[run] + freeEnergies[run] - enthalpy / TEMPS[run];
+            double logDenominator = logSumExp(terms);
+            for (int run = 0; run < TEMPS.length; run++)
+                logSums[run] = logSumExp(logSums[run], Math.log(bin[0]) - enthalpy / TEMPS[run] - logDenominator);
+        }
+        for (int run = 0; run < TEMPS.length; run++)
+            assertEquals(freeEnergies[run] - freeEnergies[0], logSums[0] - logSums[run], 1e-4, "run " + run);
+    }
+
+    @Test
+    void reweightingReproducesSimulatedTemperatures() {
+        List<Result> direct = new ArrayList<>();
+        Reweighting reweighting = new Reweighting(simulate(51, TEMPS, direct));
+        for (int i = 0; i < TEMPS.length; i++) {
+            Result simulated = direct.get(i);
+            Result reweighted = reweighting.result(TEMPS[i]);
+            // the neighbouring histograms add to the states at each temperature, so the errors can only be smaller
+            assertErrorComparable(simulated.energyError(), reweighted.energyError());
+            assertErrorComparable(simulated.magnetismError(), reweighted.magnetismError());
+            assertErrorComparable(simulated.heatCapacityError(), reweighted.heatCapacityError());
+            ResultAssertions.assertAgree(simulated.averageEnergy(), simulated.energyError(),
+                    reweighted.averageEnergy(), reweighted.energyError());
+            ResultAssertions.assertAgree(simulated.averageMagnetism(), simulated.magnetismError(),
+                    reweighted.averageMagnetism(), reweighted.magnetismError());
+            ResultAssertions.assertAgree(simulated.averageHeatCapacity(), simulated.heatCapacityError(),
+                    reweighted.averageHeatCapacity(), reweighted.heatCapacityError());
+        }
+    }
+
+    @Test
+    void histogramsThatDoNotOverlapAreRejected() {
+        List<Histogram> histograms = simulate(52, new double[]{20, 200}, new ArrayList<>());
+        assertThrows(IllegalStateException.class, () -> new Reweighting(histograms));
+    }
+
+    /**
+     * Asserts that a reweighted error is no larger than the error of the direct simulation, allowing for the noise of
+     * both estimates, nor smaller than the error of all the states of the ladder together would be.
+     */
+    private static void assertErrorComparable(double simulated, double reweighted) {
+        assertTrue(reweighted > simulated / (2 * Math.sqrt(TEMPS.length)) && reweighted < 2 * simulated,
+                reweighted + " against " + simulated);
+    }
+
+    private static double logSumExp(double... terms) {
+        double max = Arrays.stream(terms).max().orElseThrow();
+        return max == Double.NEGATIVE_INFINITY ? max
+                : max + Math.log(Arrays.stream(terms).map(term -> Math.exp(term - max)).sum());
+    }
+
+    private static List<Histogram> simulate(long seed, double[] temps, List<Result> results) {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(seed);
+        Simulation simulation = new Simulation(lattice);
+        simulation.setIterations(ITERATIONS);
+        simulation.setKeepHistogram(true);
+        simulation.warmup(temps[0]);
+        List<Histogram> histograms = new ArrayList<>();
+        for (double temp : temps) {
+            results.add(simulation.simulate(temp));
+            histograms.add(simulation.getHistogram().orElseThrow());
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,62 @@
+package lattice;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The runs shared by the tests that compare a way of simulating the lattice against random single flips: a seeded
+ * simulation of a lattice at one temperature, and the checks that such runs are reproduced from their seed and agree
+ * with each other.
+ */
+final class SimulationFixture {
+    /**
+     * Iterations with enough recorded sweeps for the binning errors to level off at each temperature compared.
+     */
+    static final Simulation.Iterations ITERATIONS = new Simulation.Iterations(
+            Position.count() * 50, Position.count() * 10, Position.count() * 3200);
+
+    private SimulationFixture() {
+    }
+
+    /**
+     * A run of a simulation from a seed.
+     */
+    @FunctionalInterface
+    interface SeededRun<T> {
+        T run(long seed) throws InterruptedException;
+    }
+
+    /**
+     * Warms up and simulates a seeded lattice at a temperature for the {@link #ITERATIONS}.
+     *
+     * @param seed the seed of the lattice
+     * @param temp the temperature
+     * @param setup configures the simulation before it is warmed up
+     * @return the result
+     */
+    static Result simulate(long seed, double temp, Consumer<Simulation> setup) {
+        Lattice lattice = new Lattice();
+        lattice.setSeed(seed);
+        Simulation simulation = new Simulation(lattice);
+        simulation.setIterations(ITERATIONS);
+        setup.accept(simulation);
+        simulation.warmup(temp);
+        return simulation.simulate(temp);
+    }
+
+    /**
+     * Asserts that two runs from the same seed give the same results.
+     */
+    static <T> void assertReproduced(long seed, SeededRun<T> run) throws InterruptedException {
+        assertEquals(run.run(seed), run.run(seed));
+    }
+
+    /**
+     * Asserts that a result agrees with one of random single flips and recorded as many steps.
+     */
+    static void assertMatches(Result metropolis, Result result) {
+        ResultAssertions.assertAgree(metropolis, result);
+        assertEquals(metropolis.samples(), result.samples());
+    }
+}
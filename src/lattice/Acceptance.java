@@ -0,0 +1,109 @@
+package lattice;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Metropolis acceptance probabilities for flipping the spin of a particle at a temperature, looked up by the local
+ * field on the particle.
+ * <p>
+ * The local field is the sum of the spins of the interacting particles weighted by their couplings. As the couplings
+ * are exact multiples of {@code 1 / scale} (see {@link Neighbourhood}), the field is held as an integer number of those
+ * units and can only take values between {@code -maxField} and {@code maxField}. Flipping a particle with spin
+ * {@code s} and field {@code h} changes the energy by {@code -2s(gibbs + h / scale)}, so for each spin there is a
+ * contiguous range of fields for which the flip is uphill. The probability for every field in those ranges is
+ * calculated once when the table is constructed.
+ * <p>
+ * A field outside the table, which is either a downhill flip or beyond {@link #MAX_TABLE_SIZE} entries, falls back to
+ * evaluating the same expression directly. Every entry is calculated by that same expression, so the table gives
+ * exactly the same decisions as calculating each probability as it is needed. Tables are immutable and can be shared
+ * between lattices at the same temperature.
+ */
+final class Acceptance {
+    static final int MAX_TABLE_SIZE = 1 << 20;
+    private static final double DOWNHILL = 2.0;
+
+    private final double temp;
+    private final double gibbs;
+    private final long scale;
+    private final long[] firstFields = new long[2];
+    private final double[][] tables = new double[2][];
+
+    /**
+     * Constructs the acceptance table for a temperature.
+     *
+     * @param temp the temperature
+     * @param gibbs the energy of a particle's own spin at the temperature
+     * @param neighbourhood the interactions between particles
+     */
+    Acceptance(double temp, double gibbs, Neighbourhood neighbourhood) {
+        this.temp = temp;
+        this.gibbs = gibbs;
+        this.scale = neighbourhood.fieldScale;
+        long max = neighbourhood.maxField;
+        // a particle with spin +1 flips uphill at fields up to the threshold, and with spin -1 at fields above it
+        long threshold = (long) Math.floor(-gibbs * scale);
+        long upTo = Math.min(max, threshold + 1);
+        fill(0, +1, Math.max(-max, upTo - MAX_TABLE_SIZE + 1), upTo);
+        long downFrom = Math.max(-max, threshold);
+        fill(1, -1, downFrom, Math.min(max, downFrom + MAX_TABLE_SIZE - 1));
+    }
+
+    private void fill(int table, int spin, long from, long to) {
+        firstFields[table] = from;
+        tables[table] = new double[(int) Math.max(0, to - from + 1)];
+        for (int i = 0; i < tables[table].length; i++)
+            tables[table][i] = calculate(spin, from + i);
+    }
+
+    double getTemp() {
+        return temp;
+    }
+
+    /**
+     * Decides whether to flip the spin of a particle. A random number is drawn only for uphill flips.
+     *
+     * @param spin the spin of the particle
+     * @param field the local field on the particle, in units of {@code 1 / scale}
+     * @param random the generator for the decision
+     * @return true, if the flip is accepted
+     */
+    boolean accept(int spin, long field, RandomGenerator random) {
+        double probability = probability(spin, field);
+        return probability > 1.0 || probability > random.nextDouble();
+    }
+
+    /**
+     * Gets the probability of accepting a flip, or a value greater than 1 if the flip is downhill.
+     *
+     * @param spin the spin of the particle
+     * @param field the local field on the particle, in units of {@code 1 / scale}
+     * @return the acceptance probability
+     */
+    double probability(int spin, long field) {
+        int table = spin > 0 ? 0 : 1;
+        long entry = field - firstFields[table];
+        double[] values = tables[table];
+        return entry >= 0 && entry < values.length ? values[(int) entry] : calculate(spin, field);
+    }
+
+    /**
+     * Calculates the probability of accepting a flip directly, without the table.
+     *
+     * @param spin the spin of the particle
+     * @param field the local field on the particle, in units of {@code 1 / scale}
+     * @return the acceptance probability, or a value greater than 1 if the flip is downhill
+     */
+    double calculate(int spin, long field) {
+        double change = -2.0 * spin * (gibbs + (double) field / scale);
+        return change < 0 ? DOWNHILL : Math.exp(-change / temp);
+    }
+
+    /**
+     * Gets the number of fields held in the tables for both spins.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return tables[0].length + tables[1].length;
+    }
+}
@@ -0,0 +1,309 @@
+package lattice;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Command line application to run a temperature sweep without a user interface. Each result is written to the output
+ * as soon as it completes, so results arrive in completion order rather than temperature order.
+ * <p>
+ * With {@code --reweight-step}, the results are instead interpolated by a {@link Reweighting} of the histograms of all
+ * the temperatures simulated, and written in temperature order once the sweep completes. The sweep can then use a much
+ * larger step than the output.
+ * <p>
+ * With {@code --workers} or {@code --port}, the sweep is run by a {@link Coordinator} across {@link Worker} processes
+ * started on this machine or connecting from others, rather than by threads of this process. Remote workers connect to
+ * the {@code --bind} address, which is the loopback address by default, and must present the {@code --token}, which
+ * is printed when one is not given.
+ * <p>
+ * With {@code --cache}, points simulated before with the same parameters and seed are read from a {@link ResultCache}
+ * rather than simulated again. Only a sweep with a {@code --seed} can be repeated, so {@code --cache} requires one.
+ * <p>
+ * With {@code --engine multi-spin}, each thread simulates {@link MultiSpinLattice#REPLICAS} replicas of the lattice at
+ * once, and each result averages over them. With {@code --engine n-fold}, each lattice switches to the rejection-free
+ * {@link NFoldWay} at the temperatures where most flips are rejected. With {@code --engine replica-exchange}, the whole
+ * range is simulated by a {@link ReplicaExchange}, and the proportion of exchanges accepted between each pair of
+ * neighbouring temperatures is written to standard error once it completes.
+ * <p>
+ * With {@code --lattice-threads}, each lattice is updated by {@link ParallelMetropolis} sweeps across that many
+ * threads, as well as the {@code --threads} lattices being simulated at once. With {@code --move cluster}, each step of
+ * each lattice grows and flips a {@link ClusterFlip} rather than attempting a single random flip.
+ * <p>
+ * Options are given as {@code --name value} pairs; see {@link #usage(PrintStream)}.
+ */
+public class Batch {
+    private static final Set<String> OPTIONS = Set.of("min", "max", "step", "initial-warm-up", "warm-up",
+            "iterations", "error", "max-iterations", "seed", "generator", "threads", "format", "output", "checkpoint",
+            "thickness", "interaction-distance", "reweight-step", "workers", "port", "bind", "token", "unit-size",
+            "cache", "cache-size", "engine", "lattice-threads", "move");
+
+    private Batch() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options;
+        Sweep sweep;
+        Optional<Coordinator> coordinator;
+        ResultWriter.Format format;
+        try {
+            options = parse(args);
+            configure(options);
+            sweep = sweep(options);
+            coordinator = coordinator(options, sweep);
+            format = ResultWriter.Format.valueOf(options.getOrDefault("format", "csv").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage(System.err);
+            System.exit(2);
+            return;
+        }
+        String output = options.get("output");
+        try (OutputStream stream = output == null ? System.out : new FileOutputStream(output);
+             ResultWriter writer = ResultWriter.of(format, stream)) {
+            if (options.containsKey("reweight-step")) {
+                sweep.run(results -> {
+                });
+                Reweighting reweighting = new Reweighting(sweep.getHistograms());
+                reweighting.results(reweighting.getTempMin(), reweighting.getTempMax(),
+                        number(options, "reweight-step", 0)).forEach(writer::write);
+            } else {
+                Set<Double> written = new HashSet<>();
+                Consumer<List<Result>> progress = results -> results.stream()
+                        .filter(result -> written.add(result.temp()))
+                        .forEach(writer::write);
+                if (coordinator.isPresent())
+                    coordinator.get().run(progress);
+                else
+                    sweep.run(progress);
+            }
+        }
+        double[] rates = sweep.getExchangeAcceptanceRates();
+        List<Double> temps = sweep.getTemps();
+        for (int i = 0; i < rates.length; i++)
+            System.err.println("Exchange acceptance between " + temps.get(i) + " and " + temps.get(i + 1) + ": "
+                    + rates[i]);
+    }
+
+    private static Sweep sweep(Map<String, String> options) {
+        double min = number(options, "min", 23);
+        double max = number(options, "max", 80);
+        double step = number(options, "step", 0.5);
+        if (step <= 0)
+            throw new IllegalArgumentException("Step must be positive");
+        int threads = (int) number(options, "threads", Runtime.getRuntime().availableProcessors());
+        Sweep sweep = new Sweep(min, max, step, threads);
+        Simulation.Iterations defaults = Simulation.Iterations.DEFAULT;
+        sweep.setIterations(new Simulation.Iterations(
+                (int) number(options, "initial-warm-up", defaults.initialWarmUp()),
+                (int) number(options, "warm-up", defaults.followingWarmUp()),
+                (int) number(options, "iterations", defaults.simulation())));
+        if (options.containsKey("error")) {
+            sweep.setPrecision(new Simulation.Precision(number(options, "error", 0),
+                    (int) number(options, "max-iterations", 10 * defaults.simulation())));
+        }
+        if (options.containsKey("seed")) {
+            try {
+                sweep.setSeed(Long.parseLong(options.get("seed")));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Illegal value for --seed: " + options.get("seed"));
+            }
+        }
+        if (options.containsKey("generator"))
+            sweep.setGenerator(options.get("generator"));
+        if (options.containsKey("checkpoint"))
+            sweep.setCheckpoint(Path.of(options.get("checkpoint")));
+        String engine = options.getOrDefault("engine", "metropolis");
+        if (engine.equals("multi-spin")) {
+            if (options.containsKey("checkpoint") || options.containsKey("reweight-step")
+                    || options.containsKey("cache") || options.containsKey("error") || options.containsKey("workers")
+                    || options.containsKey("port"))
+                throw new IllegalArgumentException("--engine multi-spin cannot be used with --checkpoint, "
+                        + "--reweight-step, --cache, --error, --workers or --port");
+            sweep.setMultiSpin(true);
+        } else if (engine.equals("n-fold")) {
+            sweep.setRejectionFree(true);
+        } else if (engine.equals("replica-exchange")) {
+            if (options.containsKey("checkpoint") || options.containsKey("reweight-step")
+                    || options.containsKey("cache") || options.containsKey("error") || options.containsKey("workers")
+                    || options.containsKey("port"))
+                throw new IllegalArgumentException("--engine replica-exchange cannot be used with --checkpoint, "
+                        + "--reweight-step, --cache, --error, --workers or --port");
+            sweep.setReplicaExchange(true);
+        } else if (!engine.equals("metropolis")) {
+            throw new IllegalArgumentException("Illegal value for --engine: " + engine);
+        }
+        if (options.containsKey("lattice-threads")) {
+            double latticeThreads = number(options, "lattice-threads", 1);
+            if (latticeThreads <= 0 || latticeThreads != (int) latticeThreads)
+                throw new IllegalArgumentException("Illegal value for --lattice-threads: "
+                        + options.get("lattice-threads"));
+            if (latticeThreads > 1 && (!engine.equals("metropolis") || options.containsKey("checkpoint")
+                    || options.containsKey("cache") || options.containsKey("error") || options.containsKey("workers")
+                    || options.containsKey("port")))
+                throw new IllegalArgumentException("--lattice-threads can only be used with --engine metropolis, and "
+                        + "not with --checkpoint, --cache, --error, --workers or --port");
+            sweep.setLatticeThreads((int) latticeThreads);
+        }
+        String move = options.getOrDefault("move", "single");
+        if (move.equals("cluster")) {
+            if (!engine.equals("metropolis") || options.containsKey("lattice-threads")
+                    || options.containsKey("checkpoint") || options.containsKey("cache")
+                    || options.containsKey("workers") || options.containsKey("port"))
+                throw new IllegalArgumentException("--move cluster can only be used with --engine metropolis, and not "
+                        + "with --lattice-threads, --checkpoint, --cache, --workers or --port");
+            sweep.setMove(ClusterFlip::new);
+        } else if (!move.equals("single")) {
+            throw new IllegalArgumentException("Illegal value for --move: " + move);
+        }
+        if (options.containsKey("cache")) {
+            if (options.containsKey("checkpoint") || options.containsKey("reweight-step")
+                    || options.containsKey("workers") || options.containsKey("port"))
+                throw new IllegalArgumentException("--cache cannot be used with --checkpoint, --reweight-step, "
+                        + "--workers or --port");
+            if (!options.containsKey("seed"))
+                throw new IllegalArgumentException("--cache can only be used with --seed, since an unseeded sweep is "
+                        + "never repeated");
+            double megabytes = number(options, "cache-size", ResultCache.DEFAULT_MAX_BYTES >> 20);
+            if (!(megabytes > 0))
+                throw new IllegalArgumentException("Cache size must be positive");
+            try {
+                sweep.setCache(new ResultCache(Path.of(options.get("cache")), (long) (megabytes * (1 << 20))));
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Cannot open cache " + options.get("cache") + ": " + ex);
+            }
+        }
+        if (options.containsKey("reweight-step")) {
+            if (number(options, "reweight-step", 0) <= 0)
+                throw new IllegalArgumentException("Reweight step must be positive");
+            if (options.containsKey("checkpoint"))
+                throw new IllegalArgumentException("Histograms are not checkpointed, so --reweight-step cannot be used "
+                        + "with --checkpoint");
+            sweep.setKeepHistograms(true);
+        }
+        return sweep;
+    }
+
+    private static Optional<Coordinator> coordinator(Map<String, String> options, Sweep sweep) {
+        if (!options.containsKey("workers") && !options.containsKey("port"))
+            return Optional.empty();
+        if (options.containsKey("checkpoint") || options.containsKey("reweight-step"))
+            throw new IllegalArgumentException("--workers and --port cannot be used with --checkpoint or "
+                    + "--reweight-step");
+        Coordinator coordinator = new Coordinator(sweep);
+        coordinator.setLocalWorkers((int) number(options, "workers", 0));
+        if (options.containsKey("bind")) {
+            try {
+                coordinator.setBindAddress(InetAddress.getByName(options.get("bind")));
+            } catch (UnknownHostException ex) {
+                throw new IllegalArgumentException("Illegal value for --bind: " + options.get("bind"));
+            }
+        }
+        if (options.containsKey("token"))
+            coordinator.setToken(options.get("token"));
+        if (options.containsKey("port")) {
+            coordinator.setPort((int) number(options, "port", 0));
+            System.err.println("Listening for workers on " + options.getOrDefault("bind", "the loopback address")
+                    + " port " + options.get("port") + (options.containsKey("token") ? ""
+                    : " with token " + coordinator.getToken()));
+        }
+        coordinator.setUnitSize((int) number(options, "unit-size", Coordinator.DEFAULT_UNIT_SIZE));
+        return Optional.of(coordinator);
+    }
+
+    /**
+     * Sets the system properties for the size of the lattice and the interaction distance. This must happen before any
+     * of the lattice classes that read them are initialised.
+     */
+    private static void configure(Map<String, String> options) {
+        configure(options, "thickness", Position.THICKNESS_PROPERTY);
+        configure(options, "interaction-distance", Lattice.INTERACTION_DISTANCE_PROPERTY);
+    }
+
+    private static void configure(Map<String, String> options, String name, String property) {
+        if (!options.containsKey(name))
+            return;
+        double value = number(options, name, 0);
+        if (value <= 0 || value != (int) value)
+            throw new IllegalArgumentException("Illegal value for --" + name + ": " + options.get(name));
+        System.setProperty(property, Integer.toString((int) value));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !OPTIONS.contains(args[i].substring(2)))
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static double number(Map<String, String> options, String name, double defaultValue) {
+        String value = options.get(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal value for --" + name + ": " + value);
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        Simulation.Iterations defaults = Simulation.Iterations.DEFAULT;
+        List.of("Usage: java lattice.Batch [options]",
+                "  --min <temp>              first temperature (default 23)",
+                "  --max <temp>              maximum temperature (default 80)",
+                "  --step <temp>             temperature step (default 0.5)",
+                "  --initial-warm-up <steps> steps before the first point (default " + defaults.initialWarmUp() + ")",
+                "  --warm-up <steps>         steps before recording each point (default "
+                        + defaults.followingWarmUp() + ")",
+                "  --iterations <steps>      recorded steps for each point (default " + defaults.simulation() + ")",
+                "  --error <relative>        target relative error, making the step counts minimums (default none)",
+                "  --max-iterations <steps>  maximum steps in each phase with --error (default "
+                        + 10 * defaults.simulation() + ")",
+                "  --seed <seed>             random seed (default unseeded)",
+                "  --generator <algorithm>   random number generator algorithm (default " + Sweep.DEFAULT_GENERATOR
+                        + ")",
+                "  --threads <count>         lattices simulated at once (default one per processor)",
+                "  --lattice-threads <count> threads updating each lattice by parallel sweeps (default 1)",
+                "  --format <csv|json|binary> output format (default csv)",
+                "  --output <file>           output file (default standard output)",
+                "  --checkpoint <file>       file to save progress to and resume from (default none)",
+                "  --thickness <layers>      thickness of the lattice (default " + Position.DEFAULT_THICKNESS + ")",
+                "  --interaction-distance <connections> maximum connections between interacting particles (default "
+                        + Lattice.DEFAULT_INTERACTION_DISTANCE + ")",
+                "  --reweight-step <temp>    write results reweighted from all points at this step (default none)",
+                "  --workers <count>         worker processes to start on this machine (default none)",
+                "  --port <port>             port to accept workers from other machines on (default none)",
+                "  --bind <address>          address to accept workers on (default loopback)",
+                "  --token <token>           token workers must present (default random, printed with --port)",
+                "  --unit-size <temps>       temperatures given to a worker at a time (default "
+                        + Coordinator.DEFAULT_UNIT_SIZE + ")",
+                "  --cache <directory>       directory to reuse points simulated before from, with --seed (default none)",
+                "  --cache-size <megabytes>  maximum size of the cache (default "
+                        + (ResultCache.DEFAULT_MAX_BYTES >> 20) + ")",
+                "  --engine <metropolis|n-fold|multi-spin|replica-exchange> single lattice, single lattice switching "
+                        + "to rejection-free flips where most are rejected, " + MultiSpinLattice.REPLICAS
+                        + " replicas at once, or a lattice at every temperature exchanging configurations "
+                        + "(default metropolis)",
+                "  --move <single|cluster>   move of each step of a lattice: a random single flip or a cluster flip "
+                        + "(default single)")
+                .forEach(out::println);
+    }
+}
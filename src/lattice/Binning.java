@@ -0,0 +1,224 @@
+package lattice;
+
+import java.util.Arrays;
+
+/**
+ * Online binning analysis of a correlated series of measurements of several observables. The measurements are averaged
+ * in blocks of a base size, then of 2, 4, ... base blocks, and for each block size the sums of the block means and of
+ * their pairwise products are kept, so the memory used is logarithmic in the length of the series. Within a base block
+ * only the sums are accumulated, which keeps the cost of each measurement close to that of a plain average.
+ * <p>
+ * The standard error of the mean estimated from the blocks grows with the block size until the blocks are longer than
+ * the autocorrelation time of the series, after which it levels off. Only the block sizes that still have at least
+ * {@link #MIN_BLOCKS} blocks are used, and an error is only given once it has levelled off: the estimates of the two
+ * largest of those sizes must agree within twice their combined statistical error, the error of an estimate from
+ * {@code n} blocks being a fraction {@code 1 / sqrt(2 (n - 1))} of it. While the blocks are still shorter than the
+ * autocorrelation time the estimate from the larger size is about {@code sqrt(2)} times that of the smaller, so a
+ * series too short for its correlations has no error rather than one that is too small. The error is then the largest
+ * estimate over the usable sizes. Errors of functions of the means are estimated by linearising the function, using the
+ * covariance of the block means.
+ * <p>
+ * The sum of squares of the measurements themselves is also kept, which gives the naive error that ignores the
+ * correlations. The ratio of the two variances is twice the integrated autocorrelation time of the series, which
+ * {@link #autocorrelationTime(int)} reports.
+ */
+public class Binning {
+    public final static int MIN_BLOCKS = 128;
+    private final static int MAX_LEVELS = Long.SIZE;
+
+    private final int dimensions;
+    private final int baseSize;
+    private final int pairs;
+    private final double[] shift;
+    private final double[] totals;
+    private final double[] squares;
+    private final double[] block;
+    private long count = 0;
+    private int levels = 0;
+
+    /*
+     * The totals of the blocks of each size are held in flat arrays indexed by level: the number of blocks, the sum of
+     * each observable, the product of each pair of observables once in row order of the upper triangle, and the first
+     * block of a pair waiting for its second, which is present whenever the number of blocks is odd.
+     */
+    private final long[] blocks = new long[MAX_LEVELS];
+    private final double[] sums;
+    private final double[] products;
+    private final double[] pending;
+
+    /**
+     * Constructs an empty analysis.
+     *
+     * @param dimensions the number of observables in each measurement
+     * @param baseSize the number of successive measurements in the smallest blocks
+     */
+    public Binning(int dimensions, int baseSize) {
+        if (dimensions <= 0)
+            throw new IllegalArgumentException("Dimensions must be positive");
+        if (baseSize <= 0)
+            throw new IllegalArgumentException("Base size must be positive");
+        this.dimensions = dimensions;
+        this.baseSize = baseSize;
+        this.pairs = dimensions * (dimensions + 1) / 2;
+        this.shift = new double[dimensions];
+        this.totals = new double[dimensions];
+        this.squares = new double[dimensions];
+        this.block = new double[dimensions];
+        this.sums = new double[MAX_LEVELS * dimensions];
+        this.products = new double[MAX_LEVELS * pairs];
+        this.pending = new double[MAX_LEVELS * dimensions];
+    }
+
+    /**
+     * Adds a measurement. The values are copied, so the array can be reused.
+     *
+     * @param values the value of each observable
+     */
+    public void add(double[] values) {
+        add(values, 1);
+    }
+
+    /**
+     * Adds a measurement repeated a number of times in succession, as if it were added that many times. The repeats
+     * are added a base block at a time, so the cost grows with the number of base blocks they fill rather than the
+     * number of repeats.
+     *
+     * @param values the value of each observable
+     * @param times the number of repeats, which must be positive
+     */
+    public void add(double[] values, long times) {
+        if (values.length != dimensions)
+            throw new IllegalArgumentException("Expected " + dimensions + " values");
+        if (times <= 0)
+            throw new IllegalArgumentException("Times must be positive");
+        // measurements are held relative to the first to limit cancellation in the variances
+        if (count == 0)
+            System.arraycopy(values, 0, shift, 0, dimensions);
+        while (times > 0) {
+            long repeats = Math.min(times, baseSize - count % baseSize);
+            for (int i = 0; i < dimensions; i++) {
+                double difference = values[i] - shift[i];
+                double value = difference * repeats;
+                totals[i] += value;
+                squares[i] += difference * value;
+                block[i] += value;
+            }
+            count += repeats;
+            times -= repeats;
+            if (count % baseSize == 0)
+                completeBlock();
+        }
+    }
+
+    /**
+     * Adds the base block just completed to the totals of each block size that it completes a block of.
+     */
+    private void completeBlock() {
+        for (int i = 0; i < dimensions; i++)
+            block[i] /= baseSize;
+        for (int level = 0; ; level++) {
+            levels = Math.max(levels, level + 1);
+            int base = level * dimensions;
+            for (int i = 0, p = level * pairs; i < dimensions; i++) {
+                double value = block[i];
+                sums[base + i] += value;
+                for (int j = i; j < dimensions; j++)
+                    products[p++] += value * block[j];
+            }
+            if ((blocks[level]++ & 1) == 0) {
+                System.arraycopy(block, 0, pending, base, dimensions);
+                Arrays.fill(block, 0);
+                return;
+            }
+            // the second block of a pair completes a block of the next size
+            for (int i = 0; i < dimensions; i++)
+                block[i] = (pending[base + i] + block[i]) / 2;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean of an observable over all measurements.
+     *
+     * @param observable the index of the observable
+     * @return the mean
+     * @throws IllegalStateException if there are no measurements
+     */
+    public double mean(int observable) {
+        if (count == 0)
+            throw new IllegalStateException("No measurements");
+        return shift[observable] + totals[observable] / count;
+    }
+
+    /**
+     * Estimates the standard error of the mean of an observable.
+     *
+     * @param observable the index of the observable
+     * @return the error, or NaN if the estimates have not levelled off over the block sizes with enough blocks
+     */
+    public double error(int observable) {
+        double[] gradient = new double[dimensions];
+        gradient[observable] = 1.0;
+        return error(gradient);
+    }
+
+    /**
+     * Estimates the standard error of a function of the means of the observables, from its gradient with respect to
+     * each mean.
+     *
+     * @param gradient the partial derivative of the function with respect to the mean of each observable
+     * @return the error, or NaN if the estimates have not levelled off over the block sizes with enough blocks
+     */
+    public double error(double[] gradient) {
+        int usable = 0;
+        while (usable < levels && blocks[usable] >= MIN_BLOCKS)
+            usable++;
+        if (usable < 2)
+            return Double.NaN;
+        double error = 0;
+        for (int level = 0; level < usable; level++)
+            error = Math.max(error, levelError(level, gradient));
+        double top = levelError(usable - 1, gradient);
+        double below = levelError(usable - 2, gradient);
+        double spread = Math.hypot(top / Math.sqrt(2 * (blocks[usable - 1] - 1)),
+                below / Math.sqrt(2 * (blocks[usable - 2] - 1)));
+        return Math.abs(top - below) <= 2 * spread ? error : Double.NaN;
+    }
+
+    /**
+     * Estimates the integrated autocorrelation time of an observable, in measurements, as half the ratio of the
+     * variance of the mean estimated from the blocks to the variance it would have if the measurements were
+     * independent. An uncorrelated series has a time of 1/2, and the mean of a series with time {@code tau} has the
+     * error of {@code count / (2 tau)} independent measurements. As the error is the largest estimate over the block
+     * sizes, the time leans high rather than low.
+     *
+     * @param observable the index of the observable
+     * @return the autocorrelation time, or NaN if there is no error for the observable or it never changed
+     */
+    public double autocorrelationTime(int observable) {
+        double error = error(observable);
+        double mean = totals[observable] / count;
+        double naiveVariance = (squares[observable] / count - mean * mean) / (count - 1);
+        if (!(naiveVariance > 0))
+            return Double.NaN;
+        return error * error / naiveVariance / 2;
+    }
+
+    private double levelError(int level, double[] gradient) {
+        long count = blocks[level];
+        int base = level * dimensions;
+        double variance = 0;
+        for (int i = 0, p = level * pairs; i < dimensions; i++) {
+            double meanI = sums[base + i] / count;
+            for (int j = i; j < dimensions; j++) {
+                double meanJ = sums[base + j] / count;
+                double covariance = products[p++] / count - meanI * meanJ;
+                variance += (i == j ? 1 : 2) * gradient[i] * gradient[j] * covariance;
+            }
+        }
+        return Math.sqrt(Math.max(0, variance) / (count - 1));
+    }
+}
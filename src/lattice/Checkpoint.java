@@ -0,0 +1,231 @@
+package lattice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * Memory-mapped checkpoint of the progress of a {@link Sweep}. The file holds the parameters of the sweep, the spins of
+ * the lattice of each chunk along with the index of the next temperature the chunk will simulate, and each result that
+ * has been completed. Every chunk writes directly into its own region of the mapped file as it progresses, so no chunk
+ * waits for another and nothing is copied to take a checkpoint. The operating system writes the mapped pages to disk,
+ * so a checkpoint survives the process being killed.
+ * <p>
+ * Each chunk region has two slots. A chunk writes to the slot not currently in use and then switches to it, so a
+ * process killed part way through a write leaves the previous slot intact. Likewise each result is marked as complete
+ * only after its values have been written. The parameters are only written to the header once every chunk has been
+ * saved, by {@link #start()}, so a file left by a process killed before then, such as during the initial warm up, is
+ * not resumed but started afresh.
+ * <p>
+ * Random number generators are reseeded from the seed of the sweep at each point, so the spins and the index of the
+ * next point are all that is needed to resume a chunk exactly where it left off.
+ */
+class Checkpoint implements Closeable {
+    private static final int MAGIC = 0x50595243;
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 96;
+    private static final int RESULT_SIZE = 8 + 8 * Result.FIELDS;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer[] chunks;
+    private final ByteBuffer results;
+    private final int sites;
+    private final Parameters parameters;
+    private final boolean resumed;
+    private final long seed;
+
+    /**
+     * Parameters of a sweep, which apart from the seed must all match for a checkpoint to be resumed. The generator is
+     * the hash code of the name of the random number generator algorithm. The relative error and maximum iterations
+     * are those of the target precision, or 0 if the sweep has none. Whether the {@link NFoldWay} is used changes the
+     * random numbers each point draws, so a sweep only resumes a checkpoint written with the same engine.
+     */
+    record Parameters(long seed, double tempMin, double tempMax, double tempStep, int chunks, int temps,
+                      Simulation.Iterations iterations, int sites, int interactionDistance, int generator,
+                      double relativeError, int maxIterations, boolean rejectionFree) {
+        private void write(ByteBuffer header) {
+            header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, seed)
+                    .putDouble(16, tempMin).putDouble(24, tempMax).putDouble(32, tempStep)
+                    .putInt(40, chunks).putInt(44, temps)
+                    .putInt(48, iterations.initialWarmUp()).putInt(52, iterations.followingWarmUp())
+                    .putInt(56, iterations.simulation())
+                    .putInt(60, sites).putInt(64, interactionDistance).putInt(68, Result.FIELDS)
+                    .putInt(72, generator).putDouble(80, relativeError).putInt(88, maxIterations)
+                    .putInt(92, rejectionFree ? 1 : 0);
+        }
+
+        private Parameters withSeed(long seed) {
+            return new Parameters(seed, tempMin, tempMax, tempStep, chunks, temps, iterations, sites,
+                    interactionDistance, generator, relativeError, maxIterations, rejectionFree);
+        }
+
+        private static Parameters read(ByteBuffer header) {
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(68) != Result.FIELDS)
+                throw new IllegalStateException("Not a checkpoint file");
+            return new Parameters(header.getLong(8),
+                    header.getDouble(16), header.getDouble(24), header.getDouble(32),
+                    header.getInt(40), header.getInt(44),
+                    new Simulation.Iterations(header.getInt(48), header.getInt(52), header.getInt(56)),
+                    header.getInt(60), header.getInt(64), header.getInt(72), header.getDouble(80), header.getInt(88),
+                    header.getInt(92) != 0);
+        }
+    }
+
+    private Checkpoint(Path file, Parameters parameters) throws IOException {
+        boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+        this.sites = parameters.sites();
+        this.parameters = parameters;
+        int chunkSize = 4 + 2 * (4 + sites);
+        long size = HEADER_SIZE + (long) chunkSize * parameters.chunks() + (long) RESULT_SIZE * parameters.temps();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            boolean started = exists && buffer.getInt(0) != 0;
+            Parameters saved = started ? Parameters.read(buffer) : parameters;
+            if (!saved.equals(parameters.withSeed(saved.seed())))
+                throw new IllegalStateException("Checkpoint " + file + " was written by a different sweep");
+            this.seed = saved.seed();
+            this.chunks = new ByteBuffer[parameters.chunks()];
+            for (int chunk = 0; chunk < chunks.length; chunk++)
+                chunks[chunk] = buffer.slice(HEADER_SIZE + chunk * chunkSize, chunkSize);
+            this.results = buffer.slice(HEADER_SIZE + chunkSize * chunks.length, RESULT_SIZE * parameters.temps());
+            if (!started) {
+                for (ByteBuffer chunk : chunks)
+                    chunk.putInt(0, -1);
+            }
+            this.resumed = started;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a checkpoint file, creating it if it does not exist. An existing file that was started is resumed whatever
+     * the seed in the parameters, and the sweep must then use the seed from {@link #getSeed()}.
+     *
+     * @param file the path of the checkpoint file
+     * @param parameters the parameters of the sweep
+     * @return the checkpoint
+     * @throws IOException if the file cannot be opened or mapped
+     * @throws IllegalStateException if the file exists but was written by a sweep with different parameters
+     */
+    static Checkpoint open(Path file, Parameters parameters) throws IOException {
+        return new Checkpoint(file, parameters);
+    }
+
+    /**
+     * Determines if the checkpoint had been started before it was opened.
+     *
+     * @return true, if the sweep is resuming from this checkpoint
+     */
+    boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Writes the parameters to the header, which makes the checkpoint resumable. This must only be called once every
+     * chunk has been saved, and not when resuming.
+     */
+    void start() {
+        if (resumed)
+            throw new IllegalStateException("The checkpoint has already been started");
+        parameters.write(buffer);
+    }
+
+    /**
+     * Gets the seed of the sweep that wrote the checkpoint.
+     *
+     * @return the seed
+     */
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Saves the spins of a chunk's lattice along with the index of the next temperature it will simulate.
+     *
+     * @param chunk the index of the chunk
+     * @param next the index of the next temperature
+     * @param lattice the lattice of the chunk
+     */
+    void saveChunk(int chunk, int next, Lattice lattice) {
+        ByteBuffer region = chunks[chunk];
+        int slot = region.getInt(0) == 0 ? 1 : 0;
+        int offset = 4 + slot * (4 + sites);
+        region.putInt(offset, next);
+        lattice.saveSpins(region, offset + 4);
+        region.putInt(0, slot);
+    }
+
+    /**
+     * Gets the index of the next temperature a chunk will simulate.
+     *
+     * @param chunk the index of the chunk
+     * @return the index of the next temperature, or empty if the chunk has not been saved
+     */
+    OptionalInt next(int chunk) {
+        ByteBuffer region = chunks[chunk];
+        int slot = region.getInt(0);
+        return slot < 0 ? OptionalInt.empty() : OptionalInt.of(region.getInt(4 + slot * (4 + sites)));
+    }
+
+    /**
+     * Restores the spins of a chunk's lattice. The chunk must have been saved.
+     *
+     * @param chunk the index of the chunk
+     * @param lattice the lattice to restore the spins to
+     */
+    void loadChunk(int chunk, Lattice lattice) {
+        ByteBuffer region = chunks[chunk];
+        int slot = region.getInt(0);
+        if (slot < 0)
+            throw new IllegalStateException("Chunk " + chunk + " has not been saved");
+        lattice.loadSpins(region, 4 + slot * (4 + sites) + 4);
+    }
+
+    /**
+     * Saves the result for a temperature.
+     *
+     * @param index the index of the temperature
+     * @param result the result
+     */
+    void saveResult(int index, Result result) {
+        double[] values = result.toArray();
+        int offset = index * RESULT_SIZE;
+        for (int i = 0; i < values.length; i++)
+            results.putDouble(offset + 8 + 8 * i, values[i]);
+        results.put(offset, (byte) 1);
+    }
+
+    /**
+     * Gets the result for a temperature.
+     *
+     * @param index the index of the temperature
+     * @return the result, or empty if the temperature has not been completed
+     */
+    Optional<Result> result(int index) {
+        int offset = index * RESULT_SIZE;
+        if (results.get(offset) == 0)
+            return Optional.empty();
+        double[] values = new double[Result.FIELDS];
+        for (int i = 0; i < values.length; i++)
+            values[i] = results.getDouble(offset + 8 + 8 * i);
+        return Optional.of(Result.fromArray(values));
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
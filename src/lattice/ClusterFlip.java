@@ -0,0 +1,99 @@
+package lattice;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Wolff cluster move for the distance-weighted couplings between particles. A cluster is grown from a random particle:
+ * each particle in the cluster adds each interacting particle with the opposite spin with probability
+ * {@code 1 - exp(-2K / T)}, where {@code K} is the coupling between them. The whole cluster is then flipped, subject to
+ * a Metropolis test on the change in the energy of the particles' own spins, which the cluster does not take into
+ * account.
+ * <p>
+ * As in the Luijten-Bloete algorithm for long-range interactions, the couplings of each particle are grouped into runs
+ * of equal coupling, and within a run the next particle to add is chosen directly by drawing the number of particles to
+ * skip from a geometric distribution. The cost of growing a cluster therefore depends on the number of particles added
+ * rather than the number of interactions tested.
+ */
+public class ClusterFlip implements Move {
+    private final Neighbourhood.Table couplings = Neighbourhood.of(Lattice.INTERACTION_DISTANCE).couplings;
+    private final int[] runEnds = new int[couplings.weights().length];
+    private final int[] cluster = new int[Position.count()];
+    private final int[] visited = new int[Position.count()];
+    private int stamp = 0;
+    private int lastClusterSize = 0;
+
+    public ClusterFlip() {
+        int[] offsets = couplings.templateOffsets();
+        double[] weights = couplings.weights();
+        // the runs depend only on the couplings, so are found once for each template
+        for (int i = 0; i < offsets.length - 1; i++) {
+            for (int n = offsets[i + 1] - 1; n >= offsets[i]; n--) {
+                boolean runContinues = n + 1 < offsets[i + 1] && weights[n + 1] == weights[n];
+                runEnds[n] = runContinues ? runEnds[n + 1] : n + 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of particles in the last cluster that was grown, whether or not it was flipped.
+     *
+     * @return the size of the last cluster
+     */
+    public int getLastClusterSize() {
+        return lastClusterSize;
+    }
+
+    @Override
+    public void apply(Lattice lattice) {
+        RandomGenerator random = lattice.getRandom();
+        double temp = lattice.getTemp();
+        int size = growCluster(lattice, random, temp);
+        int magnetism = 0;
+        for (int i = 0; i < size; i++)
+            magnetism += lattice.getSpin(cluster[i]);
+        double change = -2.0 * lattice.getGibbs() * magnetism;
+        lattice.count(size, 0);
+        if (change < 0 || Math.exp(-change / temp) > random.nextDouble()) {
+            for (int i = 0; i < size; i++)
+                lattice.acceptFlip(cluster[i]);
+        }
+    }
+
+    private int growCluster(Lattice lattice, RandomGenerator random, double temp) {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+        int[] offsets = couplings.offsets();
+        int[] indices = couplings.indices();
+        double[] weights = couplings.weights();
+        int seed = random.nextInt(lattice.size());
+        cluster[0] = seed;
+        visited[seed] = stamp;
+        int size = 1;
+        for (int head = 0; head < size; head++) {
+            int site = cluster[head];
+            int spin = lattice.getSpin(site);
+            int shift = couplings.shift(site);
+            int n = offsets[site];
+            while (n < offsets[site + 1]) {
+                int runEnd = runEnds[n + shift] - shift;
+                double skip = Math.floor(-Math.log(1.0 - random.nextDouble()) * temp / (2.0 * weights[n + shift]));
+                if (skip >= runEnd - n) {
+                    n = runEnd;
+                } else {
+                    n += (int) skip;
+                    int neighbour = indices[n];
+                    if (visited[neighbour] != stamp && lattice.getSpin(neighbour) != spin) {
+                        visited[neighbour] = stamp;
+                        cluster[size++] = neighbour;
+                    }
+                    n++;
+                }
+            }
+        }
+        lastClusterSize = size;
+        return size;
+    }
+}
@@ -0,0 +1,378 @@
+package lattice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs a temperature sweep across a number of {@link Worker} processes, which may be started by the coordinator on the
+ * same machine or started separately on other machines and pointed at its port.
+ * <p>
+ * The temperatures of the sweep are split into units of consecutive temperatures, which are handed out one at a time to
+ * whichever worker is idle, so faster workers take more units. Each worker simulates a unit as a chunk of a
+ * {@link Sweep} would, and sends the result of each temperature as it completes. Results are published in temperature
+ * order, as a sweep publishes them.
+ * <p>
+ * A worker that reports a failure, closes its connection or sends nothing for {@link WorkerProtocol#TIMEOUT_MILLIS} has
+ * the temperatures of its unit that it had not yet completed assigned again, as a new unit that warms up afresh. The
+ * sweep fails if the same temperatures have been assigned {@link #MAX_ATTEMPTS} times. A local worker that exits before
+ * the sweep completes is restarted, up to the same number of times.
+ * <p>
+ * Workers must present the coordinator's token when they connect, so that only processes that have been given it can
+ * take units and send results. The coordinator listens on the loopback address unless another is set, so remote
+ * workers need both a bind address that they can reach and the token.
+ * <p>
+ * The iterations, precision, seed, generator and temperatures are taken from the sweep. The seed makes the results
+ * reproducible for the same unit size as long as no unit is reassigned, whichever worker simulates each unit.
+ */
+public class Coordinator {
+    public final static int DEFAULT_UNIT_SIZE = 8;
+    public final static int MAX_ATTEMPTS = 3;
+
+    private final Sweep sweep;
+    private final List<Double> temps;
+    private final BlockingQueue<WorkerProtocol.Unit> units = new LinkedBlockingQueue<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final CompletableFuture<List<Result>> completion = new CompletableFuture<>();
+    private final List<Process> processes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger exhaustedWorkers = new AtomicInteger();
+    private final AtomicInteger reassignments = new AtomicInteger();
+    private int unitSize = DEFAULT_UNIT_SIZE;
+    private int port = 0;
+    private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    private String token = randomToken();
+    private int localWorkers = 0;
+    private List<String> workerOptions = List.of();
+    private Result[] results = new Result[0];
+    private Consumer<List<Result>> progress = completed -> {
+    };
+
+    /**
+     * Constructs a coordinator for a sweep. The sweep itself is not run, and its parallelism, checkpoint, partial
+     * results and histograms are not used.
+     *
+     * @param sweep the sweep to take the temperatures and parameters from
+     */
+    public Coordinator(Sweep sweep) {
+        this.sweep = sweep;
+        this.temps = sweep.getTemps();
+    }
+
+    /**
+     * Sets the number of consecutive temperatures in each unit. Smaller units share the work more evenly and lose less
+     * when a worker fails, but each unit begins with a full warm up. By default {@link #DEFAULT_UNIT_SIZE} is used.
+     *
+     * @param unitSize the number of temperatures in each unit
+     */
+    public void setUnitSize(int unitSize) {
+        if (unitSize <= 0)
+            throw new IllegalArgumentException("Unit size must be positive");
+        this.unitSize = unitSize;
+    }
+
+    /**
+     * Sets the port to listen for workers on, from other machines as well as this one. By default the coordinator
+     * listens on a free port, which only local workers can use.
+     *
+     * @param port the port
+     */
+    public void setPort(int port) {
+        if (port <= 0 || port > 0xFFFF)
+            throw new IllegalArgumentException("Illegal port");
+        this.port = port;
+    }
+
+    /**
+     * Sets the address to listen for workers on. By default the coordinator listens on the loopback address, so remote
+     * workers need the address of an interface they can reach, or the wildcard address for every interface.
+     *
+     * @param bindAddress the local address
+     */
+    public void setBindAddress(InetAddress bindAddress) {
+        this.bindAddress = Objects.requireNonNull(bindAddress);
+    }
+
+    /**
+     * Sets the token that workers must present when they connect. By default a random token is used, which local
+     * workers are given and remote workers can be given from {@link #getToken()}.
+     *
+     * @param token the token
+     */
+    public void setToken(String token) {
+        if (token.isBlank())
+            throw new IllegalArgumentException("Token must not be blank");
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Sets the number of worker processes to start on this machine when the sweep is run. Each local worker simulates
+     * one unit at a time.
+     *
+     * @param localWorkers the number of local workers
+     */
+    public void setLocalWorkers(int localWorkers) {
+        if (localWorkers < 0)
+            throw new IllegalArgumentException("Local workers must not be negative");
+        this.localWorkers = localWorkers;
+    }
+
+    /**
+     * Sets extra options for the JVMs of local workers, such as {@code -Xmx} or {@code -XX:StartFlightRecording}.
+     *
+     * @param workerOptions the JVM options
+     */
+    public void setWorkerOptions(List<String> workerOptions) {
+        this.workerOptions = List.copyOf(workerOptions);
+    }
+
+    /**
+     * Runs the sweep on the workers. A coordinator can only be run once.
+     *
+     * @param progress receives the results completed so far, in temperature order, each time a point completes; it is
+     *                 called by one thread at a time
+     * @return the results for every temperature in the range, in temperature order
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers to complete
+     * @throws IllegalStateException if the temperatures of a unit fail too many times, or every local worker has
+     *                               failed and remote workers cannot connect
+     */
+    public List<Result> run(Consumer<List<Result>> progress) throws InterruptedException {
+        this.progress = progress;
+        results = new Result[temps.size()];
+        if (results.length == 0)
+            return List.of();
+        if (localWorkers == 0 && port == 0)
+            throw new IllegalStateException("Either local workers or a port for remote workers must be set");
+        for (int first = 0; first < temps.size(); first += unitSize) {
+            double[] unit = temps.subList(first, Math.min(first + unitSize, temps.size())).stream()
+                    .mapToDouble(Double::doubleValue).toArray();
+            units.add(new WorkerProtocol.Unit(nextId.getAndIncrement(), first, unit, 0));
+        }
+        try (ServerSocket server = new ServerSocket(port, 50, bindAddress)) {
+            daemon("coordinator", () -> accept(server));
+            for (int i = 0; i < localWorkers; i++)
+                daemon("local-worker-" + i, () -> runLocalWorker(server.getLocalPort()));
+            return completion.get();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Simulation failed", ex.getCause());
+        } finally {
+            completion.cancel(false);
+            processes.forEach(Process::destroy);
+        }
+    }
+
+    private void accept(ServerSocket server) {
+        int connection = 0;
+        while (!completion.isDone()) {
+            try {
+                Socket socket = server.accept();
+                daemon("worker-connection-" + connection++, () -> handle(socket));
+            } catch (IOException ex) {
+                if (!completion.isDone())
+                    completion.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Checks the token of a worker, then sends it the settings and units until the sweep is complete, collecting the
+     * results of each unit. If the worker fails part way through a unit, the temperatures it had not completed are
+     * assigned again.
+     */
+    private void handle(Socket socket) {
+        WorkerProtocol.Unit unit = null;
+        int next = 0;
+        try (socket) {
+            socket.setSoTimeout(WorkerProtocol.TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!WorkerProtocol.Hello.read(in).matches(token)) {
+                System.err.println("Rejected worker at " + socket.getRemoteSocketAddress() + ": token does not match");
+                return;
+            }
+            settings().write(out);
+            WorkerProtocol.expect(in, WorkerProtocol.READY);
+            int count = in.readInt();
+            if (count != Position.count())
+                throw new IOException("Worker lattice has " + count + " particles rather than " + Position.count());
+            while (!completion.isDone()) {
+                unit = units.poll(WorkerProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (unit == null)
+                    continue;
+                next = unit.first();
+                unit.write(out);
+                int end = unit.first() + unit.temps().length;
+                for (byte type = in.readByte(); type != WorkerProtocol.DONE || next < end; type = in.readByte()) {
+                    if (type == WorkerProtocol.DONE) {
+                        throw new IOException("Unit ended after " + (next - unit.first()) + " results");
+                    } else if (type == WorkerProtocol.RESULT) {
+                        int index = in.readInt();
+                        double[] values = new double[Result.FIELDS];
+                        for (int i = 0; i < values.length; i++)
+                            values[i] = in.readDouble();
+                        if (index != next)
+                            throw new IOException("Expected result " + next + " but received " + index);
+                        complete(index, Result.fromArray(values));
+                        next++;
+                    } else if (type == WorkerProtocol.FAILED) {
+                        reassign(unit, next, in.readUTF());
+                        break;
+                    } else if (type != WorkerProtocol.HEARTBEAT) {
+                        throw new IOException("Unexpected message " + type);
+                    }
+                }
+                unit = null;
+            }
+            out.writeByte(WorkerProtocol.STOP);
+            out.flush();
+        } catch (IOException ex) {
+            if (unit != null)
+                reassign(unit, next, String.valueOf(ex));
+        } catch (InterruptedException ex) {
+            if (unit != null)
+                reassign(unit, next, String.valueOf(ex));
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WorkerProtocol.Settings settings() {
+        Simulation.Iterations iterations = sweep.getIterations();
+        return new WorkerProtocol.Settings(Position.THICKNESS, Lattice.INTERACTION_DISTANCE, sweep.getSeed(),
+                sweep.getGenerator(), iterations.initialWarmUp(), iterations.followingWarmUp(),
+                iterations.simulation(), sweep.getPrecision().map(Simulation.Precision::relativeError).orElse(0.0),
+                sweep.getPrecision().map(Simulation.Precision::maxIterations).orElse(0), sweep.isRejectionFree());
+    }
+
+    private void complete(int index, Result result) {
+        synchronized (results) {
+            if (results[index] != null)
+                return;
+            results[index] = result;
+            List<Result> completed = Arrays.stream(results).filter(Objects::nonNull).toList();
+            progress.accept(completed);
+            if (completed.size() == results.length)
+                completion.complete(completed);
+        }
+    }
+
+    /**
+     * Assigns the temperatures of a unit from an index onwards again, unless they have already been assigned
+     * {@link #MAX_ATTEMPTS} times.
+     */
+    private void reassign(WorkerProtocol.Unit unit, int from, String reason) {
+        if (completion.isDone() || from == unit.first() + unit.temps().length)
+            return;
+        if (unit.attempt() + 1 >= MAX_ATTEMPTS) {
+            completion.completeExceptionally(new IllegalStateException("Simulation at temperature "
+                    + temps.get(from) + " failed " + MAX_ATTEMPTS + " times: " + reason));
+        } else {
+            System.err.println("Reassigning temperatures from " + temps.get(from) + ": " + reason);
+            reassignments.incrementAndGet();
+            units.add(unit.remainder(from, nextId.getAndIncrement()));
+        }
+    }
+
+    /**
+     * Runs a local worker process, restarting it if it exits before the sweep is complete. Once every local worker has
+     * been restarted too many times the sweep fails, unless remote workers can connect.
+     */
+    private void runLocalWorker(int localPort) {
+        try {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS && !completion.isDone(); attempt++) {
+                ProcessBuilder builder = new ProcessBuilder(workerCommand(localPort))
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT);
+                builder.environment().put(Worker.TOKEN_VARIABLE, token);
+                Process process = builder.start();
+                processes.add(process);
+                int status = process.waitFor();
+                processes.remove(process);
+                if (!completion.isDone())
+                    System.err.println("Local worker exited with status " + status);
+            }
+        } catch (IOException ex) {
+            completion.completeExceptionally(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (exhaustedWorkers.incrementAndGet() == localWorkers && port == 0)
+            completion.completeExceptionally(new IllegalStateException("Every local worker failed"));
+    }
+
+    /**
+     * Builds the command to start a worker with the same Java runtime and classes as this process, adding the Vector
+     * API if this process has it. The token is passed in the environment rather than on the command line, where other
+     * users of the machine could read it.
+     */
+    private List<String> workerCommand(int localPort) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            command.add("--add-modules=jdk.incubator.vector");
+        command.addAll(workerOptions);
+        Module module = Worker.class.getModule();
+        if (module.isNamed()) {
+            command.addAll(List.of("--module-path", System.getProperty("jdk.module.path"),
+                    "--module", module.getName() + "/" + Worker.class.getName()));
+        } else {
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), Worker.class.getName()));
+        }
+        InetAddress host = bindAddress.isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : bindAddress;
+        command.addAll(List.of("--host", host.getHostAddress(),
+                "--port", Integer.toString(localPort), "--threads", "1"));
+        return command;
+    }
+
+    /**
+     * Gets the number of times temperatures have been assigned again after a worker failed.
+     */
+    int getReassignments() {
+        return reassignments.get();
+    }
+
+    /**
+     * Gets the worker processes started on this machine that are currently running.
+     */
+    List<Process> getProcesses() {
+        return List.copyOf(processes);
+    }
+
+    private static String randomToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,55 @@
+package lattice;
+
+/**
+ * Full evaluation of the energy and local field of each particle from the spins of all particles, used whenever the
+ * state of a lattice is recalculated rather than updated. The energy of a particle is its spin times the sum of the
+ * Gibbs energy and the weighted spins of the particles within its neighbourhood, and its local field is the sum of the
+ * spins of the particles coupled to it weighted by the integer {@link Neighbourhood#fieldWeights}.
+ * <p>
+ * The vectorised kernel gathers the spins of each particle's neighbours into vectors of the preferred width. It needs
+ * the incubating {@code jdk.incubator.vector} module, which is only present when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, so otherwise the scalar kernel is used. The local fields are sums of
+ * integers and are the same from either kernel, so the decisions of a simulation are too; the energies can differ in
+ * the last bits because the terms are added in a different order.
+ */
+interface EnergyKernel {
+    /**
+     * Calculates the energy and local field of a range of particles.
+     *
+     * @param spins the spin of every particle, as -1.0 or +1.0
+     * @param gibbs the energy of a particle's own spin at the temperature
+     * @param energies the array to store the energy of each particle in
+     * @param fields the array to store the local field on each particle in
+     * @param from the index of the first particle (inclusive)
+     * @param to the index of the last particle (exclusive)
+     */
+    void calculate(double[] spins, double gibbs, double[] energies, long[] fields, int from, int to);
+
+    /**
+     * Determines if the Vector API is available to this JVM.
+     *
+     * @return true, if the vectorised kernel can be used
+     */
+    static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /**
+     * Gets the fastest available kernel for a neighbourhood.
+     *
+     * @param neighbourhood the interactions between particles
+     * @return the vectorised kernel if the Vector API is available, otherwise the scalar kernel
+     */
+    static EnergyKernel of(Neighbourhood neighbourhood) {
+        if (!isVectorAvailable())
+            return new ScalarEnergyKernel(neighbourhood);
+        try {
+            // loaded by name so that the Vector API classes are never linked when the module is absent
+            return (EnergyKernel) Class.forName("lattice.VectorEnergyKernel")
+                    .getDeclaredConstructor(Neighbourhood.class)
+                    .newInstance(neighbourhood);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Vector energy kernel could not be created", ex);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Histogram of the states of a lattice visited by a simulation at one temperature, from which a {@link Reweighting}
+ * estimates the observables at other temperatures.
+ * <p>
+ * Only the energy of each particle's own spin depends on the temperature, so a state with energy {@code E} and
+ * magnetism {@code M} at temperature {@code T} has an enthalpy {@code H = E + T DELTA_S M} that does not, and its
+ * probability at any temperature is proportional to {@code exp(DELTA_S M - H / T)}. Reweighting to another temperature
+ * multiplies the probability of every state by a factor that depends on its enthalpy alone, so the states are binned by
+ * enthalpy and each bin holds the number of states and the sums of the quantities from which the observables at another
+ * temperature are derived: the enthalpy, the magnetism with its absolute value and second and fourth powers, and the
+ * sum of the fields on the particles and of their squares. The bins are a map keyed by the enthalpy in units of the
+ * width, so only enthalpies that were visited take space, and the bin of the last state is reused while the enthalpy is
+ * unchanged, as it is after every rejected flip.
+ * <p>
+ * The states are also divided into contiguous blocks, which are merged in pairs as the simulation continues so that
+ * there are between {@link #GROUPS} and twice as many. The blocks are combined into {@link #GROUPS} groups, from which
+ * the errors of reweighted observables are estimated by a jackknife. The blocks grow with the simulation, so they are
+ * soon longer than the autocorrelation time and the groups are close to independent.
+ */
+public class Histogram {
+    public final static double DEFAULT_WIDTH = 1.0;
+    public final static int GROUPS = 16;
+    static final int COUNT = 0;
+    static final int ENTHALPY = 1;
+    static final int MAGNETISM = 2;
+    static final int ABSOLUTE_MAGNETISM = 3;
+    static final int MAGNETISM_SQUARED = 4;
+    static final int MAGNETISM_FOURTH = 5;
+    static final int FIELD = 6;
+    static final int FIELD_SQUARES = 7;
+    static final int SUMS = 8;
+
+    private final double temp;
+    private final double width;
+    private final List<Map<Long, double[]>> blocks = new ArrayList<>();
+    private long blockSize = 1;
+    private long count = 0;
+    private long lastKey = 0;
+    private double[] lastBin = null;
+
+    /**
+     * Constructs an empty histogram with bins of the {@link #DEFAULT_WIDTH}.
+     *
+     * @param temp the temperature of the simulation
+     */
+    public Histogram(double temp) {
+        this(temp, DEFAULT_WIDTH);
+    }
+
+    /**
+     * Constructs an empty histogram. States whose enthalpies fall in the same bin are reweighted as if they all had the
+     * mean enthalpy of the bin, which is accurate to second order in the width divided by the temperature, so the width
+     * only needs to be small compared to the temperature. The time to solve a {@link Reweighting} grows with the
+     * number of bins.
+     *
+     * @param temp the temperature of the simulation
+     * @param width the width of the bins of enthalpy
+     */
+    public Histogram(double temp, double width) {
+        if (!(width > 0))
+            throw new IllegalArgumentException("Width must be positive");
+        this.temp = temp;
+        this.width = width;
+    }
+
+    /**
+     * Adds the current state of a lattice.
+     *
+     * @param lattice the lattice, which must be at the temperature of the histogram
+     */
+    public void add(Lattice lattice) {
+        add(lattice, 1);
+    }
+
+    /**
+     * Adds the current state of a lattice as many times as consecutive steps left it in that state, as recorded by the
+     * {@link NFoldWay}. The repeats are split between blocks just as the same number of single states would be.
+     *
+     * @param lattice the lattice, which must be at the temperature of the histogram
+     * @param times the number of steps, which must be positive
+     */
+    public void add(Lattice lattice, long times) {
+        if (lattice.getTemp() != temp)
+            throw new IllegalArgumentException("Lattice is not at the temperature of the histogram");
+        if (times <= 0)
+            throw new IllegalArgumentException("Times must be positive");
+        int magnetism = lattice.getMagnetism();
+        double enthalpy = lattice.getEnergy() + temp * Lattice.DELTA_S * magnetism;
+        long key = Math.round(enthalpy / width);
+        double gibbs = lattice.getGibbs();
+        double field = lattice.getFieldSum();
+        double square = (double) magnetism * magnetism;
+        // the squared energy of each particle is the square of gibbs plus its field
+        double fieldSquares = lattice.getEnergySquared() - gibbs * (lattice.size() * gibbs + 2.0 * field);
+        while (times > 0) {
+            if (count == blockSize * blocks.size()) {
+                if (blocks.size() == 2 * GROUPS)
+                    mergeBlocks();
+                blocks.add(new HashMap<>());
+                lastBin = null;
+            }
+            if (lastBin == null || key != lastKey) {
+                lastBin = blocks.get(blocks.size() - 1).computeIfAbsent(key, k -> new double[SUMS]);
+                lastKey = key;
+            }
+            long repeats = Math.min(times, blockSize * blocks.size() - count);
+            lastBin[COUNT] += repeats;
+            lastBin[ENTHALPY] += enthalpy * repeats;
+            lastBin[MAGNETISM] += (double) magnetism * repeats;
+            lastBin[ABSOLUTE_MAGNETISM] += (double) Math.abs(magnetism) * repeats;
+            lastBin[MAGNETISM_SQUARED] += square * repeats;
+            lastBin[MAGNETISM_FOURTH] += square * square * repeats;
+            lastBin[FIELD] += field * repeats;
+            lastBin[FIELD_SQUARES] += fieldSquares * repeats;
+            count += repeats;
+            times -= repeats;
+        }
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of distinct bins that states have been added to.
+     *
+     * @return the number of bins
+     */
+    public int getBinCount() {
+        return (int) blocks.stream().flatMap(block -> block.keySet().stream()).distinct().count();
+    }
+
+    /**
+     * Gets the bins of each group of blocks. There are fewer than {@link #GROUPS} non-empty groups until the
+     * simulation has added that many states.
+     *
+     * @return the sums of each bin by key, for each group
+     */
+    List<Map<Long, double[]>> groups() {
+        List<Map<Long, double[]>> groups = new ArrayList<>();
+        for (int group = 0; group < GROUPS; group++) {
+            Map<Long, double[]> bins = new HashMap<>();
+            for (int block = group * blocks.size() / GROUPS; block < (group + 1) * blocks.size() / GROUPS; block++)
+                blocks.get(block).forEach((key, sums) -> add(bins, key, sums));
+            groups.add(bins);
+        }
+        return groups;
+    }
+
+    private void mergeBlocks() {
+        for (int block = 0; block < GROUPS; block++) {
+            Map<Long, double[]> merged = blocks.get(2 * block);
+            blocks.get(2 * block + 1).forEach((key, sums) -> add(merged, key, sums));
+            blocks.set(block, merged);
+        }
+        blocks.subList(GROUPS, blocks.size()).clear();
+        blockSize *= 2;
+    }
+
+    private static void add(Map<Long, double[]> bins, long key, double[] sums) {
+        double[] bin = bins.computeIfAbsent(key, k -> new double[SUMS]);
+        for (int i = 0; i < SUMS; i++)
+            bin[i] += sums[i];
+    }
+}
@@ -1,70 +1,439 @@
 package lattice;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
 import java.util.function.BiConsumer;
+import java.util.random.RandomGenerator;
 
 /**
  * Pyrochlore lattice in which each particle has a spin of -1 or +1. The size of the lattice is determined by the set of
  * legal positions as returned by {@link Position#getAll()}.
+ * <p>
+ * The state of the lattice is maintained incrementally: flipping a spin only changes the energy of the flipped particle
+ * and the particles that have it within {@link #INTERACTION_DISTANCE}, so each flip is evaluated and applied over that
+ * neighbourhood alone. The full state is recalculated after a configurable number of accepted flips to stop rounding
+ * errors accumulating in the running totals.
+ * <p>
+ * Particles are identified by their {@link Position#index()} and their energies are held in arrays, with the
+ * interactions between them taken from the {@link Neighbourhood} for the interaction distance. Spins are packed one
+ * bit per particle into longs, set for a spin of +1, so the magnetism is a count of set bits. Full recalculations
+ * unpack the spins and evaluate every particle with an {@link EnergyKernel}, which is vectorised when the JDK Vector
+ * API is available.
+ * <p>
+ * The local field on each particle is also maintained, as an exact integer, so that evaluating a flip takes a single
+ * lookup in the {@link Acceptance} table for the temperature rather than a sum over the neighbourhood and an
+ * exponential. The table is built when the lattice is given a temperature by {@link #setTemp(double)}, or by the first
+ * step at the initial temperature if none is given, and a copy shares the table of the lattice it copies.
+ * <p>
+ * The energy of each particle is its spin times the sum of the energy of its own spin at the temperature and the field
+ * of the particles within its neighbourhood. The sum of those fields over all particles is maintained as well, since
+ * with the energy and magnetism it gives the energy and sum of squared energies that the same spins would have at any
+ * other temperature, which a {@link Reweighting} needs.
+ * <p>
+ * The lattice counts the flips it attempts and accepts, and the number and duration of its full recalculations, in
+ * plain fields read with {@link #getCounters()}. Each full recalculation is also timed into the
+ * {@link SimulationMetrics} and emitted as a flight recorder event.
  */
 public class Lattice {
-    public final static int INTERACTION_DISTANCE = 5;
+    public final static String INTERACTION_DISTANCE_PROPERTY = "lattice.interaction-distance";
+    public final static int DEFAULT_INTERACTION_DISTANCE = 5;
+    /**
+     * The maximum number of connections between interacting particles, read from the
+     * {@value #INTERACTION_DISTANCE_PROPERTY} system property when the class is initialised.
+     */
+    public final static int INTERACTION_DISTANCE = Position.property(INTERACTION_DISTANCE_PROPERTY,
+            DEFAULT_INTERACTION_DISTANCE);
     public final static double DELTA_S = 3.0 * Math.log(5.0);
     private final static double B = 20.0e3;
     private final static double K = 6 * B / 10.0;
     private final static double delta = 0.1;
     public final static double DELTA_H = K * Math.pow(delta, 2.0);
-    private final Random random = new Random();
-    private final Map<Position, Integer> values = new HashMap<>();
+    public final static int DEFAULT_RECALCULATION_INTERVAL = 100_000;
+    private RandomGenerator random = new SplittableRandom();
+    private final Neighbourhood neighbourhood;
+    private final Neighbourhood.Table reaching;
+    private final Neighbourhood.Table couplings;
+    private final long[] fieldWeights;
+    private final double[] reachingWeights;
+    private static final VarHandle SPIN_WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    private final int count;
+    private final long[] spins;
+    private final double[] values;
+    private final EnergyKernel kernel;
+    private final double[] energies;
+    private final long[] fields;
+    private Acceptance acceptance;
     private double temp = 0;
     private double gibbs = 0;
-    private State currentState;
+    private double energy = 0;
+    private double energySquared = 0;
+    private double fieldSum = 0;
+    private int magnetism = 0;
+    private int recalculationInterval = DEFAULT_RECALCULATION_INTERVAL;
+    private int flipsSinceRecalculation = 0;
+    private long attempts = 0;
+    private long flips = 0;
+    private long recalculations = 0;
+    private long recalculationNanos = 0;
+    private Move move = new SingleFlip();
 
     public Lattice() {
-        Position.getAll().forEach(pos -> values.put(pos, +1));
-        currentState = calculateState();
+        neighbourhood = Neighbourhood.of(INTERACTION_DISTANCE);
+        reaching = neighbourhood.reaching;
+        couplings = neighbourhood.couplings;
+        fieldWeights = neighbourhood.fieldWeights;
+        count = Position.count();
+        reachingWeights = reachingWeights(reaching, count);
+        spins = new long[(count + 63) / 64];
+        values = new double[count];
+        kernel = EnergyKernel.of(neighbourhood);
+        energies = new double[count];
+        fields = new long[count];
+        for (int site = 0; site < count; site++)
+            spins[site >>> 6] |= 1L << site;
+        calculateState();
+    }
+
+    /**
+     * Constructs a lattice with the same spins, temperature and recalculation interval as another lattice. The new
+     * lattice has its own random number generator.
+     *
+     * @param other the lattice to copy
+     */
+    public Lattice(Lattice other) {
+        neighbourhood = other.neighbourhood;
+        reaching = other.reaching;
+        couplings = other.couplings;
+        fieldWeights = other.fieldWeights;
+        count = other.count;
+        reachingWeights = other.reachingWeights;
+        spins = other.spins.clone();
+        values = new double[count];
+        kernel = other.kernel;
+        energies = new double[count];
+        fields = new long[count];
+        acceptance = other.acceptance;
+        recalculationInterval = other.recalculationInterval;
+        temp = other.temp;
+        gibbs = other.gibbs;
+        calculateState();
     }
 
+    /**
+     * Sets the temperature of the lattice. The energy of each particle depends on the temperature so the state of the
+     * lattice is recalculated, and the acceptance table is built if there is none yet or the temperature has changed.
+     *
+     * @param temp the new temperature
+     */
     public void setTemp(double temp) {
         this.temp = temp;
-        this.gibbs = DELTA_H - temp * DELTA_S;
+        this.gibbs = gibbs(temp);
+        if (acceptance == null || acceptance.getTemp() != temp)
+            acceptance = new Acceptance(temp, gibbs, neighbourhood);
+        calculateState();
+    }
+
+    /**
+     * Gets the acceptance table for the temperature, building it if the lattice has not been given a temperature. The
+     * table is immutable, so threads updating the lattice in parallel may safely race to build it.
+     */
+    private Acceptance acceptance() {
+        if (acceptance == null)
+            acceptance = new Acceptance(temp, gibbs, neighbourhood);
+        return acceptance;
+    }
+
+    /**
+     * Exchanges temperatures with another lattice. The lattices also exchange acceptance tables, so neither is rebuilt.
+     *
+     * @param other the lattice to exchange with
+     */
+    void exchangeTemp(Lattice other) {
+        Acceptance table = acceptance;
+        acceptance = other.acceptance;
+        other.acceptance = table;
+        double otherTemp = other.temp;
+        other.setTemp(temp);
+        setTemp(otherTemp);
+    }
+
+    /**
+     * Seeds the lattice with a new {@link SplittableRandom}, so that the sequence of steps can be reproduced.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        setRandom(new SplittableRandom(seed));
+    }
+
+    /**
+     * Sets the random number generator used by the lattice and its move. The generator is not shared with any other
+     * lattice, so it need not be thread-safe.
+     *
+     * @param random the generator
+     */
+    public void setRandom(RandomGenerator random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets the number of accepted flips between full recalculations of the state of the lattice.
+     *
+     * @param recalculationInterval the number of flips, which must be positive
+     */
+    public void setRecalculationInterval(int recalculationInterval) {
+        if (recalculationInterval <= 0)
+            throw new IllegalArgumentException("Recalculation interval must be positive");
+        this.recalculationInterval = recalculationInterval;
+    }
+
+    /**
+     * Sets the move applied by each {@link #step()}. Moves may hold working storage, so each lattice should have its
+     * own move.
+     *
+     * @param move the move
+     */
+    public void setMove(Move move) {
+        this.move = move;
+    }
+
+    public Move getMove() {
+        return move;
+    }
+
+    /**
+     * Applies the lattice's move once. By default this is a {@link SingleFlip}.
+     */
+    public void step() {
+        move.apply(this);
     }
 
     public void randomFlip() {
-        Position position = Position.random(random);
-        flip(position);
-        State newState = calculateState();
-        double change = newState.energy() - currentState.energy();
-        if (change < 0 || Math.exp(-change / temp) > random.nextDouble()) {
-            // keep new state
-            currentState = newState;
-        } else {
-            // flip the spin back to its original state
-            flip(position);
+        int site = random.nextInt(count);
+        attempts++;
+        if (acceptance().accept(getSpin(site), fields[site], random))
+            acceptFlip(site);
+    }
+
+    /**
+     * Flips the spin of a particle, maintaining the state of the lattice.
+     *
+     * @param site the index of the particle
+     */
+    void acceptFlip(int site) {
+        flip(site);
+        flips++;
+        if (++flipsSinceRecalculation >= recalculationInterval)
+            calculateState();
+    }
+
+    /**
+     * Gets the probability that an attempt to flip a particle is accepted, from the field maintained on it.
+     *
+     * @param site the index of the particle
+     * @return the probability, which is 1 for a downhill flip
+     */
+    double flipProbability(int site) {
+        return Math.min(1.0, acceptance().probability(getSpin(site), fields[site]));
+    }
+
+    int getSpin(int site) {
+        return (int) (spins[site >>> 6] >>> site & 1L) * 2 - 1;
+    }
+
+    long getField(int site) {
+        return fields[site];
+    }
+
+    int size() {
+        return count;
+    }
+
+    double getGibbs() {
+        return gibbs;
+    }
+
+    /**
+     * Gets the energy of a particle's own spin at a temperature, which is the free energy of the change in its state.
+     *
+     * @param temp the temperature
+     * @return the energy per unit of spin
+     */
+    static double gibbs(double temp) {
+        return DELTA_H - temp * DELTA_S;
+    }
+
+    /**
+     * Sums the weights with which each particle contributes to the fields of the particles that have it within their
+     * neighbourhood, so that the change in the sum of all fields when it flips is known without visiting them.
+     */
+    private static double[] reachingWeights(Neighbourhood.Table reaching, int count) {
+        double[] sums = new double[count];
+        for (int site = 0; site < count; site++) {
+            int shift = reaching.shift(site);
+            for (int n = reaching.offsets()[site]; n < reaching.offsets()[site + 1]; n++)
+                sums[site] += reaching.weights()[n + shift];
         }
+        return sums;
     }
 
-    private void flip(Position position) {
-        values.compute(position, (p, v) -> -v);
+    RandomGenerator getRandom() {
+        return random;
     }
 
-    public void forEach(BiConsumer<Position, Integer> action) {
-        values.forEach(action);
+    private void flip(int site) {
+        spins[site >>> 6] ^= 1L << site;
+        int spin = getSpin(site);
+        energy -= 2.0 * energies[site];
+        energies[site] = -energies[site];
+        magnetism += 2 * spin;
+        fieldSum += 2.0 * spin * reachingWeights[site];
+        int[] offsets = reaching.offsets();
+        int[] indices = reaching.indices();
+        double[] weights = reaching.weights();
+        int shift = reaching.shift(site);
+        for (int n = offsets[site]; n < offsets[site + 1]; n++) {
+            int neighbour = indices[n];
+            double before = energies[neighbour];
+            double after = before + 2.0 * getSpin(neighbour) * spin * weights[n + shift];
+            energies[neighbour] = after;
+            energy += after - before;
+            energySquared += after * after - before * before;
+        }
+        int[] coupled = couplings.indices();
+        int couplingShift = couplings.shift(site);
+        for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++)
+            fields[coupled[n]] += 2L * spin * fieldWeights[n + couplingShift];
     }
 
-    private double interactionEnergy(Position position, double gibbs) {
-        int spin = values.get(position);
-        double energy = gibbs * spin;
-        for (Map.Entry<Position, Integer> entry : position.positionsWithin(INTERACTION_DISTANCE).entrySet()) {
-            Position neighbour = entry.getKey();
-            int distance = entry.getValue();
-            if (distance > 0) {
-                energy += values.get(neighbour) * spin / Math.pow(distance, 2.0);
+    /**
+     * Attempts to flip the spin of each of a range of particles in turn, without maintaining the energy of the lattice.
+     * The change in energy is calculated from the spins of the interacting particles alone, so ranges of particles that
+     * do not interact with each other can be updated concurrently. {@link #calculateEnergies(int, int)} and
+     * {@link #calculateTotals()} must be called once all updates are complete, preceded by {@link #unpackSpins()}.
+     * <p>
+     * Particles in the same word of packed spins may be updated by different threads, so each flip atomically toggles
+     * its bit. The spins of the interacting particles are not being updated, so reading them is safe.
+     *
+     * @param sites the indices of the particles
+     * @param from the first entry in sites to update (inclusive)
+     * @param to the last entry in sites to update (exclusive)
+     * @param random the generator for acceptance decisions
+     * @return the number of flips accepted, which the caller adds to the counters with {@link #count(long, long)}
+     */
+    int updateSpins(int[] sites, int from, int to, RandomGenerator random) {
+        int accepted = 0;
+        for (int i = from; i < to; i++) {
+            int site = sites[i];
+            if (acceptance().accept(getSpin(site), localField(site), random)) {
+                SPIN_WORDS.getAndBitwiseXor(spins, site >>> 6, 1L << site);
+                accepted++;
             }
         }
-        return energy;
+        return accepted;
+    }
+
+    /**
+     * Adds flips made outside {@link #randomFlip()} and {@link #acceptFlip(int)} to the counters.
+     *
+     * @param attempts the number of flips attempted
+     * @param flips the number of flips accepted
+     */
+    void count(long attempts, long flips) {
+        this.attempts += attempts;
+        this.flips += flips;
+    }
+
+    /**
+     * Sums the local field on a particle from the spins of the particles coupled to it, in units of
+     * {@code 1 / fieldScale}.
+     */
+    private long localField(int site) {
+        int[] indices = couplings.indices();
+        int shift = couplings.shift(site);
+        long field = 0;
+        for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++)
+            field += getSpin(indices[n]) * fieldWeights[n + shift];
+        return field;
+    }
+
+    /**
+     * Writes the spin of each particle, in index order, as a byte to a buffer.
+     *
+     * @param buffer the buffer to write to
+     * @param offset the position in the buffer of the first spin
+     */
+    void saveSpins(ByteBuffer buffer, int offset) {
+        for (int site = 0; site < count; site++)
+            buffer.put(offset + site, (byte) getSpin(site));
+    }
+
+    /**
+     * Reads the spin of each particle from a buffer written by {@link #saveSpins(ByteBuffer, int)} and recalculates
+     * the state of the lattice.
+     *
+     * @param buffer the buffer to read from
+     * @param offset the position in the buffer of the first spin
+     */
+    void loadSpins(ByteBuffer buffer, int offset) {
+        Arrays.fill(spins, 0L);
+        for (int site = 0; site < count; site++) {
+            if (buffer.get(offset + site) > 0)
+                spins[site >>> 6] |= 1L << site;
+        }
+        calculateState();
+    }
+
+    public void forEach(BiConsumer<Position, Integer> action) {
+        for (int i = 0; i < count; i++)
+            action.accept(Position.at(i), getSpin(i));
+    }
+
+    /**
+     * Copies the spins of the particles, with a bit set by index for each spin of +1. Unlike the other methods, this
+     * can be called by another thread while the lattice is being simulated, for example to display it. Each word of 64
+     * spins is read atomically, but flips made during the copy may or may not be seen, so the copy is not necessarily a
+     * state the lattice was ever in.
+     *
+     * @return the spins of the particles
+     */
+    public BitSet snapshotSpins() {
+        long[] words = new long[spins.length];
+        for (int i = 0; i < words.length; i++)
+            words[i] = (long) SPIN_WORDS.getOpaque(spins, i);
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Counts of the work done by a lattice since it was constructed.
+     *
+     * @param attempts the number of flips attempted
+     * @param flips the number of flips accepted
+     * @param recalculations the number of full recalculations of the state
+     * @param recalculationNanos the total elapsed time of the full recalculations
+     */
+    public record Counters(long attempts, long flips, long recalculations, long recalculationNanos) {
+        public double acceptanceRatio() {
+            return attempts == 0 ? Double.NaN : (double) flips / attempts;
+        }
+
+        public Counters plus(Counters other) {
+            return new Counters(attempts + other.attempts, flips + other.flips,
+                    recalculations + other.recalculations, recalculationNanos + other.recalculationNanos);
+        }
+
+        public Counters minus(Counters other) {
+            return new Counters(attempts - other.attempts, flips - other.flips,
+                    recalculations - other.recalculations, recalculationNanos - other.recalculationNanos);
+        }
+    }
+
+    public Counters getCounters() {
+        return new Counters(attempts, flips, recalculations, recalculationNanos);
     }
 
     /**
@@ -75,12 +444,103 @@ public class Lattice {
      * @return the current state of the lattice
      */
     public State getState() {
-        return currentState;
+        return new State(energy, energySquared, magnetism);
+    }
+
+    public double getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Gets the energy the lattice would have in its current configuration at another temperature. Only the energy of
+     * each particle's own spin depends on the temperature, so this does not require a recalculation.
+     *
+     * @param temp the temperature
+     * @return the energy of the lattice at that temperature
+     */
+    public double getEnergyAt(double temp) {
+        return energy + (gibbs(temp) - gibbs) * magnetism;
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    public double getEnergySquared() {
+        return energySquared;
+    }
+
+    public int getMagnetism() {
+        return magnetism;
+    }
+
+    /**
+     * Gets the sum over all particles of the field of the particles within their neighbourhood, which is independent
+     * of the temperature. The energy of each particle is its spin times the sum of its field and {@link #getGibbs()}.
+     *
+     * @return the sum of the fields
+     */
+    double getFieldSum() {
+        return fieldSum;
+    }
+
+    /**
+     * Recalculates the energy of every particle and the totals derived from them, discarding any drift in the values
+     * maintained by {@link #flip(int)}.
+     */
+    private void calculateState() {
+        RecalculationEvent event = new RecalculationEvent();
+        event.begin();
+        long start = System.nanoTime();
+        unpackSpins();
+        calculateEnergies(0, count);
+        calculateTotals();
+        long nanos = System.nanoTime() - start;
+        recalculations++;
+        recalculationNanos += nanos;
+        SimulationMetrics.get().recordRecalculation(nanos);
+        if (event.shouldCommit()) {
+            event.particles = count;
+            event.temperature = temp;
+            event.commit();
+        }
     }
 
-    private State calculateState() {
-        return Position.getAll()
-                .map(pos -> new State(interactionEnergy(pos, gibbs), values.get(pos)))
-                .reduce(new State(0, 0), State::add);
+    /**
+     * Unpacks the spins into the values read by {@link #calculateEnergies(int, int)}.
+     */
+    void unpackSpins() {
+        for (int site = 0; site < count; site++)
+            values[site] = getSpin(site);
+    }
+
+    /**
+     * Recalculates the energy and local field of a range of particles from the spins last unpacked by
+     * {@link #unpackSpins()}. Ranges can be recalculated concurrently.
+     *
+     * @param from the index of the first particle (inclusive)
+     * @param to the index of the last particle (exclusive)
+     */
+    void calculateEnergies(int from, int to) {
+        kernel.calculate(values, gibbs, energies, fields, from, to);
+    }
+
+    /**
+     * Recalculates the energy, energy squared and magnetism of the lattice from the energy and spin of each particle.
+     */
+    void calculateTotals() {
+        energy = 0;
+        energySquared = 0;
+        fieldSum = 0;
+        for (int site = 0; site < count; site++) {
+            energy += energies[site];
+            energySquared += energies[site] * energies[site];
+            fieldSum += getSpin(site) * energies[site] - gibbs;
+        }
+        int up = 0;
+        for (long word : spins)
+            up += Long.bitCount(word);
+        magnetism = 2 * up - count;
+        flipsSinceRecalculation = 0;
     }
 }
@@ -0,0 +1,14 @@
+package lattice;
+
+/**
+ * A Monte Carlo move that updates the spins of a lattice. Each move must leave the Boltzmann distribution of the
+ * lattice at its current temperature unchanged, and must maintain the state of the lattice as it flips spins.
+ */
+public interface Move {
+    /**
+     * Applies the move to a lattice once.
+     *
+     * @param lattice the lattice to update
+     */
+    void apply(Lattice lattice);
+}
@@ -0,0 +1,125 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Diagnostics to compare the efficiency of different {@link Move}s. A lattice is simulated with each move and the
+ * integrated autocorrelation times of its energy and magnetism are measured, along with the time taken per sample. The
+ * product of the two gives the cost of each independent sample.
+ * <p>
+ * The comparison can be run from the command line with {@link #main(String[])}.
+ */
+public class MoveDiagnostics {
+    public final static int DEFAULT_SAMPLES = 10_000;
+    private final static int CLUSTERS_PER_SAMPLE = 16;
+    private final static List<Double> DEFAULT_TEMPS = List.of(23.0, 50.0, 80.0);
+
+    private MoveDiagnostics() {
+    }
+
+    /**
+     * Compares the moves at each of a list of temperatures, writing a header line and then the fields of each
+     * {@link Report} as comma separated values. The arguments are the temperatures, by default 23, 50 and 80, optionally
+     * preceded by {@code --samples <count>}, by default {@value #DEFAULT_SAMPLES}. The size of the lattice and the
+     * interaction distance are read from their system properties, as for any simulation.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int samples = DEFAULT_SAMPLES;
+        List<Double> temps = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--samples") && i + 1 < args.length)
+                    samples = Integer.parseInt(args[++i]);
+                else
+                    temps.add(Double.parseDouble(args[i]));
+            }
+            if (samples <= 0)
+                throw new IllegalArgumentException("Samples must be positive");
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Usage: java lattice.MoveDiagnostics [--samples <count>] [<temp> ...]");
+            System.exit(2);
+            return;
+        }
+        System.out.println("move,temp,stepsPerSample,energyTime,magnetismTime,nanosPerSample,"
+                + "nanosPerIndependentSample");
+        for (double temp : temps.isEmpty() ? DEFAULT_TEMPS : temps) {
+            for (Report report : compare(temp, samples)) {
+                System.out.println(String.join(",", report.move(), Double.toString(report.temp()),
+                        Integer.toString(report.stepsPerSample()), Double.toString(report.energyTime()),
+                        Double.toString(report.magnetismTime()), Double.toString(report.nanosPerSample()),
+                        Double.toString(report.nanosPerIndependentSample())));
+            }
+        }
+    }
+
+    /**
+     * Measurements of the autocorrelation of a lattice simulated with a move.
+     *
+     * @param move the name of the move
+     * @param temp the temperature of the lattice
+     * @param stepsPerSample the number of times the move was applied between samples
+     * @param energyTime the integrated autocorrelation time of the energy, in samples, or NaN if it could not be
+     *                   estimated
+     * @param magnetismTime the integrated autocorrelation time of the magnetism, in samples, or NaN if it could not be
+     *                      estimated
+     * @param nanosPerSample the elapsed time per sample
+     */
+    public record Report(String move, double temp, int stepsPerSample, double energyTime, double magnetismTime,
+                         double nanosPerSample) {
+        /**
+         * Gets the elapsed time taken to generate one independent sample of the energy.
+         *
+         * @return the time in nanoseconds, or NaN if the autocorrelation time of the energy could not be estimated
+         */
+        public double nanosPerIndependentSample() {
+            return 2.0 * energyTime * nanosPerSample;
+        }
+    }
+
+    /**
+     * Compares single flips, sampled once per sweep of the lattice, with cluster flips, sampled after every
+     * {@value #CLUSTERS_PER_SAMPLE} clusters, which keeps the autocorrelation time of the cluster samples short enough
+     * to estimate from the default number of samples.
+     *
+     * @param temp the temperature of the lattice
+     * @param samples the number of samples to take with each move
+     * @return a report for each move
+     */
+    public static List<Report> compare(double temp, int samples) {
+        return List.of(
+                measure(new SingleFlip(), temp, Position.count(), samples),
+                measure(new ClusterFlip(), temp, CLUSTERS_PER_SAMPLE, samples));
+    }
+
+    /**
+     * Measures the autocorrelation of a lattice simulated with a move. The lattice is warmed up for a fifth of the
+     * number of samples before measurement starts. The autocorrelation times are those of the binning analysis of the
+     * {@link Observables}, so they are NaN where too few samples were taken for their binning errors.
+     *
+     * @param move the move to apply
+     * @param temp the temperature of the lattice
+     * @param stepsPerSample the number of times to apply the move between samples
+     * @param samples the number of samples to take
+     * @return the measurements
+     */
+    public static Report measure(Move move, double temp, int stepsPerSample, int samples) {
+        Lattice lattice = new Lattice();
+        lattice.setMove(move);
+        lattice.setTemp(temp);
+        for (int i = 0; i < samples / 5 * stepsPerSample; i++)
+            lattice.step();
+        Observables observables = new Observables(1);
+        long start = System.nanoTime();
+        for (int sample = 0; sample < samples; sample++) {
+            for (int i = 0; i < stepsPerSample; i++)
+                lattice.step();
+            observables.add(lattice);
+        }
+        double nanosPerSample = (double) (System.nanoTime() - start) / samples;
+        return new Report(move.getClass().getSimpleName(), temp, stepsPerSample,
+                observables.energyAutocorrelationTime(), observables.magnetismAutocorrelationTime(), nanosPerSample);
+    }
+}
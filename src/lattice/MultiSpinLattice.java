@@ -0,0 +1,355 @@
+package lattice;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * {@link #REPLICAS} replicas of the lattice at the same temperature, stored by multi-spin coding: the spin of each
+ * particle in every replica is one bit of a single {@code long}, set for a spin of +1, so the whole ensemble takes one
+ * word per particle.
+ * <p>
+ * Each {@link #step()} attempts to flip one random particle in every replica at once, and both the field on the
+ * particle and the Metropolis decisions are evaluated for all the replicas together with bitwise arithmetic. The
+ * {@link Neighbourhood} couplings of the particle are grouped into shells of equal integer weight, the spins of each
+ * shell are counted for every replica by a bit-sliced counter, and the counts are multiplied by the weights of their
+ * shells into a bit-sliced sum of the +1 spins around the particle. A flip that changes the energy by {@code dE} is
+ * accepted with probability {@code exp(-dE / T)} exactly when {@code dE <= T E} for an exponentially distributed
+ * {@code E}, which for each spin is a bound on the sum. Each step draws {@link #GROUPS} values of {@code E}, turns each
+ * into a bound for either spin, and compares the bit-sliced sums of every replica against the bounds a plane at a time,
+ * which gives a word of the replicas that accept. The accepted flips are applied to the word of the particle with one
+ * exclusive or. Nothing is stored for each particle but its word, so no fields or energies are maintained between
+ * steps.
+ * <p>
+ * The energies and magnetism of the replicas are only calculated when they are recorded with
+ * {@link #record(Observables[], Binning)}, by summing the particles' own fields in the same way, which costs about as
+ * much as a sweep of steps.
+ * <p>
+ * The replicas start from independent random spins, drawn again by {@link #randomise()}, but they share the random
+ * numbers of each step, so they are not fully independent. The same particle is updated in every replica at once, which
+ * correlates when their fluctuations happen. The replicas are also split into {@link #GROUPS} groups at random on each
+ * step, with each group deciding by its own value of {@code E}, so any two replicas decide by the same value on a
+ * quarter of their steps: replicas with the same spins around the particle then make the same decision, which tends to
+ * hold replicas that have become alike together. Each replica on its own is still a Metropolis chain with a fresh
+ * random number for every decision, so once the replicas are warmed up their averages are unbiased, but they are not
+ * independent estimates. {@link Result} therefore estimates the errors by binning the average state of the replicas
+ * over the recorded sweeps, and gives no error where that has not levelled off.
+ */
+public class MultiSpinLattice {
+    public final static int REPLICAS = Long.SIZE;
+    /**
+     * The number of groups into which the replicas are split at random on each step by two random words, each group
+     * deciding its flips with its own random number.
+     */
+    public final static int GROUPS = 4;
+
+    private final int count = Position.count();
+    private final Neighbourhood neighbourhood = Neighbourhood.of(Lattice.INTERACTION_DISTANCE);
+    private final Shells couplings;
+    private final Shells within;
+    private final long[] spins = new long[count];
+    private final long[] sums = new long[REPLICAS];
+    private final long[] counter = new long[Integer.SIZE];
+    private RandomGenerator random = new SplittableRandom();
+    private double temp = 0;
+    private double gibbs = 0;
+    private long attempts = 0;
+    private long flips = 0;
+
+    public MultiSpinLattice() {
+        Neighbourhood.Table table = neighbourhood.couplings;
+        couplings = Shells.of(table, (site, n) -> neighbourhood.fieldWeights[n + table.shift(site)]);
+        within = Shells.of(neighbourhood.within, (site, n) -> units(site, n));
+        randomise();
+    }
+
+    /**
+     * Gets the weight of an entry of the particles within the distance of a particle in units of
+     * {@code 1 / fieldScale}, which is exact as the weights are multiples of it.
+     */
+    private long units(int site, int n) {
+        double weight = neighbourhood.within.weights()[n + neighbourhood.within.shift(site)] * neighbourhood.fieldScale;
+        long units = Math.round(weight);
+        if (Math.abs(weight - units) > 1e-6)
+            throw new IllegalStateException("Weight is not a multiple of the field scale");
+        return units;
+    }
+
+    /**
+     * Interactions of each particle grouped into shells of equal integer weight, in compressed sparse row form. The
+     * shells of particle {@code i} are {@code offsets[i]} (inclusive) to {@code offsets[i + 1]} (exclusive), and shell
+     * {@code g} has weight {@code weights[g]} and the particles at {@code starts[g]} to {@code starts[g + 1]} of the
+     * indices. The total of the weights of each particle is held so that a count of the +1 spins can be turned into a
+     * field, and {@code bits} is the number of bit planes needed to sum the weights of any particle.
+     */
+    private record Shells(int[] offsets, long[] weights, int[] starts, int[] indices, long[] totals, int bits) {
+        interface Weight {
+            long of(int site, int n);
+        }
+
+        static Shells of(Neighbourhood.Table table, Weight weight) {
+            int count = table.offsets().length - 1;
+            int[] offsets = new int[count + 1];
+            List<Long> weights = new ArrayList<>();
+            List<Integer> starts = new ArrayList<>();
+            int[] indices = new int[table.indices().length];
+            long[] totals = new long[count];
+            long max = 0;
+            for (int site = 0; site < count; site++) {
+                int from = table.offsets()[site];
+                int to = table.offsets()[site + 1];
+                long[][] entries = new long[to - from][];
+                for (int n = from; n < to; n++)
+                    entries[n - from] = new long[]{weight.of(site, n), table.indices()[n]};
+                Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+                offsets[site] = weights.size();
+                for (int e = 0; e < entries.length; e++) {
+                    if (e == 0 || entries[e][0] != entries[e - 1][0]) {
+                        weights.add(entries[e][0]);
+                        starts.add(from + e);
+                    }
+                    indices[from + e] = (int) entries[e][1];
+                    totals[site] += entries[e][0];
+                }
+                max = Math.max(max, totals[site]);
+            }
+            offsets[count] = weights.size();
+            starts.add(indices.length);
+            if (max >= 1L << (Long.SIZE - 2))
+                throw new IllegalStateException("Fields are too large to sum");
+            return new Shells(offsets, weights.stream().mapToLong(Long::longValue).toArray(),
+                    starts.stream().mapToInt(Integer::intValue).toArray(), indices, totals,
+                    Long.SIZE - Long.numberOfLeadingZeros(max));
+        }
+
+        /**
+         * Sums the weights of the +1 spins interacting with a particle in every replica.
+         *
+         * @param site the index of the particle
+         * @param spins the spins of each particle, one bit per replica
+         * @param sums receives the sum of each replica, indexed by replica
+         * @param counter working storage for the bit-sliced count of each shell
+         */
+        void sum(int site, long[] spins, long[] sums, long[] counter) {
+            Arrays.fill(sums, bits, sums.length, 0L);
+            slice(site, spins, sums, counter);
+            transpose(sums);
+        }
+
+        /**
+         * Sums the weights of the +1 spins interacting with a particle in every replica, leaving the sums bit-sliced:
+         * bit {@code j} of word {@code k} is bit {@code k} of the sum of replica {@code j}, and only the first
+         * {@code bits} words are written.
+         *
+         * @param site the index of the particle
+         * @param spins the spins of each particle, one bit per replica
+         * @param sums receives the bit planes of the sums
+         * @param counter working storage for the bit-sliced count of each shell
+         */
+        void slice(int site, long[] spins, long[] sums, long[] counter) {
+            Arrays.fill(sums, 0, bits, 0L);
+            for (int g = offsets[site]; g < offsets[site + 1]; g++) {
+                int planes = Integer.SIZE - Integer.numberOfLeadingZeros(starts[g + 1] - starts[g]);
+                Arrays.fill(counter, 0, planes, 0L);
+                for (int n = starts[g]; n < starts[g + 1]; n++) {
+                    long carry = spins[indices[n]];
+                    for (int k = 0; k < planes; k++) {
+                        long next = counter[k] & carry;
+                        counter[k] ^= carry;
+                        carry = next;
+                    }
+                }
+                for (long weight = weights[g]; weight != 0; weight &= weight - 1)
+                    add(sums, Long.numberOfTrailingZeros(weight), counter, planes);
+            }
+        }
+
+        /**
+         * Adds a bit-sliced number shifted left to a bit-sliced sum, stopping once the carry is clear.
+         */
+        private static void add(long[] sums, int shift, long[] number, int planes) {
+            long carry = 0;
+            for (int k = 0; k < planes || carry != 0; k++) {
+                long a = sums[shift + k];
+                long b = k < planes ? number[k] : 0;
+                long half = a ^ b;
+                sums[shift + k] = half ^ carry;
+                carry = (a & b) | (carry & half);
+            }
+        }
+    }
+
+    /**
+     * Transposes a 64 by 64 matrix of bits, so that bit {@code j} of word {@code i} becomes bit {@code i} of word
+     * {@code j}, by swapping blocks of half the size at each of six levels.
+     */
+    static void transpose(long[] words) {
+        long mask = 0x00000000FFFFFFFFL;
+        for (int j = Long.SIZE / 2; j != 0; j >>>= 1, mask ^= mask << j) {
+            for (int k = 0; k < Long.SIZE; k = ((k | j) + 1) & ~j) {
+                long swap = ((words[k] >>> j) ^ words[k | j]) & mask;
+                words[k] ^= swap << j;
+                words[k | j] ^= swap;
+            }
+        }
+    }
+
+    /**
+     * Sets the temperature of every replica.
+     *
+     * @param temp the new temperature
+     */
+    public void setTemp(double temp) {
+        this.temp = temp;
+        this.gibbs = Lattice.gibbs(temp);
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    /**
+     * Sets the random number generator used to choose particles, make the decisions of every replica and draw the
+     * spins set by {@link #randomise()}.
+     *
+     * @param random the generator
+     */
+    public void setRandom(RandomGenerator random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets every spin of every replica at random from the generator, so that the replicas start from independent
+     * states.
+     */
+    public void randomise() {
+        for (int site = 0; site < count; site++)
+            spins[site] = random.nextLong();
+    }
+
+    /**
+     * Attempts to flip one random particle in every replica.
+     */
+    public void step() {
+        int site = random.nextInt(count);
+        couplings.slice(site, spins, sums, counter);
+        long word = spins[site];
+        long total = couplings.totals[site];
+        long first = random.nextLong();
+        long second = random.nextLong();
+        long accepted = 0;
+        for (int group = 0; group < GROUPS; group++) {
+            long members = ((group & 1) != 0 ? first : ~first) & ((group & 2) != 0 ? second : ~second);
+            // a flip of spin s at field h is accepted when -2 s (gibbs + h / scale) <= T E, with h = 2 sum - total
+            double margin = temp * random.nextExponential() / 2;
+            double up = Math.ceil((total + neighbourhood.fieldScale * (-gibbs - margin)) / 2);
+            double down = Math.floor((total + neighbourhood.fieldScale * (-gibbs + margin)) / 2) + 1;
+            long decisions = (word & atLeast(up, total)) | (~word & ~atLeast(down, total));
+            accepted |= members & decisions;
+        }
+        spins[site] = word ^ accepted;
+        attempts += REPLICAS;
+        flips += Long.bitCount(accepted);
+    }
+
+    /**
+     * Compares the bit-sliced sums of every replica against a bound, from the most significant plane down.
+     *
+     * @param bound the bound, a whole number
+     * @param total the largest possible sum
+     * @return the replicas whose sum is at least the bound
+     */
+    private long atLeast(double bound, long total) {
+        if (bound <= 0)
+            return -1L;
+        if (bound > total)
+            return 0L;
+        long value = (long) bound;
+        long greater = 0;
+        long equal = -1L;
+        for (int k = couplings.bits - 1; k >= 0; k--) {
+            if ((value >>> k & 1L) != 0) {
+                equal &= sums[k];
+            } else {
+                greater |= equal & sums[k];
+                equal &= ~sums[k];
+            }
+        }
+        return greater | equal;
+    }
+
+    /**
+     * Attempts as many flips in every replica as there are particles.
+     */
+    public void sweep() {
+        for (int i = 0; i < count; i++)
+            step();
+    }
+
+    /**
+     * Adds the state of each replica to its own running totals, and the average state of the replicas to a binning
+     * analysis, so that a {@link Result} can average the replicas and estimate the errors of the average.
+     *
+     * @param observables the totals of each replica, indexed by replica
+     * @param ensemble the binning analysis of the energy, energy squared, magnetism and absolute magnetism averaged over
+     *                 the replicas, indexed as for {@link Observables#getBinning()}
+     */
+    public void record(Observables[] observables, Binning ensemble) {
+        if (observables.length != REPLICAS)
+            throw new IllegalArgumentException("Expected the totals of " + REPLICAS + " replicas");
+        double[] energy = new double[REPLICAS];
+        double[] energySquared = new double[REPLICAS];
+        int[] up = new int[REPLICAS];
+        double scale = neighbourhood.fieldScale;
+        for (int site = 0; site < count; site++) {
+            within.sum(site, spins, sums, counter);
+            long word = spins[site];
+            long total = within.totals[site];
+            for (int replica = 0; replica < REPLICAS; replica++) {
+                int bit = (int) (word >>> replica & 1L);
+                double particle = (bit * 2 - 1) * (gibbs + (2 * sums[replica] - total) / scale);
+                energy[replica] += particle;
+                energySquared[replica] += particle * particle;
+                up[replica] += bit;
+            }
+        }
+        double[] average = new double[4];
+        for (int replica = 0; replica < REPLICAS; replica++) {
+            int magnetism = 2 * up[replica] - count;
+            observables[replica].add(energy[replica], energySquared[replica], magnetism);
+            average[Observables.ENERGY] += energy[replica] / REPLICAS;
+            average[Observables.ENERGY_SQUARED] += energySquared[replica] / REPLICAS;
+            average[Observables.MAGNETISM] += (double) magnetism / REPLICAS;
+            average[Observables.ABSOLUTE_MAGNETISM] += (double) Math.abs(magnetism) / REPLICAS;
+        }
+        ensemble.add(average);
+    }
+
+    /**
+     * Copies one replica into a lattice at the same temperature.
+     *
+     * @param replica the index of the replica
+     * @return the lattice
+     */
+    public Lattice getReplica(int replica) {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        for (int site = 0; site < count; site++)
+            buffer.put(site, (byte) ((int) (spins[site] >>> replica & 1L) * 2 - 1));
+        Lattice lattice = new Lattice();
+        lattice.setTemp(temp);
+        lattice.loadSpins(buffer, 0);
+        return lattice;
+    }
+
+    /**
+     * Gets the number of flips attempted and accepted, totalled over the replicas.
+     *
+     * @return the counters, with no recalculations
+     */
+    public Lattice.Counters getCounters() {
+        return new Lattice.Counters(attempts, flips, 0, 0);
+    }
+}
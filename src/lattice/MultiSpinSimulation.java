@@ -0,0 +1,119 @@
+package lattice;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Controller for simulations of a {@link MultiSpinLattice}, with the same phases as a {@link Simulation}: an initial
+ * warm up, then for each temperature a shorter warm up followed by recorded steps. The states of each replica are
+ * recorded into its own {@link Observables}, and each {@link Result} averages over the replicas as well as over the
+ * steps.
+ * <p>
+ * The iterations are counted per replica, as they are for a single lattice, and run as whole sweeps of the ensemble,
+ * rounded up. The state of the ensemble is recorded once per sweep, as with {@link ParallelMetropolis}, since
+ * calculating the energies of the replicas costs about as much as a sweep. Each result therefore has
+ * {@link MultiSpinLattice#REPLICAS} samples for every sweep recorded. The errors are estimated by a binning analysis of
+ * the average state of the replicas after each sweep, since the replicas share random numbers.
+ * <p>
+ * A listener set with {@link #setPartialResults(Consumer)} receives the running result of each simulation while it is
+ * being recorded, as for a {@link Simulation}.
+ * <p>
+ * The warm ups and recorded sweeps are timed and their flips counted into the {@link SimulationMetrics}.
+ */
+public class MultiSpinSimulation {
+    private final MultiSpinLattice ensemble;
+    private Simulation.Iterations iterations = Simulation.Iterations.DEFAULT;
+    private Optional<PartialResults> partialResults = Optional.empty();
+
+    public MultiSpinSimulation() {
+        this(new MultiSpinLattice());
+    }
+
+    /**
+     * Constructs a simulation of an existing ensemble.
+     *
+     * @param ensemble the replicas to simulate
+     */
+    public MultiSpinSimulation(MultiSpinLattice ensemble) {
+        this.ensemble = ensemble;
+    }
+
+    public MultiSpinLattice getEnsemble() {
+        return ensemble;
+    }
+
+    public void setIterations(Simulation.Iterations iterations) {
+        this.iterations = iterations;
+    }
+
+    public Simulation.Iterations getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets a listener for the running results of each simulation, which is offered them after each recorded sweep.
+     *
+     * @param listener receives the result of the sweeps recorded so far
+     * @see Simulation#setPartialResults(Consumer)
+     */
+    public void setPartialResults(Consumer<Result> listener) {
+        this.partialResults = Optional.of(new PartialResults(listener));
+    }
+
+    /**
+     * Allows the replicas to reach an equilibrium state before starting the initial simulation. The replicas first
+     * draw new random spins, so that an ensemble given a seeded generator starts from reproducible independent states.
+     */
+    public void warmup(double temp) {
+        ensemble.randomise();
+        ensemble.setTemp(temp);
+        phase(SimulationMetrics.Phase.WARM_UP, temp, iterations.initialWarmUp(), null, null);
+    }
+
+    /**
+     * Runs a simulation of the replicas at a given temperature.
+     *
+     * @param temp the temperature to set the replicas to before running the simulation
+     * @return the results aggregated over all recorded sweeps of every replica
+     */
+    public Result simulate(double temp) {
+        long start = System.nanoTime();
+        ensemble.setTemp(temp);
+        phase(SimulationMetrics.Phase.WARM_UP, temp, iterations.followingWarmUp(), null, null);
+        Observables[] observables = new Observables[MultiSpinLattice.REPLICAS];
+        Arrays.setAll(observables, replica -> new Observables(1));
+        Binning binning = new Binning(4, 1);
+        phase(SimulationMetrics.Phase.SAMPLING, temp, iterations.simulation(), observables, binning);
+        SimulationMetrics.get().recordPoint(System.nanoTime() - start);
+        return Result.calculate(temp, observables, binning);
+    }
+
+    /**
+     * Runs the sweeps of a phase, recording the ensemble after each one if there are observables to record into.
+     */
+    private void phase(SimulationMetrics.Phase phase, double temp, int iterations, Observables[] observables,
+                       Binning binning) {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        Lattice.Counters before = ensemble.getCounters();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i += Position.count()) {
+            ensemble.sweep();
+            if (observables != null) {
+                ensemble.record(observables, binning);
+                if (partialResults.isPresent()) {
+                    partialResults.get().offer(
+                            listener -> listener.accept(Result.calculate(temp, observables, binning)));
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Lattice.Counters counters = ensemble.getCounters().minus(before);
+        SimulationMetrics.get().recordPhase(phase, temp, nanos, counters);
+        if (event.shouldCommit()) {
+            event.set(phase, temp, counters);
+            event.commit();
+        }
+    }
+}
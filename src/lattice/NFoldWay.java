@@ -0,0 +1,247 @@
+package lattice;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.random.RandomGenerator;
+
+/**
+ * Rejection-free n-fold way of Bortz, Kalos and Lebowitz for the single random flips of a lattice, which switches
+ * automatically between it and plain Metropolis steps by the acceptance ratio.
+ * <p>
+ * Where most single flips are rejected, a step spends almost all its time on attempts that leave the lattice unchanged.
+ * The n-fold way instead holds the probability of accepting a flip of each particle, and goes straight to the next
+ * accepted flip. With {@code N} particles and the probabilities summing to {@code R}, each attempted step accepts a
+ * flip with probability {@code R / N}, so the number of steps rejected before the next flip is drawn from a geometric
+ * distribution, and the particle that flips is chosen in proportion to its probability. The state of the lattice
+ * before the flip is recorded once, weighted by the number of steps it would have been recorded by Metropolis, so the
+ * recorded sequence of states has exactly the distribution that random single flips give it and the observables,
+ * errors and histograms are unchanged.
+ * <p>
+ * The probabilities are held in buckets of consecutive particles, about {@code sqrt(N)} to a bucket, with the sum of
+ * each bucket. A particle is chosen by scanning the sums of the buckets and then the particles of one bucket. Flipping
+ * a particle changes the probabilities of it and of every particle coupled to it, which is most of a small lattice, so
+ * after each flip the sum of every bucket holding one of them is recalculated from its particles in a single pass,
+ * rather than updating a tree a level at a time, and the sums never drift from rounding.
+ * <p>
+ * Updating the probabilities makes each accepted flip about three times as expensive as a Metropolis one, so the n-fold
+ * way only pays where the acceptance ratio is low. The iterations are run in segments of one sweep: a segment is run
+ * with the n-fold way if the acceptance ratio of the last segment was below the threshold, measured from the counters
+ * of the lattice for Metropolis steps and as {@code R / N} for the n-fold way, and with Metropolis steps otherwise. The
+ * n-fold way is only left once its acceptance ratio is a quarter above the threshold, so that noise in the measurement
+ * does not switch back and forth. The first segment of each run is chosen from {@code R / N}, so the choices depend
+ * only on the state of the lattice and its random number generator, and a sweep reseeded at each point is reproduced
+ * exactly.
+ * <p>
+ * The probabilities are all recalculated whenever the lattice has been changed by anything but the n-fold way, which is
+ * detected from its counters of flips and recalculations, so the lattice can still be stepped, have its temperature set
+ * or its spins loaded between runs. Each step counts as one attempt, and each flip as one accepted, in the counters of
+ * the lattice.
+ */
+public class NFoldWay {
+    public final static double DEFAULT_THRESHOLD = 0.04;
+
+    private final Lattice lattice;
+    private final Neighbourhood.Table couplings = Neighbourhood.of(Lattice.INTERACTION_DISTANCE).couplings;
+    private final int count;
+    private final int shift;
+    private final double[] probabilities;
+    private final double[] sums;
+    private final boolean[] changed;
+    private double total = 0;
+    private double threshold = DEFAULT_THRESHOLD;
+    private long flips = -1;
+    private long recalculations = -1;
+    private long rejectionFreeSteps = 0;
+
+    /**
+     * Constructs the n-fold way for a lattice. The probabilities are calculated when it is first run.
+     *
+     * @param lattice the lattice to update, whose move must be a {@link SingleFlip}
+     */
+    public NFoldWay(Lattice lattice) {
+        this.lattice = lattice;
+        this.count = lattice.size();
+        this.shift = Integer.SIZE - Integer.numberOfLeadingZeros((int) Math.sqrt(count));
+        this.probabilities = new double[count];
+        this.sums = new double[((count - 1) >>> shift) + 1];
+        this.changed = new boolean[sums.length];
+    }
+
+    /**
+     * Sets the acceptance ratio below which the n-fold way is used.
+     *
+     * @param threshold the acceptance ratio, which must be between 0 and 1; 0 always uses Metropolis steps
+     */
+    public void setThreshold(double threshold) {
+        if (!(threshold >= 0 && threshold <= 1))
+            throw new IllegalArgumentException("Threshold must be between 0 and 1");
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Gets the total number of steps run with the n-fold way rather than Metropolis steps.
+     *
+     * @return the number of steps
+     */
+    public long getRejectionFreeSteps() {
+        return rejectionFreeSteps;
+    }
+
+    /**
+     * Gets the probability that a Metropolis step in the current state of the lattice flips a particle, which is the
+     * mean of the probabilities of accepting a flip of each particle.
+     *
+     * @return the acceptance ratio
+     */
+    public double getAcceptance() {
+        synchronise();
+        return total / count;
+    }
+
+    /**
+     * Runs a number of steps of the lattice, switching between the n-fold way and Metropolis steps each sweep.
+     *
+     * @param iterations the number of steps
+     * @param recorder receives the lattice after each step, with the number of consecutive steps that leave it in the
+     *                 same state
+     * @throws IllegalStateException if the move of the lattice is not a {@link SingleFlip}
+     */
+    public void run(int iterations, ObjLongConsumer<Lattice> recorder) {
+        if (!(lattice.getMove() instanceof SingleFlip))
+            throw new IllegalStateException("The n-fold way can only replace single flips");
+        boolean rejectionFree = getAcceptance() < threshold;
+        for (int done = 0; done < iterations; ) {
+            int segment = Math.min(count, iterations - done);
+            if (rejectionFree) {
+                runRejectionFree(segment, recorder);
+                rejectionFree = total / count < 1.25 * threshold;
+            } else {
+                Lattice.Counters before = lattice.getCounters();
+                for (int i = 0; i < segment; i++) {
+                    lattice.step();
+                    recorder.accept(lattice, 1);
+                }
+                rejectionFree = lattice.getCounters().minus(before).acceptanceRatio() < threshold;
+            }
+            done += segment;
+        }
+    }
+
+    private void runRejectionFree(int steps, ObjLongConsumer<Lattice> recorder) {
+        synchronise();
+        RandomGenerator random = lattice.getRandom();
+        long remaining = steps;
+        while (remaining > 0) {
+            long rejected = Math.min(rejectedSteps(random), remaining);
+            if (rejected > 0) {
+                lattice.count(rejected, 0);
+                recorder.accept(lattice, rejected);
+                remaining -= rejected;
+            }
+            if (remaining > 0) {
+                flip(choose(random));
+                lattice.count(1, 0);
+                recorder.accept(lattice, 1);
+                remaining--;
+            }
+        }
+        rejectionFreeSteps += steps;
+    }
+
+    /**
+     * Draws the number of steps rejected before the next accepted flip, which is geometrically distributed with the
+     * acceptance ratio as the probability of success. The distribution is memoryless, so the steps left over at the
+     * end of a segment need not be carried into the next.
+     */
+    private long rejectedSteps(RandomGenerator random) {
+        double acceptance = total / count;
+        if (acceptance >= 1)
+            return 0;
+        if (acceptance <= 0)
+            return Long.MAX_VALUE;
+        // the conversion saturates for an acceptance so small that the wait exceeds the range of a long
+        return (long) Math.floor(Math.log(1.0 - random.nextDouble()) / Math.log1p(-acceptance));
+    }
+
+    /**
+     * Chooses a particle to flip in proportion to its probability of being accepted, by finding where a uniform
+     * fraction of the total falls in the buckets. A fraction that rounding carries past the last particle, or onto a
+     * particle that cannot flip, is drawn again.
+     */
+    private int choose(RandomGenerator random) {
+        while (true) {
+            double target = random.nextDouble() * total;
+            int bucket = 0;
+            while (bucket < sums.length - 1 && target >= sums[bucket])
+                target -= sums[bucket++];
+            int site = bucket << shift;
+            int end = Math.min(count, site + (1 << shift)) - 1;
+            while (site < end && target >= probabilities[site])
+                target -= probabilities[site++];
+            if (probabilities[site] > 0)
+                return site;
+        }
+    }
+
+    /**
+     * Flips a particle and updates the probabilities of it and of the particles coupled to it, then recalculates the
+     * sum of each bucket holding one of them.
+     */
+    private void flip(int site) {
+        lattice.acceptFlip(site);
+        probabilities[site] = lattice.flipProbability(site);
+        changed[site >>> shift] = true;
+        int[] indices = couplings.indices();
+        for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++) {
+            int neighbour = indices[n];
+            probabilities[neighbour] = lattice.flipProbability(neighbour);
+            changed[neighbour >>> shift] = true;
+        }
+        sum();
+        remember();
+    }
+
+    /**
+     * Recalculates the probabilities of every particle if the lattice has changed since the n-fold way last updated
+     * them.
+     */
+    private void synchronise() {
+        Lattice.Counters counters = lattice.getCounters();
+        if (counters.flips() == flips && counters.recalculations() == recalculations)
+            return;
+        for (int site = 0; site < count; site++)
+            probabilities[site] = lattice.flipProbability(site);
+        Arrays.fill(changed, true);
+        sum();
+        remember();
+    }
+
+    /**
+     * Recalculates the sums of the changed buckets from their particles, and the total from the sums.
+     */
+    private void sum() {
+        total = 0;
+        for (int bucket = 0; bucket < sums.length; bucket++) {
+            if (changed[bucket]) {
+                int from = bucket << shift;
+                int to = Math.min(count, from + (1 << shift));
+                double sum = 0;
+                for (int site = from; site < to; site++)
+                    sum += probabilities[site];
+                sums[bucket] = sum;
+                changed[bucket] = false;
+            }
+            total += sums[bucket];
+        }
+    }
+
+    private void remember() {
+        Lattice.Counters counters = lattice.getCounters();
+        flips = counters.flips();
+        recalculations = counters.recalculations();
+    }
+}
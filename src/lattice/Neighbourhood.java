@@ -0,0 +1,322 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index-based table of the interactions between particles in the lattice for a maximum number of connections. Particles
+ * are identified by their {@link Position#index()}. For each particle the table holds the particles within the distance
+ * of it and the particles that have it within the distance, each ordered by distance. It also holds the total coupling
+ * between each pair of interacting particles, which is the sum of the weights of the interaction in each direction. A
+ * particle is never included in its own entries.
+ * <p>
+ * Each of these is stored as a {@link Table} in compressed sparse row form so that the entries can be traversed without
+ * allocation or hashing. Neighbourhoods are immutable once constructed, so a single instance is shared by all lattices
+ * and threads.
+ * <p>
+ * When the lattice is periodic, every particle in a sublattice has the same surroundings, translated. The connections
+ * are then only searched from one {@link Position#representative()} of each sublattice, giving a template of the
+ * entries with their distances and weights, and the entries of every other particle are found by translating the
+ * template. Only the indices are held for each particle, so the memory used by the distances and weights does not grow
+ * with the size of the lattice. When the lattice is not periodic each particle is its own template.
+ * <p>
+ * Every weight is an integer multiple of {@code 1 / fieldScale}, where {@link #fieldScale} is the least common multiple
+ * of the squares of the distances, so the couplings are also held exactly as integer {@link #fieldWeights}, by template
+ * entry. The local field on a particle can then be summed without rounding and takes one of a finite set of values.
+ */
+public class Neighbourhood {
+    private static final Map<Integer, Neighbourhood> cache = new ConcurrentHashMap<>();
+    private final int distance;
+    final Table within;
+    final Table reaching;
+    final Table couplings;
+    final long fieldScale;
+    final long[] fieldWeights;
+    final long maxField;
+
+    /**
+     * Interactions in compressed sparse row form. The entries for particle {@code i} are at positions
+     * {@code offsets[i]} (inclusive) to {@code offsets[i + 1]} (exclusive) of the indices. The distances and weights
+     * are held once for each template, in the same form with {@code templateOffsets}, and entry {@code n} of particle
+     * {@code i} has its distance and weight at {@code n + shifts[i]}, the difference between the position of the
+     * particle's entries and the position of its template's entries. Each weight is the inverse square of the entry's
+     * distance.
+     */
+    record Table(int[] offsets, int[] indices, int[] shifts, int[] templateOffsets, int[] distances,
+                 double[] weights) {
+        /**
+         * Gets the amount to add to the position of one of a particle's entries to find its distance and weight.
+         *
+         * @param index the index of the particle
+         * @return the shift of the particle's entries
+         */
+        int shift(int index) {
+            return shifts[index];
+        }
+
+        private Map<Position, Integer> view(int index) {
+            Map<Position, Integer> positions = new HashMap<>();
+            positions.put(Position.at(index), 0);
+            int shift = shift(index);
+            for (int n = offsets[index]; n < offsets[index + 1]; n++)
+                positions.put(Position.at(indices[n]), distances[n + shift]);
+            return Collections.unmodifiableMap(positions);
+        }
+    }
+
+    /**
+     * The entries of a template, as the indices of the particles seen from the representative of the template.
+     */
+    private record Row(int[] indices, int[] distances, double[] weights) {
+    }
+
+    private Neighbourhood(int distance) {
+        this.distance = distance;
+        int count = Position.count();
+        int[][] links = new int[count][];
+        for (int i = 0; i < count; i++)
+            links[i] = Position.at(i).neighbours().mapToInt(Position::index).toArray();
+        int[][] reverseLinks = reverse(links);
+        int[] templates = new int[count];
+        List<Integer> representatives = new ArrayList<>();
+        Map<Integer, Integer> templateIds = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            templates[i] = templateIds.computeIfAbsent(Position.at(i).representative().index(), representative -> {
+                representatives.add(representative);
+                return representatives.size() - 1;
+            });
+        }
+        fieldScale = fieldScale(distance);
+        Row[] withinRows = new Row[representatives.size()];
+        Row[] reachingRows = new Row[withinRows.length];
+        Row[] couplingRows = new Row[withinRows.length];
+        long[][] fieldRows = new long[withinRows.length][];
+        Search search = new Search(count);
+        for (int t = 0; t < withinRows.length; t++) {
+            withinRows[t] = search.row(links, representatives.get(t), distance, false);
+            reachingRows[t] = search.row(reverseLinks, representatives.get(t), distance, true);
+            couplingRows[t] = search.combine(withinRows[t], reachingRows[t]);
+            fieldRows[t] = search.fieldWeights(withinRows[t], reachingRows[t], couplingRows[t], fieldScale);
+        }
+        within = translate(templates, representatives, withinRows);
+        reaching = translate(templates, representatives, reachingRows);
+        couplings = translate(templates, representatives, couplingRows);
+        fieldWeights = Arrays.stream(fieldRows).flatMapToLong(Arrays::stream).toArray();
+        maxField = Arrays.stream(fieldRows).mapToLong(row -> Arrays.stream(row).sum()).max().orElse(0);
+    }
+
+    /**
+     * Gets the neighbourhood for a given maximum number of connections. Neighbourhoods are cached for subsequent calls.
+     *
+     * @param distance the maximum number of connections between interacting particles
+     * @return the neighbourhood for the distance
+     */
+    public static Neighbourhood of(int distance) {
+        return cache.computeIfAbsent(distance, Neighbourhood::new);
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Gets the number of templates from which the entries of the particles are translated.
+     *
+     * @return the number of templates
+     */
+    public int getTemplateCount() {
+        return within.templateOffsets().length - 1;
+    }
+
+    /**
+     * Gets all positions within the distance of a particle, including the particle itself at distance 0.
+     *
+     * @param index the index of the particle
+     * @return a map from positions to their distance from the particle
+     */
+    public Map<Position, Integer> within(int index) {
+        return within.view(index);
+    }
+
+    /**
+     * Gets all positions that have a particle within the distance of them, including the particle itself at distance 0.
+     *
+     * @param index the index of the particle
+     * @return a map from positions to their distance to the particle
+     */
+    public Map<Position, Integer> reaching(int index) {
+        return reaching.view(index);
+    }
+
+    private static int[][] reverse(int[][] links) {
+        int[] sizes = new int[links.length];
+        for (int[] targets : links) {
+            for (int to : targets)
+                sizes[to]++;
+        }
+        int[][] reverse = new int[links.length][];
+        for (int i = 0; i < links.length; i++)
+            reverse[i] = new int[sizes[i]];
+        Arrays.fill(sizes, 0);
+        for (int from = 0; from < links.length; from++) {
+            for (int to : links[from])
+                reverse[to][sizes[to]++] = from;
+        }
+        return reverse;
+    }
+
+    /**
+     * Builds a table by translating the row of each particle's template from the template's representative to the
+     * particle.
+     */
+    private static Table translate(int[] templates, List<Integer> representatives, Row[] rows) {
+        int count = templates.length;
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++)
+            offsets[i + 1] = offsets[i] + rows[templates[i]].indices().length;
+        int[] templateOffsets = new int[rows.length + 1];
+        for (int t = 0; t < rows.length; t++)
+            templateOffsets[t + 1] = templateOffsets[t] + rows[t].indices().length;
+        int[] shifts = new int[count];
+        int[] indices = new int[offsets[count]];
+        for (int i = 0; i < count; i++) {
+            shifts[i] = templateOffsets[templates[i]] - offsets[i];
+            Position site = Position.at(i);
+            Position representative = Position.at(representatives.get(templates[i]));
+            int[] row = rows[templates[i]].indices();
+            for (int k = 0; k < row.length; k++) {
+                Position entry = Position.at(row[k]);
+                indices[offsets[i] + k] = Position.indexAt(site.x() + entry.x() - representative.x(),
+                        site.y() + entry.y() - representative.y(), site.z() + entry.z() - representative.z());
+            }
+        }
+        int[] distances = Arrays.stream(rows).flatMapToInt(row -> Arrays.stream(row.distances())).toArray();
+        double[] weights = Arrays.stream(rows).flatMapToDouble(row -> Arrays.stream(row.weights())).toArray();
+        return new Table(offsets, indices, shifts, templateOffsets, distances, weights);
+    }
+
+    /**
+     * Working storage for finding the rows of the templates, indexed by particle.
+     */
+    private static class Search {
+        private final int[] distances;
+        private final int[] queue;
+        private final double[] coupling;
+        private final int[] shortest;
+        private final long[] units;
+
+        private Search(int count) {
+            distances = new int[count];
+            queue = new int[count];
+            coupling = new double[count];
+            shortest = new int[count];
+            units = new long[count];
+            Arrays.fill(distances, -1);
+        }
+
+        /**
+         * Finds the particles within the distance of a particle by a breadth first search over the links, in the order
+         * they are found or, if sorted, by distance and then index.
+         */
+        private Row row(int[][] links, int start, int distance, boolean sorted) {
+            distances[start] = 0;
+            queue[0] = start;
+            int head = 0;
+            int tail = 1;
+            while (head < tail && distances[queue[head]] < distance) {
+                int from = queue[head++];
+                for (int to : links[from]) {
+                    if (distances[to] < 0) {
+                        distances[to] = distances[from] + 1;
+                        queue[tail++] = to;
+                    }
+                }
+            }
+            int[] indices = Arrays.copyOfRange(queue, 1, tail);
+            if (sorted) {
+                indices = Arrays.stream(indices).boxed()
+                        .sorted(Comparator.comparingInt((Integer n) -> distances[n]).thenComparing(n -> n))
+                        .mapToInt(Integer::intValue).toArray();
+            }
+            int[] rowDistances = Arrays.stream(indices).map(n -> distances[n]).toArray();
+            for (int i = 0; i < tail; i++)
+                distances[queue[i]] = -1;
+            return new Row(indices, rowDistances, weights(rowDistances));
+        }
+
+        /**
+         * Combines the interactions in each direction into a symmetric row of couplings. The entries are ordered by
+         * decreasing coupling and the distance of each is the shorter of the two directions.
+         */
+        private Row combine(Row within, Row reaching) {
+            List<Integer> neighbours = new ArrayList<>();
+            for (Row row : List.of(within, reaching)) {
+                for (int n = 0; n < row.indices().length; n++) {
+                    int neighbour = row.indices()[n];
+                    if (coupling[neighbour] == 0) {
+                        neighbours.add(neighbour);
+                        shortest[neighbour] = row.distances()[n];
+                    }
+                    coupling[neighbour] += row.weights()[n];
+                    shortest[neighbour] = Math.min(shortest[neighbour], row.distances()[n]);
+                }
+            }
+            neighbours.sort(Comparator.comparingDouble((Integer n) -> -coupling[n]).thenComparing(n -> n));
+            Row row = new Row(neighbours.stream().mapToInt(Integer::intValue).toArray(),
+                    neighbours.stream().mapToInt(n -> shortest[n]).toArray(),
+                    neighbours.stream().mapToDouble(n -> coupling[n]).toArray());
+            neighbours.forEach(n -> coupling[n] = 0);
+            return row;
+        }
+
+        /**
+         * Calculates each coupling as an exact multiple of {@code 1 / scale} by summing the interactions in each
+         * direction.
+         */
+        private long[] fieldWeights(Row within, Row reaching, Row couplings, long scale) {
+            for (Row row : List.of(within, reaching)) {
+                for (int n = 0; n < row.indices().length; n++) {
+                    long d = row.distances()[n];
+                    units[row.indices()[n]] += scale / (d * d);
+                }
+            }
+            long[] weights = new long[couplings.indices().length];
+            for (int n = 0; n < weights.length; n++) {
+                weights[n] = units[couplings.indices()[n]];
+                units[couplings.indices()[n]] = 0;
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Gets the least common multiple of the squares of the distances up to the maximum.
+     *
+     * @throws ArithmeticException if the multiple does not fit in a long
+     */
+    private static long fieldScale(int distance) {
+        long scale = 1;
+        for (long d = 1; d <= distance; d++) {
+            long square = d * d;
+            long a = scale;
+            long b = square;
+            while (b != 0) {
+                long r = a % b;
+                a = b;
+                b = r;
+            }
+            scale = Math.multiplyExact(scale / a, square);
+        }
+        return scale;
+    }
+
+    private static double[] weights(int[] distances) {
+        return Arrays.stream(distances).mapToDouble(d -> 1.0 / Math.pow(d, 2.0)).toArray();
+    }
+}
@@ -0,0 +1,162 @@
+package lattice;
+
+/**
+ * Running totals of the state of the lattice across the steps of a simulation. Each step is folded into the totals as
+ * it is added, so the memory used does not depend on the number of steps. As well as the values recorded in a {@link
+ * State}, the totals include the absolute value and the second and fourth powers of the magnetism, from which the
+ * susceptibility and Binder cumulant are derived.
+ * <p>
+ * The energy, energy squared, magnetism and absolute magnetism of each step are also fed into a {@link Binning}
+ * analysis, from which the statistical errors of the averages are estimated, along with the autocorrelation times
+ * that show how many steps each independent sample costs.
+ */
+public class Observables {
+    static final int ENERGY = 0;
+    static final int ENERGY_SQUARED = 1;
+    static final int MAGNETISM = 2;
+    static final int ABSOLUTE_MAGNETISM = 3;
+    static final int BINNING_BASE_SIZE = 16;
+
+    private long count = 0;
+    private double energy = 0;
+    private double energySquared = 0;
+    private double magnetism = 0;
+    private double absoluteMagnetism = 0;
+    private double magnetismSquared = 0;
+    private double magnetismFourth = 0;
+    private final Binning binning;
+    private final double[] measurement = new double[4];
+
+    public Observables() {
+        this(BINNING_BASE_SIZE);
+    }
+
+    /**
+     * Constructs totals whose binning analysis starts from blocks of a given number of records. Records taken once per
+     * sweep, rather than once per step, are far less correlated, and start from single records so that a run of a few
+     * thousand sweeps still gives enough blocks for an error.
+     *
+     * @param baseSize the number of records in each block of the first binning level
+     */
+    Observables(int baseSize) {
+        this.binning = new Binning(4, baseSize);
+    }
+
+    /**
+     * Adds the current state of a lattice to the totals.
+     *
+     * @param lattice the lattice to record
+     */
+    public void add(Lattice lattice) {
+        add(lattice, 1);
+    }
+
+    /**
+     * Adds the current state of a lattice to the totals as many times as consecutive steps left it in that state, as
+     * recorded by the {@link NFoldWay}.
+     *
+     * @param lattice the lattice to record
+     * @param times the number of steps, which must be positive
+     */
+    public void add(Lattice lattice, long times) {
+        add(lattice.getEnergy(), lattice.getEnergySquared(), lattice.getMagnetism(), times);
+    }
+
+    /**
+     * Adds a state of the lattice to the totals.
+     *
+     * @param state the state to record
+     */
+    public void add(State state) {
+        add(state.energy(), state.energySquared(), state.magnetism(), 1);
+    }
+
+    /**
+     * Adds a state of the lattice given by its values, as calculated by a {@link MultiSpinLattice} for each replica.
+     *
+     * @param energy the energy of the lattice
+     * @param energySquared the sum of the squared energies of the particles
+     * @param magnetism the magnetism of the lattice
+     */
+    void add(double energy, double energySquared, int magnetism) {
+        add(energy, energySquared, magnetism, 1);
+    }
+
+    private void add(double energy, double energySquared, int magnetism, long times) {
+        double square = (double) magnetism * magnetism;
+        measurement[ENERGY] = energy;
+        measurement[ENERGY_SQUARED] = energySquared;
+        measurement[MAGNETISM] = magnetism;
+        measurement[ABSOLUTE_MAGNETISM] = Math.abs(magnetism);
+        binning.add(measurement, times);
+        this.count += times;
+        this.energy += energy * times;
+        this.energySquared += energySquared * times;
+        this.magnetism += (double) magnetism * times;
+        this.absoluteMagnetism += (double) Math.abs(magnetism) * times;
+        this.magnetismSquared += square * times;
+        this.magnetismFourth += square * square * times;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the binning analysis of the energy, energy squared, magnetism and absolute magnetism, indexed by
+     * {@link #ENERGY}, {@link #ENERGY_SQUARED}, {@link #MAGNETISM} and {@link #ABSOLUTE_MAGNETISM}.
+     *
+     * @return the binning analysis
+     */
+    Binning getBinning() {
+        return binning;
+    }
+
+    /**
+     * Estimates the integrated autocorrelation time of the energy, in steps, from the binning analysis.
+     *
+     * @return the autocorrelation time, or NaN if too few steps have been recorded for a binning error
+     */
+    public double energyAutocorrelationTime() {
+        return binning.autocorrelationTime(ENERGY);
+    }
+
+    /**
+     * Estimates the integrated autocorrelation time of the magnetism, in steps, from the binning analysis.
+     *
+     * @return the autocorrelation time, or NaN if too few steps have been recorded for a binning error
+     */
+    public double magnetismAutocorrelationTime() {
+        return binning.autocorrelationTime(MAGNETISM);
+    }
+
+    public double averageEnergy() {
+        return average(energy);
+    }
+
+    public double averageEnergySquared() {
+        return average(energySquared);
+    }
+
+    public double averageMagnetism() {
+        return average(magnetism);
+    }
+
+    public double averageAbsoluteMagnetism() {
+        return average(absoluteMagnetism);
+    }
+
+    public double averageMagnetismSquared() {
+        return average(magnetismSquared);
+    }
+
+    public double averageMagnetismFourth() {
+        return average(magnetismFourth);
+    }
+
+    private double average(double total) {
+        if (count == 0)
+            throw new IllegalStateException("No states recorded");
+        return total / count;
+    }
+}
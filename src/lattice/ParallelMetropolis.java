@@ -0,0 +1,150 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntUnaryOperator;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Metropolis sweeps of a single lattice, with the particles updated concurrently across a number of threads.
+ * <p>
+ * The particles are coloured so that no two particles of the same colour are coupled, which is that neither is within
+ * the {@link Lattice#INTERACTION_DISTANCE} of the other. The colouring is taken from the same {@link Neighbourhood}
+ * coupling table that the change in energy of a flip is summed over. Each sweep visits the colours in turn. The
+ * particles of a colour are split into a fixed set of blocks, one per thread, and the blocks are updated concurrently
+ * since none of their particles can affect the change in energy of another. Each block has its own random number
+ * stream split from a single seed, so a sweep gives the same result however the blocks are scheduled. The energy of
+ * the lattice is recalculated at the end of each sweep.
+ * <p>
+ * The blocks run on a pool of their own with one worker per thread, rather than the common pool, so the number of
+ * threads is the number actually used and other parallel work does not compete with the sweep. The pool should be
+ * closed once the sweeps are finished, although its idle workers also end by themselves.
+ * <p>
+ * The number of colours approaches the number of particles when the interaction distance is large compared to the
+ * lattice, in which case there is little to gain from running in parallel.
+ */
+public class ParallelMetropolis implements AutoCloseable {
+    private final Lattice lattice;
+    private final int[][] colours;
+    private final RandomGenerator[] streams;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a parallel sweep of a lattice.
+     *
+     * @param lattice the lattice to update
+     * @param threads the number of blocks each colour is split into, and of workers to update them
+     * @param seed the seed from which the random number stream of each block is split
+     */
+    public ParallelMetropolis(Lattice lattice, int threads, long seed) {
+        this(lattice, threads, new SplittableRandom(seed));
+    }
+
+    /**
+     * Constructs a parallel sweep of a lattice with the random number streams split from a generator, so any
+     * splittable algorithm can be used.
+     *
+     * @param lattice the lattice to update
+     * @param threads the number of blocks each colour is split into, and of workers to update them
+     * @param source the generator from which the random number stream of each block is split
+     */
+    public ParallelMetropolis(Lattice lattice, int threads, RandomGenerator.SplittableGenerator source) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Threads must be positive");
+        this.lattice = lattice;
+        this.colours = colour(Neighbourhood.of(Lattice.INTERACTION_DISTANCE));
+        this.streams = source.splits(threads).toArray(RandomGenerator[]::new);
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public int getColourCount() {
+        return colours.length;
+    }
+
+    /**
+     * Attempts to flip the spin of every particle in the lattice once.
+     */
+    public void sweep() {
+        int blocks = streams.length;
+        for (int[] colour : colours) {
+            int flips = inBlocks(block -> lattice.updateSpins(colour,
+                    block * colour.length / blocks, (block + 1) * colour.length / blocks, streams[block]));
+            lattice.count(colour.length, flips);
+        }
+        lattice.unpackSpins();
+        int count = Position.count();
+        inBlocks(block -> {
+            lattice.calculateEnergies(block * count / blocks, (block + 1) * count / blocks);
+            return 0;
+        });
+        lattice.calculateTotals();
+    }
+
+    /**
+     * Shuts down the pool of workers. The sweep cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs an update of each block as a task of the pool, and waits for them all to complete.
+     *
+     * @return the sum of the results of the updates
+     */
+    private int inBlocks(IntUnaryOperator update) {
+        return pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(IntStream.range(0, streams.length)
+                .mapToObj(block -> ForkJoinTask.adapt(() -> update.applyAsInt(block))).toList())
+                .stream().mapToInt(ForkJoinTask::join).sum()));
+    }
+
+    /**
+     * Gets the indices of the particles of each colour.
+     *
+     * @return the colours, which must not be modified
+     */
+    int[][] getColours() {
+        return colours;
+    }
+
+    /**
+     * Greedily colours the particles so that no particle has the same colour as a particle coupled to it. The coupling
+     * table holds both the particles within the distance of a particle and those it is within the distance of.
+     *
+     * @return the indices of the particles of each colour
+     */
+    private static int[][] colour(Neighbourhood neighbourhood) {
+        int count = Position.count();
+        int[] colourOf = new int[count];
+        List<List<Integer>> colours = new ArrayList<>();
+        boolean[] used = new boolean[count];
+        for (int site = 0; site < count; site++) {
+            Arrays.fill(used, false);
+            markColours(neighbourhood.couplings, site, colourOf, used);
+            int colour = 0;
+            while (used[colour])
+                colour++;
+            if (colour == colours.size())
+                colours.add(new ArrayList<>());
+            colours.get(colour).add(site);
+            colourOf[site] = colour;
+        }
+        return colours.stream()
+                .map(sites -> sites.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+    }
+
+    private static void markColours(Neighbourhood.Table table, int site, int[] colourOf, boolean[] used) {
+        for (int n = table.offsets()[site]; n < table.offsets()[site + 1]; n++) {
+            int neighbour = table.indices()[n];
+            if (neighbour < site)
+                used[colourOf[neighbour]] = true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package lattice;
+
+import java.util.function.Consumer;
+
+/**
+ * A listener for the running results of a simulation, called at most once per
+ * {@link Simulation#PARTIAL_INTERVAL_NANOS}, so that long simulations can be followed live. The results are only
+ * calculated when they are due, so a simulation may offer them as often as it can afford to read the clock.
+ */
+final class PartialResults {
+    private final Consumer<Result> listener;
+    private long last = 0;
+
+    PartialResults(Consumer<Result> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Publishes running results if the interval has passed since they were last published.
+     *
+     * @param results calculates the results and passes each of them to the listener it is given
+     */
+    void offer(Consumer<Consumer<Result>> results) {
+        long now = System.nanoTime();
+        if (now - last >= Simulation.PARTIAL_INTERVAL_NANOS) {
+            last = now;
+            results.accept(listener);
+        }
+    }
+}
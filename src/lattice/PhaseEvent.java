@@ -0,0 +1,52 @@
+package lattice;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for one phase of a simulation at a temperature: either a warm up or the recorded steps.
+ */
+@Name("lattice.Phase")
+@Label("Simulation Phase")
+@Category({"Pyrochlore", "Simulation"})
+@Description("Warm up or sampling phase of a simulation at one temperature")
+@StackTrace(false)
+final class PhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Temperature")
+    double temperature;
+
+    @Label("Attempted Flips")
+    long attempts;
+
+    @Label("Accepted Flips")
+    long flips;
+
+    @Label("Acceptance Ratio")
+    @Percentage
+    double acceptanceRatio;
+
+    @Label("Recalculations")
+    long recalculations;
+
+    @Label("Recalculation Time")
+    @Timespan
+    long recalculationTime;
+
+    void set(SimulationMetrics.Phase phase, double temperature, Lattice.Counters counters) {
+        this.phase = phase.getLabel();
+        this.temperature = temperature;
+        this.attempts = counters.attempts();
+        this.flips = counters.flips();
+        this.acceptanceRatio = counters.acceptanceRatio();
+        this.recalculations = counters.recalculations();
+        this.recalculationTime = counters.recalculationNanos();
+    }
+}
@@ -0,0 +1,69 @@
+package lattice;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for the simulation of a lattice at one temperature, from setting the temperature to
+ * calculating the result.
+ */
+@Name("lattice.Point")
+@Label("Temperature Point")
+@Category({"Pyrochlore", "Simulation"})
+@Description("Simulation of the lattice at one temperature, including its warm up")
+@StackTrace(false)
+final class PointEvent extends jdk.jfr.Event {
+    @Label("Temperature")
+    double temperature;
+
+    @Label("Attempted Flips")
+    long attempts;
+
+    @Label("Accepted Flips")
+    long flips;
+
+    @Label("Acceptance Ratio")
+    @Percentage
+    double acceptanceRatio;
+
+    @Label("Warm Up Time")
+    @Timespan
+    long warmUpTime;
+
+    @Label("Sampling Time")
+    @Timespan
+    long samplingTime;
+
+    @Label("Recalculations")
+    long recalculations;
+
+    @Label("Recalculation Time")
+    @Timespan
+    long recalculationTime;
+
+    @Label("Samples")
+    long samples;
+
+    @Label("States Kept")
+    @Description("States allocated for the history of the simulation, if it is kept")
+    long keptStates;
+
+    @Label("Average Energy")
+    double energy;
+
+    @Label("Energy Error")
+    double energyError;
+
+    @Label("Energy Autocorrelation Time")
+    @Description("Integrated autocorrelation time of the energy in steps, from the binning analysis")
+    double energyAutocorrelationTime;
+
+    @Label("Magnetism Autocorrelation Time")
+    @Description("Integrated autocorrelation time of the magnetism in steps, from the binning analysis")
+    double magnetismAutocorrelationTime;
+}
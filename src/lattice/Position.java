@@ -1,38 +1,44 @@
 package lattice;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.OptionalInt;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.random.RandomGenerator;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
  * Position of a particle in a 3D Pyrochlore lattice. The lattice is a cube with size defined by {@link #THICKNESS}. To
  * allow for offsets in positioning, x and y directions have half the scale of the z direction.
+ * <p>
+ * The thickness is read from the {@value #THICKNESS_PROPERTY} system property when the class is initialised, so it can
+ * be chosen when the JVM is started but is fixed from then on.
  */
 public record Position(int x, int y, int z) {
+    public static final String THICKNESS_PROPERTY = "lattice.thickness";
+    public static final int DEFAULT_THICKNESS = 6;
     /**
-     * The thickness of the lattice in all dimensions. This constant should be a multiple of 6 due to the repeating
-     * pattern of the lattice.
+     * The thickness of the lattice in all dimensions. The pattern of the lattice repeats every 4 layers in z and every
+     * 4 and 8 positions in x and y, so the lattice is only periodic, with every particle in a sublattice having the
+     * same surroundings, when the thickness is a multiple of 4. Other thicknesses leave seams where the pattern is cut.
      */
-    public static final int THICKNESS = 6;
+    public static final int THICKNESS = property(THICKNESS_PROPERTY, DEFAULT_THICKNESS);
     public static final int SIZE = THICKNESS * 2;
-    private static final Map<Position, Map<Position, Integer>> cache = new HashMap<>();
-    private static OptionalInt count = OptionalInt.empty();
+    private static final int X_PERIOD = 4;
+    private static final int Y_PERIOD = 8;
+    private static final int Z_PERIOD = 4;
+    private static final boolean PERIODIC = SIZE % X_PERIOD == 0 && SIZE % Y_PERIOD == 0 && THICKNESS % Z_PERIOD == 0;
+    private static final Position[] sites = getAll().toArray(Position[]::new);
+    private static final int[] grid = grid();
 
     /**
-     * Gets a random legal position of a particle in the lattice
+     * Gets a random legal position of a particle in the lattice. The position is chosen uniformly by index from the
+     * legal positions, so no positions are created or rejected.
      *
      * @param random generator
      * @return random legal position
      */
-    public static Position random(Random random) {
-        return Stream.generate(() -> new Position(random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(THICKNESS)))
-                .dropWhile(pos -> !pos.isAllowed())
-                .findAny()
-                .orElseThrow();
+    public static Position random(RandomGenerator random) {
+        return sites[random.nextInt(sites.length)];
     }
 
     /**
@@ -53,9 +59,53 @@ public record Position(int x, int y, int z) {
      * @return count of legal positions
      */
     public static int count() {
-        if (count.isEmpty())
-            count = OptionalInt.of((int) getAll().count());
-        return count.orElseThrow();
+        return sites.length;
+    }
+
+    /**
+     * Gets the legal position with a given index. Positions are indexed from 0 in the order returned by
+     * {@link #getAll()}.
+     *
+     * @param index the index of the position, from 0 to {@link #count()} - 1
+     * @return the position with that index
+     */
+    public static Position at(int index) {
+        return sites[index];
+    }
+
+    /**
+     * Gets the index of this position in the lattice.
+     *
+     * @return the index of this position
+     * @throws IllegalStateException if this is not a legal position
+     */
+    public int index() {
+        int index = x < 0 || x >= SIZE || y < 0 || y >= SIZE || z < 0 || z >= THICKNESS ? -1 : indexAt(x, y, z);
+        if (index < 0)
+            throw new IllegalStateException("No particle at " + this);
+        return index;
+    }
+
+    /**
+     * Gets the index of the particle at a position, wrapping coordinates outside the lattice around its edges.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return the index of the particle, or -1 if there is no particle at the position
+     */
+    static int indexAt(int x, int y, int z) {
+        return grid[(Math.floorMod(x, SIZE) * SIZE + Math.floorMod(y, SIZE)) * THICKNESS + Math.floorMod(z, THICKNESS)];
+    }
+
+    /**
+     * Gets the position in the first repeat of the pattern of the lattice from which this position's surroundings can
+     * be found by translation. When the lattice is not periodic every position is its own representative.
+     *
+     * @return the representative position of this position's sublattice
+     */
+    Position representative() {
+        return PERIODIC ? new Position(x % X_PERIOD, y % Y_PERIOD, z % Z_PERIOD) : this;
     }
 
     /**
@@ -83,32 +133,57 @@ public record Position(int x, int y, int z) {
     }
 
     /**
-     * Gets all positions within a given number of connections from this one. The result is cached for subsequent calls
-     * to improve performance.
+     * Gets all positions within a given number of connections from this one. The result is a view of the
+     * {@link Neighbourhood} for the distance.
      *
      * @param distance the maximum number of connections to traverse.
      * @return a map from connected positions to their distance from this position
      */
     public Map<Position, Integer> positionsWithin(int distance) {
-        if (!cache.containsKey(this)) {
-            Map<Position, Integer> positions = new HashMap<>();
-            positions.put(this, 0);
-            for (int d = 0; d < distance; d++)
-                expand(positions, d);
-            cache.put(this, positions);
+        return Neighbourhood.of(distance).within(index());
+    }
+
+    /**
+     * Gets all positions that have this position within a given number of connections from them. Connections are
+     * directed, so this is not the same set as {@link #positionsWithin(int)}. The result is a view of the
+     * {@link Neighbourhood} for the distance.
+     *
+     * @param distance the maximum number of connections to traverse.
+     * @return a map from positions connected to this position to their distance to this position
+     */
+    public Map<Position, Integer> positionsReaching(int distance) {
+        return Neighbourhood.of(distance).reaching(index());
+    }
+
+    /**
+     * Reads a positive integer system property.
+     *
+     * @param name the name of the property
+     * @param defaultValue the value if the property is not set
+     * @return the value of the property
+     * @throws IllegalArgumentException if the property is not a positive integer
+     */
+    static int property(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null)
+            return defaultValue;
+        int number;
+        try {
+            number = Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            number = 0;
         }
-        return cache.get(this);
+        if (number <= 0)
+            throw new IllegalArgumentException("Property " + name + " must be a positive integer: " + value);
+        return number;
     }
 
-    private void expand(Map<Position, Integer> positions, int distance) {
-        positions.entrySet().stream()
-                .filter(e -> e.getValue() == distance)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet())
-                .stream()
-                .flatMap(Position::neighbours)
-                .filter(n -> !positions.containsKey(n))
-                .forEach(n -> positions.put(n, distance + 1));
+    private static int[] grid() {
+        int[] grid = new int[SIZE * SIZE * THICKNESS];
+        Arrays.fill(grid, -1);
+        for (int i = 0; i < sites.length; i++)
+            grid[(sites[i].x * SIZE + sites[i].y) * THICKNESS + sites[i].z] = i;
+        return grid;
     }
 
     /**
@@ -0,0 +1,24 @@
+package lattice;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a full recalculation of the state of a lattice, whose duration is the cost of the
+ * recalculation.
+ */
+@Name("lattice.Recalculation")
+@Label("Lattice Recalculation")
+@Category({"Pyrochlore", "Lattice"})
+@Description("Full recalculation of the energy and local field of every particle")
+@StackTrace(false)
+final class RecalculationEvent extends jdk.jfr.Event {
+    @Label("Particles")
+    int particles;
+
+    @Label("Temperature")
+    double temperature;
+}
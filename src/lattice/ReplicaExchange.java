@@ -0,0 +1,215 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * Parallel tempering simulation of the lattice. One replica of the lattice is simulated at each of a set of
+ * temperatures, with the replicas run concurrently. After every {@link #SWAP_INTERVAL} steps, replicas at neighbouring
+ * temperatures attempt to exchange configurations, which lets configurations trapped at low temperatures escape by
+ * travelling to high temperatures and back.
+ * <p>
+ * An exchange between configurations {@code a} at temperature {@code Ta} and {@code b} at {@code Tb} is accepted with
+ * probability {@code min(1, exp(Ea(a) / Ta + Eb(b) / Tb - Ea(b) / Ta - Eb(a) / Tb))}, where {@code Et(x)} is the energy
+ * of configuration {@code x} at temperature {@code t}. Pairs with an even lower index attempt exchanges on even rounds
+ * and pairs with an odd lower index on odd rounds.
+ * <p>
+ * Each replica has its own random number stream, and the exchanges another, all split from a single seed. Since the
+ * exchanges happen between rounds of steps, a simulation with the same seed gives the same results however the replicas
+ * are scheduled.
+ * <p>
+ * A listener set with {@link #setPartialResults(Consumer)} receives the running result of every temperature between
+ * rounds while the states are being recorded, as for a {@link Simulation}.
+ */
+public class ReplicaExchange {
+    public final static int SWAP_INTERVAL = Position.count();
+    private final static int WARM_UP_ITERATIONS = Position.count() * 5;
+    public final static int SIMULATION_ITERATIONS = Simulation.SIMULATION_ITERATIONS;
+
+    private final double[] temps;
+    private final Lattice[] replicas;
+    private final Observables[] observables;
+    private final int parallelism;
+    private RandomGenerator random;
+    private final long[] attempted;
+    private final long[] accepted;
+    private int round = 0;
+    private Optional<PartialResults> partialResults = Optional.empty();
+
+    /**
+     * Constructs a simulation using up to one thread per available processor.
+     */
+    public ReplicaExchange(List<Double> temps) {
+        this(temps, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a simulation with one replica at each of a list of temperatures.
+     *
+     * @param temps the temperatures, in increasing order
+     * @param parallelism the maximum number of replicas to simulate at once
+     */
+    public ReplicaExchange(List<Double> temps, int parallelism) {
+        if (temps.isEmpty())
+            throw new IllegalArgumentException("No temperatures");
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.temps = temps.stream().mapToDouble(Double::doubleValue).toArray();
+        this.parallelism = Math.min(parallelism, this.temps.length);
+        this.replicas = new Lattice[this.temps.length];
+        this.observables = new Observables[this.temps.length];
+        this.attempted = new long[this.temps.length - 1];
+        this.accepted = new long[this.temps.length - 1];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = new Lattice();
+            replicas[i].setTemp(this.temps[i]);
+        }
+        setSeed(new Random().nextLong());
+    }
+
+    /**
+     * Seeds the random number streams of the replicas and of the exchanges, so that the simulation can be reproduced.
+     *
+     * @param seed the seed from which each stream is split
+     */
+    public void setSeed(long seed) {
+        SplittableRandom source = new SplittableRandom(seed);
+        random = source.split();
+        for (Lattice replica : replicas)
+            replica.setRandom(source.split());
+    }
+
+    /**
+     * Sets the random number stream of each replica and of the exchanges, such as the streams of the stages of a
+     * {@link Sweep}.
+     *
+     * @param streams gives the stream of the replica starting at each index of the temperatures, and of the exchanges
+     *                for an index of -1
+     */
+    void setRandom(IntFunction<RandomGenerator> streams) {
+        random = streams.apply(-1);
+        for (int i = 0; i < replicas.length; i++)
+            replicas[i].setRandom(streams.apply(i));
+    }
+
+    /**
+     * Sets a listener for the running results of each temperature while the states are recorded, which is called once
+     * for each temperature in turn.
+     *
+     * @param listener receives the result of the steps recorded so far at a temperature
+     * @see Simulation#setPartialResults(Consumer)
+     */
+    public void setPartialResults(Consumer<Result> listener) {
+        this.partialResults = Optional.of(new PartialResults(listener));
+    }
+
+    /**
+     * Runs the simulation with the default number of warm up and simulation iterations.
+     *
+     * @return the results for each temperature, in temperature order
+     * @throws InterruptedException if the thread is interrupted while waiting for the replicas
+     */
+    public List<Result> run() throws InterruptedException {
+        return run(WARM_UP_ITERATIONS, SIMULATION_ITERATIONS);
+    }
+
+    /**
+     * Runs the simulation. Each replica takes a number of warm up steps, with exchanges, before the state of the
+     * replica at each temperature is recorded for a number of simulation steps.
+     *
+     * @param warmUpIterations the number of steps before recording starts
+     * @param simulationIterations the number of steps that are recorded
+     * @return the results for each temperature, in temperature order
+     * @throws InterruptedException if the thread is interrupted while waiting for the replicas
+     */
+    public List<Result> run(int warmUpIterations, int simulationIterations) throws InterruptedException {
+        for (int i = 0; i < observables.length; i++)
+            observables[i] = new Observables();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            advance(pool, warmUpIterations, false);
+            advance(pool, simulationIterations, true);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < temps.length; i++)
+            results.add(Result.calculate(temps[i], observables[i]));
+        return results;
+    }
+
+    /**
+     * Gets the proportion of attempted exchanges that were accepted between each pair of neighbouring temperatures.
+     *
+     * @return the acceptance rate for the pair with each lower temperature index, or NaN if no exchange was attempted
+     */
+    public double[] getAcceptanceRates() {
+        double[] rates = new double[attempted.length];
+        for (int i = 0; i < rates.length; i++)
+            rates[i] = attempted[i] == 0 ? Double.NaN : (double) accepted[i] / attempted[i];
+        return rates;
+    }
+
+    private void advance(ForkJoinPool pool, int iterations, boolean record) throws InterruptedException {
+        for (int done = 0; done < iterations; done += SWAP_INTERVAL) {
+            int steps = Math.min(SWAP_INTERVAL, iterations - done);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < replicas.length; i++)
+                futures.add(pool.submit(replicaTask(i, steps, record)));
+            try {
+                for (Future<Void> future : futures)
+                    future.get();
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Replica failed", ex.getCause());
+            }
+            exchange();
+            if (record && partialResults.isPresent()) {
+                partialResults.get().offer(listener -> {
+                    for (int i = 0; i < temps.length; i++)
+                        listener.accept(Result.calculate(temps[i], observables[i]));
+                });
+            }
+        }
+    }
+
+    private Callable<Void> replicaTask(int index, int steps, boolean record) {
+        Lattice lattice = replicas[index];
+        Observables totals = observables[index];
+        return () -> {
+            for (int i = 0; i < steps; i++) {
+                lattice.step();
+                if (record)
+                    totals.add(lattice);
+            }
+            return null;
+        };
+    }
+
+    private void exchange() {
+        for (int i = round++ % 2; i < replicas.length - 1; i += 2) {
+            Lattice lower = replicas[i];
+            Lattice upper = replicas[i + 1];
+            double lowerTemp = temps[i];
+            double upperTemp = temps[i + 1];
+            double change = lower.getEnergy() / lowerTemp + upper.getEnergy() / upperTemp
+                    - upper.getEnergyAt(lowerTemp) / lowerTemp - lower.getEnergyAt(upperTemp) / upperTemp;
+            attempted[i]++;
+            if (change >= 0 || Math.exp(change) > random.nextDouble()) {
+                accepted[i]++;
+                replicas[i] = upper;
+                replicas[i + 1] = lower;
+                lower.exchangeTemp(upper);
+            }
+        }
+    }
+}
@@ -1,13 +1,27 @@
 package lattice;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.ToDoubleFunction;
 
 /**
  * Record of the results of a simulation for the lattice at a particular temperature. The results include the average
- * energy, magnetism and heat capacity of each particle across all steps of the simualtion.
+ * energy, magnetism and heat capacity of each particle across all steps of the simualtion, along with the average
+ * absolute magnetism and magnetic susceptibility of each particle and the Binder cumulant of the magnetism.
+ * <p>
+ * The energy, magnetism and heat capacity have error bars, which are standard errors estimated by a {@link Binning}
+ * analysis so that they account for the correlation between successive steps. An error is NaN if there were too few
+ * samples to estimate it, including when the samples are too few for the binning estimate to level off over their
+ * autocorrelation time. The number of samples is the number of steps that were recorded.
  */
-public record Result(double temp, double averageEnergy, double averageMagnetism, double averageHeatCapacity) {
+public record Result(double temp, double averageEnergy, double averageMagnetism, double averageHeatCapacity,
+                     double averageAbsoluteMagnetism, double susceptibility, double binderCumulant,
+                     double energyError, double magnetismError, double heatCapacityError, long samples) {
+    /**
+     * The number of values in a result, as returned by {@link #toArray()}.
+     */
+    static final int FIELDS = 11;
+
     /**
      * Constructs a result record for a given temperature and list of lattice states.
      *
@@ -16,13 +30,115 @@ public record Result(double temp, double averageEnergy, double averageMagnetism,
      * @return aggregated results for the entire simulation
      */
     public static Result calculate(double temp, List<State> states) {
-        double averageEnergy = average(states, State::energy);
-        double averageMagnetism = average(states, State::magnetism);
-        double averageHeatCapacity = (average(states, State::energySquared) - Math.pow(averageEnergy, 2)) / Math.pow(temp, 2);
-        return new Result(temp, averageEnergy, averageMagnetism, averageHeatCapacity);
+        Observables observables = new Observables();
+        states.forEach(observables::add);
+        return calculate(temp, observables);
+    }
+
+    /**
+     * Constructs a result record for a given temperature and running totals of the lattice states.
+     *
+     * @param temp the temperature the simulation was run at
+     * @param observables the totals of the state of the lattice across all simulation steps
+     * @return aggregated results for the entire simulation
+     */
+    public static Result calculate(double temp, Observables observables) {
+        int count = Position.count();
+        double averageEnergy = observables.averageEnergy() / count;
+        Binning binning = observables.getBinning();
+        double[] heatCapacityGradient = new double[4];
+        heatCapacityGradient[Observables.ENERGY] = -2.0 * averageEnergy / (count * Math.pow(temp, 2));
+        heatCapacityGradient[Observables.ENERGY_SQUARED] = 1.0 / (count * Math.pow(temp, 2));
+        return fromAverages(temp, observables.averageEnergy(), observables.averageEnergySquared(),
+                observables.averageMagnetism(), observables.averageAbsoluteMagnetism(),
+                observables.averageMagnetismSquared(), observables.averageMagnetismFourth(),
+                binning.error(Observables.ENERGY) / count, binning.error(Observables.MAGNETISM) / count,
+                binning.error(heatCapacityGradient), observables.getCount());
+    }
+
+    /**
+     * Constructs a result record for a given temperature from the running totals of the replicas of a
+     * {@link MultiSpinLattice}, each recorded the same number of times. The averages are taken over every state of every
+     * replica. The replicas share random numbers, so their averages are not independent, and the errors are instead
+     * estimated by a {@link Binning} analysis of the average over the replicas of each recorded state, which accounts
+     * for the correlations between the replicas as well as those between their successive states.
+     *
+     * @param temp the temperature the simulation was run at
+     * @param replicas the totals of the state of each replica across all simulation steps
+     * @param ensemble the binning analysis of the average state of the replicas, as recorded by
+     *                 {@link MultiSpinLattice#record(Observables[], Binning)}
+     * @return aggregated results for the entire simulation
+     */
+    static Result calculate(double temp, Observables[] replicas, Binning ensemble) {
+        int count = Position.count();
+        long samples = Arrays.stream(replicas).mapToLong(Observables::getCount).sum();
+        double averageEnergy = average(replicas, Observables::averageEnergy);
+        double[] heatCapacityGradient = new double[4];
+        heatCapacityGradient[Observables.ENERGY] = -2.0 * averageEnergy / (count * count * Math.pow(temp, 2));
+        heatCapacityGradient[Observables.ENERGY_SQUARED] = 1.0 / (count * Math.pow(temp, 2));
+        return fromAverages(temp, averageEnergy, average(replicas, Observables::averageEnergySquared),
+                average(replicas, Observables::averageMagnetism),
+                average(replicas, Observables::averageAbsoluteMagnetism),
+                average(replicas, Observables::averageMagnetismSquared),
+                average(replicas, Observables::averageMagnetismFourth),
+                ensemble.error(Observables.ENERGY) / count, ensemble.error(Observables.MAGNETISM) / count,
+                ensemble.error(heatCapacityGradient), samples);
+    }
+
+    private static double average(Observables[] replicas, ToDoubleFunction<Observables> average) {
+        return Arrays.stream(replicas).mapToDouble(average).average().orElseThrow();
+    }
+
+    /**
+     * Constructs a result from the averages over the states of the lattice of its energy, magnetism and their powers,
+     * as totalled by {@link Observables}.
+     *
+     * @param temp the temperature the states were sampled at
+     * @param energy the average energy of the lattice
+     * @param energySquared the average sum of the squared energies of the particles
+     * @param magnetism the average magnetism of the lattice
+     * @param absoluteMagnetism the average absolute magnetism of the lattice
+     * @param magnetismSquared the average squared magnetism of the lattice
+     * @param magnetismFourth the average fourth power of the magnetism of the lattice
+     * @param energyError the standard error of the average energy of each particle
+     * @param magnetismError the standard error of the average magnetism of each particle
+     * @param heatCapacityError the standard error of the average heat capacity of each particle
+     * @param samples the number of states averaged
+     * @return the result
+     */
+    static Result fromAverages(double temp, double energy, double energySquared, double magnetism,
+                               double absoluteMagnetism, double magnetismSquared, double magnetismFourth,
+                               double energyError, double magnetismError, double heatCapacityError, long samples) {
+        int count = Position.count();
+        double averageEnergy = energy / count;
+        double averageMagnetism = magnetism / count;
+        double averageHeatCapacity = (energySquared / count - Math.pow(averageEnergy, 2)) / Math.pow(temp, 2);
+        double averageAbsoluteMagnetism = absoluteMagnetism / count;
+        double susceptibility = (magnetismSquared - Math.pow(absoluteMagnetism, 2)) / (count * temp);
+        double binderCumulant = 1.0 - magnetismFourth / (3.0 * Math.pow(magnetismSquared, 2));
+        return new Result(temp, averageEnergy, averageMagnetism, averageHeatCapacity,
+                averageAbsoluteMagnetism, susceptibility, binderCumulant, energyError, magnetismError,
+                heatCapacityError, samples);
     }
 
-    private static double average(List<State> states, ToDoubleFunction<State> extractor) {
-        return states.stream().mapToDouble(extractor).average().orElseThrow() / Position.count();
+    /**
+     * Gets the values of the result as an array, in declaration order.
+     *
+     * @return the values of the result
+     */
+    double[] toArray() {
+        return new double[]{temp, averageEnergy, averageMagnetism, averageHeatCapacity, averageAbsoluteMagnetism,
+                susceptibility, binderCumulant, energyError, magnetismError, heatCapacityError, samples};
+    }
+
+    /**
+     * Constructs a result from an array of values in the order returned by {@link #toArray()}.
+     *
+     * @param values the values of the result
+     * @return the result
+     */
+    static Result fromArray(double[] values) {
+        return new Result(values[0], values[1], values[2], values[3], values[4], values[5], values[6],
+                values[7], values[8], values[9], (long) values[10]);
     }
 }
@@ -0,0 +1,230 @@
+package lattice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Cache on disk of the results of {@link Sweep}s, so that a sweep repeated with the same parameters serves the points
+ * it has already simulated instead of simulating them again.
+ * <p>
+ * Each entry is a file named by a SHA-256 hash of everything its result depends on, given by a {@link Point}: the
+ * {@link #ENGINE_VERSION}, the size of the lattice and its interactions, the thermodynamic constants, the iterations
+ * and precision, whether the {@link NFoldWay} is used, the seed and generator, and where the point falls in the chunks
+ * of its sweep. A change to any of them gives a different name, so stale entries are never read and are left to be
+ * evicted. The entry also holds the spins of the lattice after the point, from which a sweep can carry on to the next
+ * point exactly as if it had simulated the cached one, since the random number generator is reseeded at every point.
+ * <p>
+ * The size of the cache is bounded. Reading an entry updates its modification time, and when writing an entry takes
+ * the total size over the limit, the entries least recently used are deleted until it is within it. Entries are
+ * written to a temporary file and then moved into place, so several sweeps can share a cache and a process killed part
+ * way through a write leaves no partial entry. An entry that cannot be read is treated as missing.
+ */
+public class ResultCache {
+    public final static long DEFAULT_MAX_BYTES = 256L << 20;
+    /**
+     * The version of the simulation, which is part of every key. It must be increased by any change that alters the
+     * result of a simulation with the same parameters and seed, so that entries written before the change are not
+     * used.
+     */
+    public final static int ENGINE_VERSION = 1;
+    private final static int MAGIC = 0x50595245;
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static String SUFFIX = ".result";
+
+    private final Path directory;
+    private final long maxBytes;
+    private long size;
+
+    /**
+     * Opens a cache with a size of at most {@link #DEFAULT_MAX_BYTES}.
+     *
+     * @param directory the directory of the cache, which is created if it does not exist
+     * @throws IOException if the directory cannot be created or read
+     */
+    public ResultCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens a cache, evicting entries if it is already larger than the maximum size.
+     *
+     * @param directory the directory of the cache, which is created if it does not exist
+     * @param maxBytes the maximum total size of the entries
+     * @throws IOException if the directory cannot be created or read
+     */
+    public ResultCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /**
+     * The parameters that determine the result of a point of a sweep. The relative error and maximum iterations are
+     * those of the target precision, or 0 if the sweep has none. The warm ups and the points before this one in its
+     * chunk are determined by the minimum temperature, the step, the chunk and the index of its first temperature.
+     */
+    record Point(long seed, String generator, Simulation.Iterations iterations, double relativeError,
+                 int maxIterations, boolean rejectionFree, double tempMin, double tempStep, int chunk, int from,
+                 int index, double temp) {
+        /**
+         * Gets the name of the entry for the point.
+         *
+         * @return the hash of the parameters of the model and of the point, in hexadecimal
+         */
+        String key() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(ENGINE_VERSION);
+                out.writeInt(Position.THICKNESS);
+                out.writeInt(Position.count());
+                out.writeInt(Lattice.INTERACTION_DISTANCE);
+                out.writeDouble(Lattice.DELTA_H);
+                out.writeDouble(Lattice.DELTA_S);
+                out.writeInt(Lattice.DEFAULT_RECALCULATION_INTERVAL);
+                out.writeLong(seed);
+                out.writeUTF(generator);
+                out.writeInt(iterations.initialWarmUp());
+                out.writeInt(iterations.followingWarmUp());
+                out.writeInt(iterations.simulation());
+                out.writeDouble(relativeError);
+                out.writeInt(maxIterations);
+                out.writeBoolean(rejectionFree);
+                out.writeDouble(tempMin);
+                out.writeDouble(tempStep);
+                out.writeInt(chunk);
+                out.writeInt(from);
+                out.writeInt(index);
+                out.writeDouble(temp);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * A cached result with the spins of the lattice after it, as written by {@link Lattice#saveSpins}.
+     */
+    record Entry(Result result, ByteBuffer spins) {
+    }
+
+    /**
+     * Gets the entry for a point and marks it as recently used.
+     *
+     * @param point the point
+     * @return the entry, or empty if the point is not cached or its entry cannot be read
+     */
+    Optional<Entry> get(Point point) {
+        Path file = directory.resolve(point.key() + SUFFIX);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.capacity() != HEADER_SIZE + 8 * Result.FIELDS + Position.count()
+                    || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != Result.FIELDS || buffer.getInt(12) != Position.count())
+                return Optional.empty();
+            double[] values = new double[Result.FIELDS];
+            for (int i = 0; i < values.length; i++)
+                values[i] = buffer.getDouble(HEADER_SIZE + 8 * i);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(new Entry(Result.fromArray(values), buffer.slice(HEADER_SIZE + 8 * values.length,
+                    Position.count())));
+        } catch (IOException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the entry for a point, evicting the least recently used entries if the cache is then too large.
+     *
+     * @param point the point
+     * @param result the result of the point
+     * @param lattice the lattice after the point
+     * @throws UncheckedIOException if the entry cannot be written
+     */
+    void put(Point point, Result result, Lattice lattice) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 8 * Result.FIELDS + lattice.size());
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, Result.FIELDS).putInt(12, lattice.size());
+        double[] values = result.toArray();
+        for (int i = 0; i < values.length; i++)
+            buffer.putDouble(HEADER_SIZE + 8 * i, values[i]);
+        lattice.saveSpins(buffer, HEADER_SIZE + 8 * values.length);
+        try {
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                Files.write(temporary, buffer.array());
+                Files.move(temporary, directory.resolve(point.key() + SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            synchronized (this) {
+                size += buffer.capacity();
+                if (size > maxBytes)
+                    evict();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets the total size of the entries, including those written by other processes sharing the directory when the
+     * cache last evicted entries.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its maximum size. The size is recounted from
+     * the directory, since other processes may share it.
+     */
+    private void evict() throws IOException {
+        record File(Path path, long size, FileTime used) {
+        }
+        List<File> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.filter(path -> path.toString().endsWith(SUFFIX)).toList()) {
+                try {
+                    files.add(new File(path, Files.size(path), Files.getLastModifiedTime(path)));
+                } catch (NoSuchFileException ex) {
+                    // deleted by another process since it was listed
+                }
+            }
+        }
+        files.sort(Comparator.comparing(File::used));
+        size = files.stream().mapToLong(File::size).sum();
+        for (int i = 0; i < files.size() && size > maxBytes; i++) {
+            Files.deleteIfExists(files.get(i).path());
+            size -= files.get(i).size();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package lattice;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writer of {@link Result}s to a stream as they are produced. Each result is flushed as soon as it is written, so the
+ * output of a run can be read while the run continues. Results are written in the order they are given.
+ * <ul>
+ * <li>{@link Format#CSV} writes a header line of field names followed by one line per result.</li>
+ * <li>{@link Format#JSON} writes one JSON object per line.</li>
+ * <li>{@link Format#BINARY} writes the number of fields as an int, then the fields of each result as big-endian
+ * doubles.</li>
+ * </ul>
+ * The fields are the components of {@link Result}, in declaration order.
+ */
+public abstract class ResultWriter implements Closeable {
+    private static final String[] FIELDS = Arrays.stream(Result.class.getRecordComponents())
+            .map(RecordComponent::getName)
+            .toArray(String[]::new);
+
+    public enum Format {
+        CSV, JSON, BINARY
+    }
+
+    /**
+     * Constructs a writer for a given format.
+     *
+     * @param format the output format
+     * @param output the stream to write to
+     * @return the writer
+     * @throws UncheckedIOException if the header cannot be written
+     */
+    public static ResultWriter of(Format format, OutputStream output) {
+        return switch (format) {
+            case CSV -> new TextWriter(output, String.join(",", FIELDS), ResultWriter::csv);
+            case JSON -> new TextWriter(output, null, ResultWriter::json);
+            case BINARY -> new BinaryWriter(output);
+        };
+    }
+
+    /**
+     * Writes a result and flushes the output.
+     *
+     * @param result the result to write
+     * @throws UncheckedIOException if the result cannot be written
+     */
+    public abstract void write(Result result);
+
+    private static String csv(Result result) {
+        return Arrays.stream(result.toArray())
+                .mapToObj(Double::toString)
+                .collect(Collectors.joining(","));
+    }
+
+    private static String json(Result result) {
+        double[] values = result.toArray();
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append('"').append(FIELDS[i]).append("\":");
+            builder.append(Double.isFinite(values[i]) ? Double.toString(values[i]) : "null");
+        }
+        return builder.append('}').toString();
+    }
+
+    private static class TextWriter extends ResultWriter {
+        private final Writer writer;
+        private final Function<Result, String> formatter;
+
+        private TextWriter(OutputStream output, String header, Function<Result, String> formatter) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            this.formatter = formatter;
+            if (header != null)
+                line(header);
+        }
+
+        @Override
+        public void write(Result result) {
+            line(formatter.apply(result));
+        }
+
+        private void line(String text) {
+            try {
+                writer.write(text);
+                writer.write(System.lineSeparator());
+                writer.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static class BinaryWriter extends ResultWriter {
+        private final DataOutputStream output;
+
+        private BinaryWriter(OutputStream output) {
+            this.output = new DataOutputStream(new BufferedOutputStream(output));
+            try {
+                this.output.writeInt(FIELDS.length);
+                this.output.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public void write(Result result) {
+            try {
+                for (double value : result.toArray())
+                    output.writeDouble(value);
+                output.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package lattice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ferrenberg-Swendsen multiple histogram reweighting, which combines the {@link Histogram}s of simulations at several
+ * temperatures into estimates of the observables at any temperature between them. A sweep can then simulate a sparse
+ * set of temperatures and still produce a dense curve, as long as the distributions of enthalpy at neighbouring
+ * temperatures overlap.
+ * <p>
+ * The density of states of each bin of enthalpy {@code H} is estimated from all histograms together as
+ * {@code N(H) / sum_k n_k exp(f_k - H / T_k)}, where {@code N(H)} is the number of states in the bin over all
+ * simulations, {@code n_k} the number of states of simulation {@code k} and {@code f_k} its free energy. The free
+ * energies are themselves sums over the density of states, and are solved for when the reweighting is constructed.
+ * The observables at a temperature are then averages over the bins weighted by the density of states and the Boltzmann
+ * factor. All sums are taken over logarithms, as the factors span far more than the range of a double.
+ * <p>
+ * The errors are estimated by a jackknife: the free energies are solved again with each of the {@link Histogram#GROUPS}
+ * groups of states left out of every histogram in turn, and the spread of the results estimates the error. An error is
+ * NaN if any histogram has fewer states than groups.
+ */
+public class Reweighting {
+    /**
+     * The change in the free energies at which the solution is taken to have converged, which is far below their
+     * statistical error but above the rounding error of the sums over thousands of bins.
+     */
+    private final static double TOLERANCE = 1e-6;
+    private final static int MAX_ITERATIONS = 100;
+    private final static int GROUPS = Histogram.GROUPS;
+    private final static int SUMS = Histogram.SUMS;
+
+    private final double[] temps;
+    private final int bins;
+    private final double[] enthalpies;
+    private final double[] totals;
+    private final double[][] groupSums;
+    private final long samples;
+    private final boolean hasErrors;
+    private final double[] freeEnergies;
+    /*
+     * The logarithm of the denominator of the density of states of each bin, for all states and then with each group
+     * left out.
+     */
+    private final double[][] logDenominators = new double[GROUPS + 1][];
+
+    /**
+     * Combines the histograms of a set of simulations and solves for their free energies.
+     *
+     * @param histograms the histograms, which must all have the same width of bin
+     * @throws IllegalArgumentException if there are no histograms or they have different widths
+     * @throws IllegalStateException if the free energies do not converge
+     */
+    public Reweighting(List<Histogram> histograms) {
+        if (histograms.isEmpty())
+            throw new IllegalArgumentException("No histograms");
+        if (histograms.stream().mapToDouble(Histogram::getWidth).distinct().count() > 1)
+            throw new IllegalArgumentException("Histograms have different widths");
+        if (histograms.stream().anyMatch(histogram -> histogram.getCount() == 0))
+            throw new IllegalArgumentException("Histogram has no states");
+        int runs = histograms.size();
+        temps = histograms.stream().mapToDouble(Histogram::getTemp).toArray();
+        Map<Long, Integer> keys = new HashMap<>();
+        List<List<Map<Long, double[]>>> groups = new ArrayList<>();
+        for (Histogram histogram : histograms) {
+            List<Map<Long, double[]>> histogramGroups = histogram.groups();
+            histogramGroups.forEach(group -> group.keySet().forEach(key -> keys.putIfAbsent(key, keys.size())));
+            groups.add(histogramGroups);
+        }
+        bins = keys.size();
+        totals = new double[bins * SUMS];
+        groupSums = new double[GROUPS][bins * SUMS];
+        // the counts of states of each run, in total and in each group
+        double[][] counts = new double[GROUPS + 1][runs];
+        double[] runEnthalpies = new double[runs];
+        for (int run = 0; run < runs; run++) {
+            for (int group = 0; group < GROUPS; group++) {
+                double[] sums = groupSums[group];
+                for (Map.Entry<Long, double[]> bin : groups.get(run).get(group).entrySet()) {
+                    int base = keys.get(bin.getKey()) * SUMS;
+                    for (int i = 0; i < SUMS; i++)
+                        sums[base + i] += bin.getValue()[i];
+                    counts[group + 1][run] += bin.getValue()[Histogram.COUNT];
+                    runEnthalpies[run] += bin.getValue()[Histogram.ENTHALPY];
+                }
+            }
+        }
+        for (int group = 0; group < GROUPS; group++) {
+            for (int i = 0; i < totals.length; i++)
+                totals[i] += groupSums[group][i];
+            for (int run = 0; run < runs; run++)
+                counts[0][run] += counts[group + 1][run];
+        }
+        enthalpies = new double[bins];
+        for (int bin = 0; bin < bins; bin++)
+            enthalpies[bin] = totals[bin * SUMS + Histogram.ENTHALPY] / totals[bin * SUMS + Histogram.COUNT];
+        samples = histograms.stream().mapToLong(Histogram::getCount).sum();
+        hasErrors = histograms.stream().allMatch(histogram -> histogram.getCount() >= GROUPS);
+        for (int run = 0; run < runs; run++)
+            runEnthalpies[run] /= counts[0][run];
+        freeEnergies = initialFreeEnergies(runEnthalpies);
+        logDenominators[0] = solve(counts[0], binCounts(-1), freeEnergies);
+        for (int group = 0; group < GROUPS && hasErrors; group++) {
+            for (int run = 0; run < runs; run++)
+                counts[group + 1][run] = counts[0][run] - counts[group + 1][run];
+            logDenominators[group + 1] = solve(counts[group + 1], binCounts(group), freeEnergies.clone());
+        }
+    }
+
+    /**
+     * Gets the free energy of each histogram solved for from all of their states, relative to that of the first.
+     *
+     * @return the free energies, in the order of the histograms
+     */
+    double[] getFreeEnergies() {
+        return freeEnergies.clone();
+    }
+
+    /**
+     * Gets the lowest temperature that results can be estimated for.
+     *
+     * @return the lowest temperature simulated
+     */
+    public double getTempMin() {
+        return Arrays.stream(temps).min().orElseThrow();
+    }
+
+    /**
+     * Gets the highest temperature that results can be estimated for.
+     *
+     * @return the highest temperature simulated
+     */
+    public double getTempMax() {
+        return Arrays.stream(temps).max().orElseThrow();
+    }
+
+    /**
+     * Estimates the results at a temperature. The number of samples of the result is the total over all histograms.
+     *
+     * @param temp the temperature, which must be within the range of the simulated temperatures
+     * @return the estimated result, with jackknife errors for the energy, magnetism and heat capacity
+     * @throws IllegalArgumentException if the temperature is outside the simulated range
+     */
+    public Result result(double temp) {
+        if (temp < getTempMin() || temp > getTempMax())
+            throw new IllegalArgumentException("Temperature " + temp + " is outside the simulated range");
+        Result result = estimate(temp, -1);
+        if (!hasErrors)
+            return result;
+        double[][] estimates = new double[GROUPS][];
+        for (int group = 0; group < GROUPS; group++) {
+            Result leftOut = estimate(temp, group);
+            estimates[group] = new double[]{leftOut.averageEnergy(), leftOut.averageMagnetism(),
+                    leftOut.averageHeatCapacity()};
+        }
+        return new Result(temp, result.averageEnergy(), result.averageMagnetism(), result.averageHeatCapacity(),
+                result.averageAbsoluteMagnetism(), result.susceptibility(), result.binderCumulant(),
+                jackknife(estimates, 0), jackknife(estimates, 1), jackknife(estimates, 2), samples);
+    }
+
+    /**
+     * Estimates the results at each temperature in a range.
+     *
+     * @param tempMin the first temperature
+     * @param tempMax the maximum temperature
+     * @param tempStep the difference between successive temperatures
+     * @return the results in temperature order
+     */
+    public List<Result> results(double tempMin, double tempMax, double tempStep) {
+        if (tempStep <= 0)
+            throw new IllegalArgumentException("Step must be positive");
+        List<Result> results = new ArrayList<>();
+        for (double temp = tempMin; temp <= tempMax; temp += tempStep)
+            results.add(result(temp));
+        return results;
+    }
+
+    /**
+     * Estimates the free energies by integrating the mean enthalpy of each run over the inverse temperature, since
+     * {@code d(f) / d(1 / T) = <H>}, which starts the iteration close to its solution.
+     */
+    private double[] initialFreeEnergies(double[] meanEnthalpies) {
+        Integer[] order = new Integer[temps.length];
+        Arrays.setAll(order, run -> run);
+        Arrays.sort(order, Comparator.comparingDouble(run -> -temps[run]));
+        double[] freeEnergies = new double[temps.length];
+        for (int i = 1; i < order.length; i++) {
+            int run = order[i];
+            int previous = order[i - 1];
+            freeEnergies[run] = freeEnergies[previous] + (1.0 / temps[run] - 1.0 / temps[previous])
+                    * (meanEnthalpies[run] + meanEnthalpies[previous]) / 2.0;
+        }
+        double first = freeEnergies[0];
+        for (int run = 0; run < freeEnergies.length; run++)
+            freeEnergies[run] -= first;
+        return freeEnergies;
+    }
+
+    /**
+     * Gets the number of states in each bin, over all groups or with one group left out.
+     */
+    private double[] binCounts(int leftOut) {
+        double[] counts = new double[bins];
+        for (int bin = 0; bin < bins; bin++) {
+            int index = bin * SUMS + Histogram.COUNT;
+            counts[bin] = totals[index] - (leftOut < 0 ? 0 : groupSums[leftOut][index]);
+        }
+        return counts;
+    }
+
+    /**
+     * Solves for the free energies of the runs, starting from an estimate. The equations for the free energies are the
+     * conditions for the minimum of the convex function {@code sum_H N(H) log D(H) - sum_k n_k f_k}, where {@code D(H)}
+     * is the denominator of the density of states, so they are solved by Newton's method on that function, with the
+     * step halved until the function decreases. This takes a handful of iterations where iterating the equations
+     * directly can take thousands.
+     *
+     * @return the logarithm of the denominator of the density of states of each bin
+     * @throws IllegalStateException if the histograms do not overlap enough to determine the free energies
+     */
+    private double[] solve(double[] runCounts, double[] binCounts, double[] freeEnergies) {
+        int runs = temps.length;
+        double[] logCounts = Arrays.stream(runCounts).map(Math::log).toArray();
+        double[] logDenominators = logDenominators(logCounts, freeEnergies);
+        double objective = objective(runCounts, binCounts, freeEnergies, logDenominators);
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            // the gradient and Hessian in the free energies of all runs but the first, which is held at zero
+            double[] gradient = new double[runs];
+            double[][] hessian = new double[runs][runs];
+            double[] shares = new double[runs];
+            for (int bin = 0; bin < bins; bin++) {
+                if (binCounts[bin] == 0)
+                    continue;
+                for (int run = 0; run < runs; run++)
+                    shares[run] = Math.exp(logTerm(logCounts, freeEnergies, run, bin) - logDenominators[bin]);
+                for (int run = 1; run < runs; run++) {
+                    gradient[run] += binCounts[bin] * shares[run];
+                    hessian[run][run] += binCounts[bin] * shares[run];
+                    for (int other = 1; other < runs; other++)
+                        hessian[run][other] -= binCounts[bin] * shares[run] * shares[other];
+                }
+            }
+            for (int run = 1; run < runs; run++)
+                gradient[run] -= runCounts[run];
+            double[] step = solveLinear(hessian, gradient);
+            if (Arrays.stream(step).allMatch(change -> Math.abs(change) < TOLERANCE))
+                return logDenominators;
+            double[] next = new double[runs];
+            for (double scale = 1; ; scale /= 2) {
+                // near the minimum the function is flat to within rounding, so no step may decrease it
+                if (scale < TOLERANCE)
+                    return logDenominators;
+                for (int run = 1; run < runs; run++)
+                    next[run] = freeEnergies[run] - scale * step[run];
+                double[] nextLogDenominators = logDenominators(logCounts, next);
+                double nextObjective = objective(runCounts, binCounts, next, nextLogDenominators);
+                if (nextObjective < objective) {
+                    System.arraycopy(next, 0, freeEnergies, 0, runs);
+                    logDenominators = nextLogDenominators;
+                    objective = nextObjective;
+                    break;
+                }
+            }
+        }
+        throw new IllegalStateException("Free energies did not converge");
+    }
+
+    private double logTerm(double[] logCounts, double[] freeEnergies, int run, int bin) {
+        return logCounts[run] + freeEnergies[run] - enthalpies[bin] / temps[run];
+    }
+
+    private double[] logDenominators(double[] logCounts, double[] freeEnergies) {
+        double[] logDenominators = new double[bins];
+        double[] terms = new double[temps.length];
+        for (int bin = 0; bin < bins; bin++) {
+            for (int run = 0; run < temps.length; run++)
+                terms[run] = logTerm(logCounts, freeEnergies, run, bin);
+            logDenominators[bin] = logSumExp(terms, temps.length);
+        }
+        return logDenominators;
+    }
+
+    private double objective(double[] runCounts, double[] binCounts, double[] freeEnergies,
+                             double[] logDenominators) {
+        double objective = 0;
+        for (int bin = 0; bin < bins; bin++) {
+            if (binCounts[bin] > 0)
+                objective += binCounts[bin] * logDenominators[bin];
+        }
+        for (int run = 0; run < temps.length; run++)
+            objective -= runCounts[run] * freeEnergies[run];
+        return objective;
+    }
+
+    /**
+     * Solves the Newton step for all runs but the first by Gaussian elimination with partial pivoting.
+     */
+    private static double[] solveLinear(double[][] matrix, double[] vector) {
+        int size = vector.length;
+        double[][] a = new double[size][];
+        for (int row = 0; row < size; row++)
+            a[row] = Arrays.copyOf(matrix[row], size);
+        double[] b = vector.clone();
+        for (int column = 1; column < size; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < size; row++) {
+                if (Math.abs(a[row][column]) > Math.abs(a[pivot][column]))
+                    pivot = row;
+            }
+            if (!(Math.abs(a[pivot][column]) > 0))
+                throw new IllegalStateException("Histograms do not overlap");
+            double[] swap = a[column];
+            a[column] = a[pivot];
+            a[pivot] = swap;
+            double swapped = b[column];
+            b[column] = b[pivot];
+            b[pivot] = swapped;
+            for (int row = column + 1; row < size; row++) {
+                double factor = a[row][column] / a[column][column];
+                for (int k = column; k < size; k++)
+                    a[row][k] -= factor * a[column][k];
+                b[row] -= factor * b[column];
+            }
+        }
+        double[] x = new double[size];
+        for (int row = size - 1; row >= 1; row--) {
+            double sum = b[row];
+            for (int k = row + 1; k < size; k++)
+                sum -= a[row][k] * x[k];
+            x[row] = sum / a[row][row];
+        }
+        return x;
+    }
+
+    /**
+     * Estimates the results at a temperature from all states, or with a group of states left out, without errors.
+     */
+    private Result estimate(double temp, int leftOut) {
+        double[] logDenominators = this.logDenominators[leftOut + 1];
+        double[] logWeights = new double[bins];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int bin = 0; bin < bins; bin++) {
+            logWeights[bin] = -enthalpies[bin] / temp - logDenominators[bin];
+            max = Math.max(max, logWeights[bin]);
+        }
+        double[] averages = new double[SUMS];
+        for (int bin = 0; bin < bins; bin++) {
+            double weight = Math.exp(logWeights[bin] - max);
+            for (int i = 0; i < SUMS; i++) {
+                int index = bin * SUMS + i;
+                averages[i] += weight * (totals[index] - (leftOut < 0 ? 0 : groupSums[leftOut][index]));
+            }
+        }
+        for (int i = SUMS - 1; i >= 0; i--)
+            averages[i] /= averages[Histogram.COUNT];
+        double gibbs = Lattice.gibbs(temp);
+        double magnetism = averages[Histogram.MAGNETISM];
+        double energy = averages[Histogram.ENTHALPY] - temp * Lattice.DELTA_S * magnetism;
+        double energySquared = Position.count() * gibbs * gibbs + 2.0 * gibbs * averages[Histogram.FIELD]
+                + averages[Histogram.FIELD_SQUARES];
+        return Result.fromAverages(temp, energy, energySquared, magnetism, averages[Histogram.ABSOLUTE_MAGNETISM],
+                averages[Histogram.MAGNETISM_SQUARED], averages[Histogram.MAGNETISM_FOURTH],
+                Double.NaN, Double.NaN, Double.NaN, samples);
+    }
+
+    private static double jackknife(double[][] estimates, int value) {
+        double mean = 0;
+        for (double[] estimate : estimates)
+            mean += estimate[value] / estimates.length;
+        double sum = 0;
+        for (double[] estimate : estimates)
+            sum += Math.pow(estimate[value] - mean, 2);
+        return Math.sqrt(sum * (estimates.length - 1) / estimates.length);
+    }
+
+    private static double logSumExp(double[] terms, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++)
+            max = Math.max(max, terms[i]);
+        if (max == Double.NEGATIVE_INFINITY)
+            return max;
+        double sum = 0;
+        for (int i = 0; i < length; i++)
+            sum += Math.exp(terms[i] - max);
+        return max + Math.log(sum);
+    }
+}
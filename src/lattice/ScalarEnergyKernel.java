@@ -0,0 +1,36 @@
+package lattice;
+
+/**
+ * Energy kernel that sums the interactions of each particle one at a time.
+ */
+final class ScalarEnergyKernel implements EnergyKernel {
+    private final Neighbourhood.Table within;
+    private final Neighbourhood.Table couplings;
+    private final long[] fieldWeights;
+
+    ScalarEnergyKernel(Neighbourhood neighbourhood) {
+        this.within = neighbourhood.within;
+        this.couplings = neighbourhood.couplings;
+        this.fieldWeights = neighbourhood.fieldWeights;
+    }
+
+    @Override
+    public void calculate(double[] spins, double gibbs, double[] energies, long[] fields, int from, int to) {
+        int[] offsets = within.offsets();
+        int[] indices = within.indices();
+        double[] weights = within.weights();
+        int[] coupled = couplings.indices();
+        for (int site = from; site < to; site++) {
+            double field = 0;
+            int shift = within.shift(site);
+            for (int n = offsets[site]; n < offsets[site + 1]; n++)
+                field += spins[indices[n]] * weights[n + shift];
+            energies[site] = spins[site] * (gibbs + field);
+            long units = 0;
+            int couplingShift = couplings.shift(site);
+            for (int n = couplings.offsets()[site]; n < couplings.offsets()[site + 1]; n++)
+                units += (long) spins[coupled[n]] * fieldWeights[n + couplingShift];
+            fields[site] = units;
+        }
+    }
+}
@@ -2,50 +2,383 @@ package lattice;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Controller for simulations of a pyrochlore lattice. Each simulation step involves potentially * flipping the spin of
  * a random particle. The simulation supports warming up the lattice to allow it to reach an equilibrium state. Each
  * separate simulation then consists of setting the lattice temperature, running a smaller number of warm up iterations
  * and then executing a number of iterations while recording the state of the lattice.
+ * <p>
+ * The state of the lattice after each step is folded into running {@link Observables} rather than stored. The full
+ * history of states can be kept for debugging by calling {@link #setKeepHistory(boolean)}, and a {@link Histogram} of
+ * the states can be kept for {@link Reweighting} by calling {@link #setKeepHistogram(boolean)}.
+ * <p>
+ * By default each step attempts to flip a single random particle. Calling {@link #setParallelism(int, long)} instead
+ * runs the iterations as whole {@link ParallelMetropolis} sweeps across several threads, with each sweep counting as
+ * one iteration per particle and the state recorded once per sweep, which records too few states to be used with a
+ * {@link Precision}, and whose binning starts from single states rather than blocks. Calling
+ * {@link #setRejectionFree(boolean)} instead runs the iterations with an {@link NFoldWay}, which skips the rejected
+ * flips where most are rejected and records each state once, weighted by the number of steps it lasts.
+ * <p>
+ * With a {@link Precision} set, the iteration counts become minimums. Each warm up continues, up to the maximum number
+ * of iterations, until the mean energy of its last two blocks of steps agree within twice their combined error. Each
+ * simulation then continues until the relative error of the energy, magnetism and heat capacity are all within the
+ * target, or the maximum is reached. The relative error of the magnetism is taken against the absolute magnetism, since
+ * the magnetism itself averages to zero above the transition.
+ * <p>
+ * A listener set with {@link #setPartialResults(Consumer)} receives the running result of each simulation while it is
+ * being recorded, at most once per {@link #PARTIAL_INTERVAL_NANOS}, so that long simulations can be followed live.
+ * <p>
+ * Each warm up and each set of recorded steps is timed and its flips counted into the {@link SimulationMetrics}, and
+ * emitted as a {@link PhaseEvent}, with a {@link PointEvent} for the whole simulation at each temperature.
  */
 public class Simulation {
     private final static int INITIAL_WARM_UP_ITERATIONS = Position.count() * 20;
-    public final static int SIMULATION_ITERATIONS = Position.count() * 25;
+    public final static int SIMULATION_ITERATIONS = Position.count() * 4000;
     private final static int FOLLOWING_WARM_UP_ITERATIONS = Position.count() * 5;
+    public final static long PARTIAL_INTERVAL_NANOS = 100_000_000L;
+    private final static int PARTIAL_CHECK_MASK = 255;
 
-    private final Lattice lattice = new Lattice();
+    private final Lattice lattice;
+    private Iterations iterations = Iterations.DEFAULT;
+    private boolean keepHistory = false;
+    private List<State> history = List.of();
+    private boolean keepHistogram = false;
+    private Optional<Histogram> histogram = Optional.empty();
+    private Optional<ParallelMetropolis> parallel = Optional.empty();
+    private Optional<NFoldWay> nFoldWay = Optional.empty();
+    private Optional<Precision> precision = Optional.empty();
+    private Optional<PartialResults> partialResults = Optional.empty();
+
+    public Simulation() {
+        this(new Lattice());
+    }
+
+    /**
+     * Constructs a simulation of an existing lattice, which allows the simulation to start from an equilibrium state
+     * reached by another simulation.
+     *
+     * @param lattice the lattice to simulate
+     */
+    public Simulation(Lattice lattice) {
+        this.lattice = lattice;
+    }
+
+    /**
+     * Numbers of steps in each phase of a simulation.
+     *
+     * @param initialWarmUp the number of steps in the warm up before the first simulation
+     * @param followingWarmUp the number of steps before recording starts in each simulation
+     * @param simulation the number of steps that are recorded in each simulation
+     */
+    public record Iterations(int initialWarmUp, int followingWarmUp, int simulation) {
+        public static final Iterations DEFAULT = new Iterations(
+                INITIAL_WARM_UP_ITERATIONS, FOLLOWING_WARM_UP_ITERATIONS, SIMULATION_ITERATIONS);
+
+        public Iterations {
+            if (initialWarmUp < 0 || followingWarmUp < 0 || simulation <= 0)
+                throw new IllegalArgumentException("Illegal iteration counts");
+        }
+    }
+
+    /**
+     * Target precision for adaptive simulations.
+     *
+     * @param relativeError the target relative standard error of the energy, magnetism and heat capacity
+     * @param maxIterations the maximum number of steps in each warm up and in each simulation
+     */
+    public record Precision(double relativeError, int maxIterations) {
+        public Precision {
+            if (!(relativeError > 0) || maxIterations <= 0)
+                throw new IllegalArgumentException("Illegal precision");
+        }
+    }
 
     public Lattice getMatrix() {
         return lattice;
     }
 
+    public void setIterations(Iterations iterations) {
+        this.iterations = iterations;
+    }
+
+    public Iterations getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets a target precision, which makes the lengths of warm ups and simulations adaptive.
+     *
+     * @param precision the target precision
+     * @throws IllegalStateException if parallel sweeps are set, since recording once per sweep gives too few samples
+     *                               to estimate the errors
+     */
+    public void setPrecision(Precision precision) {
+        if (parallel.isPresent())
+            throw new IllegalStateException("A precision cannot be used with parallel sweeps");
+        this.precision = Optional.of(precision);
+    }
+
+    public Optional<Precision> getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets a listener for the running results of each simulation. The clock is only checked every 256 recorded steps,
+     * so the listener adds almost nothing to the cost of a step. It is called by the thread running the simulation.
+     *
+     * @param listener receives the result of the steps recorded so far
+     */
+    public void setPartialResults(Consumer<Result> listener) {
+        this.partialResults = Optional.of(new PartialResults(listener));
+    }
+
+    /**
+     * Sets whether the state of the lattice after each step of a simulation is kept.
+     *
+     * @param keepHistory true, if the history should be kept
+     */
+    public void setKeepHistory(boolean keepHistory) {
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * Gets the states of the lattice after each step of the last simulation. The history is only kept if
+     * {@link #setKeepHistory(boolean)} was set before the simulation was run.
+     *
+     * @return the ordered list of lattice states, or an empty list if the history was not kept
+     */
+    public List<State> getHistory() {
+        return history;
+    }
+
+    /**
+     * Sets whether a histogram of the states of the lattice recorded by each simulation is kept.
+     *
+     * @param keepHistogram true, if the histogram should be kept
+     */
+    public void setKeepHistogram(boolean keepHistogram) {
+        this.keepHistogram = keepHistogram;
+    }
+
+    /**
+     * Gets the histogram of the states recorded by the last simulation. The histogram is only kept if
+     * {@link #setKeepHistogram(boolean)} was set before the simulation was run.
+     *
+     * @return the histogram, or empty if it was not kept
+     */
+    public Optional<Histogram> getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Sets the number of threads used to update the lattice. A single thread uses random single particle flips, while
+     * more threads use parallel sweeps, which replace any n-fold way.
+     *
+     * @param threads the number of threads
+     * @param seed the seed for the random number streams of a parallel sweep
+     * @throws IllegalStateException if more than one thread is set with a precision, since recording once per sweep
+     *                               gives too few samples to estimate the errors
+     */
+    public void setParallelism(int threads, long seed) {
+        if (threads > 1 && precision.isPresent())
+            throw new IllegalStateException("Parallel sweeps cannot be used with a precision");
+        parallel.ifPresent(ParallelMetropolis::close);
+        parallel = threads > 1 ? Optional.of(new ParallelMetropolis(lattice, threads, seed)) : Optional.empty();
+        if (parallel.isPresent())
+            nFoldWay = Optional.empty();
+    }
+
+    /**
+     * Sets whether the lattice is updated by an {@link NFoldWay}, which switches between rejection-free flips and
+     * single random flips by the acceptance ratio. This replaces any parallel sweeps.
+     *
+     * @param rejectionFree true, if the n-fold way should be used where it is faster
+     */
+    public void setRejectionFree(boolean rejectionFree) {
+        nFoldWay = rejectionFree ? Optional.of(nFoldWay.orElseGet(() -> new NFoldWay(lattice))) : Optional.empty();
+        if (rejectionFree) {
+            parallel.ifPresent(ParallelMetropolis::close);
+            parallel = Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the n-fold way updating the lattice, if {@link #setRejectionFree(boolean)} is set.
+     *
+     * @return the n-fold way
+     */
+    public Optional<NFoldWay> getNFoldWay() {
+        return nFoldWay;
+    }
+
     /**
      * Allows the lattice to reach an equilibrium state before starting the initial simulation.
      */
     public void warmup(double temp) {
         lattice.setTemp(temp);
-        for (int i = 0; i < INITIAL_WARM_UP_ITERATIONS; i++) {
-            lattice.randomFlip();
-        }
+        phase(SimulationMetrics.Phase.WARM_UP, temp, () -> warmUp(iterations.initialWarmUp()));
     }
 
     /**
      * Runs a simulation of the lattice at a given temperature.
      *
      * @param temp the temperature to set the lattice to before running the simulation.
-     * @return the ordered list of lattice states after each simulation step
+     * @return the results aggregated over all simulation steps
      */
-    public List<State> simulate(double temp) {
-        List<State> history = new ArrayList<>();
+    public Result simulate(double temp) {
+        PointEvent event = new PointEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Lattice.Counters before = lattice.getCounters();
+        Observables observables = parallel.isPresent() ? new Observables(1) : new Observables();
+        history = keepHistory ? new ArrayList<>(iterations.simulation()) : List.of();
+        histogram = keepHistogram ? Optional.of(new Histogram(temp)) : Optional.empty();
         lattice.setTemp(temp);
-        for (int i = 0; i < FOLLOWING_WARM_UP_ITERATIONS; i++) {
-            lattice.randomFlip();
+        long warmUpNanos = phase(SimulationMetrics.Phase.WARM_UP, temp, () -> warmUp(iterations.followingWarmUp()));
+        long samplingNanos = phase(SimulationMetrics.Phase.SAMPLING, temp, () -> sample(temp, observables));
+        Result result = Result.calculate(temp, observables);
+        SimulationMetrics.get().recordPoint(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            Lattice.Counters counters = lattice.getCounters().minus(before);
+            event.temperature = temp;
+            event.attempts = counters.attempts();
+            event.flips = counters.flips();
+            event.acceptanceRatio = counters.acceptanceRatio();
+            event.warmUpTime = warmUpNanos;
+            event.samplingTime = samplingNanos;
+            event.recalculations = counters.recalculations();
+            event.recalculationTime = counters.recalculationNanos();
+            event.samples = observables.getCount();
+            event.keptStates = history.size();
+            event.energy = result.averageEnergy();
+            event.energyError = result.energyError();
+            event.energyAutocorrelationTime = observables.energyAutocorrelationTime();
+            event.magnetismAutocorrelationTime = observables.magnetismAutocorrelationTime();
+            event.commit();
         }
-        for (int i = 0; i < SIMULATION_ITERATIONS; i++) {
-            lattice.randomFlip();
-            history.add(lattice.getState());
+        return result;
+    }
+
+    /**
+     * Records the steps of a simulation, extending them until the precision is reached if one is set.
+     */
+    private void sample(double temp, Observables observables) {
+        ObjLongConsumer<Lattice> recorder = (l, times) -> {
+            long before = observables.getCount();
+            observables.add(l, times);
+            for (long i = 0; keepHistory && i < times; i++)
+                history.add(l.getState());
+            if (keepHistogram)
+                histogram.get().add(l, times);
+            if (partialResults.isPresent() && (before | PARTIAL_CHECK_MASK) < observables.getCount())
+                partialResults.get().offer(listener -> listener.accept(Result.calculate(temp, observables)));
+        };
+        int spent = run(iterations.simulation(), recorder);
+        if (precision.isPresent()) {
+            while (spent < precision.get().maxIterations() && !isPrecise(temp, observables)) {
+                int extension = Math.max(Position.count(), spent / 10);
+                spent += run(Math.min(extension, precision.get().maxIterations() - spent), recorder);
+            }
+        }
+    }
+
+    /**
+     * Runs a phase of a simulation, recording its time and the flips made into the metrics and a flight recorder
+     * event.
+     *
+     * @return the elapsed time of the phase in nanoseconds
+     */
+    private long phase(SimulationMetrics.Phase phase, double temp, Runnable steps) {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        Lattice.Counters before = lattice.getCounters();
+        long start = System.nanoTime();
+        steps.run();
+        long nanos = System.nanoTime() - start;
+        Lattice.Counters counters = lattice.getCounters().minus(before);
+        SimulationMetrics.get().recordPhase(phase, temp, nanos, counters);
+        if (event.shouldCommit()) {
+            event.set(phase, temp, counters);
+            event.commit();
+        }
+        return nanos;
+    }
+
+    /**
+     * Warms up the lattice at its current temperature. With a precision set, the warm up is split into blocks of at
+     * least enough steps for a binning error, and continues until the last two blocks agree. A block whose steps are
+     * too correlated to give a binning error is followed by one twice as long.
+     */
+    private void warmUp(int minimum) {
+        if (precision.isEmpty()) {
+            run(minimum, (l, times) -> {
+            });
+            return;
+        }
+        int block = Math.max((minimum + 1) / 2, Position.count() * Binning.MIN_BLOCKS);
+        Observables previous = new Observables();
+        int spent = run(block, previous::add);
+        while (spent < precision.get().maxIterations()) {
+            Observables last = new Observables();
+            spent += run(block, last::add);
+            if (isEquilibrated(previous, last))
+                return;
+            if (Double.isNaN(last.getBinning().error(Observables.ENERGY)))
+                block = (int) Math.min(2L * block, precision.get().maxIterations());
+            previous = last;
+        }
+    }
+
+    private static boolean isEquilibrated(Observables previous, Observables last) {
+        double difference = Math.abs(previous.averageEnergy() - last.averageEnergy());
+        double error = Math.hypot(previous.getBinning().error(Observables.ENERGY),
+                last.getBinning().error(Observables.ENERGY));
+        return difference <= 2 * error;
+    }
+
+    private boolean isPrecise(double temp, Observables observables) {
+        Result result = Result.calculate(temp, observables);
+        double target = precision.orElseThrow().relativeError();
+        return isWithin(result.energyError(), result.averageEnergy(), target)
+                && isWithin(result.magnetismError(), result.averageAbsoluteMagnetism(), target)
+                && isWithin(result.heatCapacityError(), result.averageHeatCapacity(), target);
+    }
+
+    /**
+     * Tests whether an error meets a relative target. This is the stopping rule of a simulation with a precision, which
+     * extends the simulation by a tenth at a time until it holds for each observable.
+     */
+    static boolean isWithin(double error, double value, double target) {
+        return error == 0 || error <= target * Math.abs(value);
+    }
+
+    /**
+     * Runs a number of iterations, recording the lattice after each step with the number of consecutive steps that
+     * left it in the same state.
+     *
+     * @return the number of iterations run, which for parallel sweeps is rounded up to a whole number of sweeps
+     */
+    private int run(int iterations, ObjLongConsumer<Lattice> recorder) {
+        if (parallel.isPresent()) {
+            int i = 0;
+            for (; i < iterations; i += Position.count()) {
+                parallel.get().sweep();
+                recorder.accept(lattice, 1);
+            }
+            return i;
+        } else if (nFoldWay.isPresent()) {
+            nFoldWay.get().run(iterations, recorder);
+            return iterations;
+        } else {
+            for (int i = 0; i < iterations; i++) {
+                lattice.step();
+                recorder.accept(lattice, 1);
+            }
+            return iterations;
         }
-        return history;
     }
 }
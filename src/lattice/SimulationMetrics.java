@@ -0,0 +1,193 @@
+package lattice;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters and histograms of the work done by all simulations in the process, exposed through JMX as a
+ * {@link SimulationMetricsMXBean}. The single instance is registered with the platform MBean server when the class is
+ * initialised.
+ * <p>
+ * The counters are updated once per phase of a simulation and once per full recalculation of a lattice, never per
+ * step, so they can be left on. Lattices count their own flips in plain fields, and a {@link Simulation} adds the
+ * difference over each phase here. The same values are emitted as {@link PhaseEvent} and {@link PointEvent} flight
+ * recorder events, which give the breakdown of each temperature.
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+    public final static String OBJECT_NAME = "lattice:type=SimulationMetrics";
+    private final static int HISTOGRAM_BUCKETS = 32;
+    private final static SimulationMetrics INSTANCE = register(new SimulationMetrics());
+
+    /**
+     * The phases into which the time of a simulation at each temperature is split.
+     */
+    public enum Phase {
+        WARM_UP("warm-up"),
+        SAMPLING("sampling");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final LongAdder points = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder flips = new LongAdder();
+    private final LongAdder warmUpNanos = new LongAdder();
+    private final LongAdder samplingNanos = new LongAdder();
+    private final LongAdder recalculations = new LongAdder();
+    private final LongAdder recalculationNanos = new LongAdder();
+    private final ConcurrentSkipListMap<Double, Lattice.Counters> byTemp = new ConcurrentSkipListMap<>();
+    private final AtomicLongArray pointMillis = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray recalculationMicros = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    private SimulationMetrics() {
+    }
+
+    public static SimulationMetrics get() {
+        return INSTANCE;
+    }
+
+    private static SimulationMetrics register(SimulationMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register simulation metrics", e);
+        }
+        return metrics;
+    }
+
+    /**
+     * Records a phase of a simulation.
+     *
+     * @param phase the phase
+     * @param temp the temperature of the lattice
+     * @param nanos the elapsed time of the phase
+     * @param counters the flips made during the phase, excluding recalculations which are recorded as they happen
+     */
+    void recordPhase(Phase phase, double temp, long nanos, Lattice.Counters counters) {
+        attempts.add(counters.attempts());
+        flips.add(counters.flips());
+        (phase == Phase.WARM_UP ? warmUpNanos : samplingNanos).add(nanos);
+        byTemp.merge(temp, new Lattice.Counters(counters.attempts(), counters.flips(), 0, 0), Lattice.Counters::plus);
+    }
+
+    /**
+     * Records the completion of the simulation at a temperature.
+     *
+     * @param nanos the elapsed time of the simulation, including its warm up
+     */
+    void recordPoint(long nanos) {
+        points.increment();
+        pointMillis.incrementAndGet(bucket(nanos / 1_000_000));
+    }
+
+    void recordRecalculation(long nanos) {
+        recalculations.increment();
+        recalculationNanos.add(nanos);
+        recalculationMicros.incrementAndGet(bucket(nanos / 1_000));
+    }
+
+    /**
+     * Gets the bucket of a histogram for a value: 0 for no value, otherwise one more than the position of its highest
+     * set bit, so each bucket is twice as wide as the previous.
+     */
+    private static int bucket(long value) {
+        return Math.min(HISTOGRAM_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, value)));
+    }
+
+    @Override
+    public long getPoints() {
+        return points.sum();
+    }
+
+    @Override
+    public long getAttemptedFlips() {
+        return attempts.sum();
+    }
+
+    @Override
+    public long getAcceptedFlips() {
+        return flips.sum();
+    }
+
+    @Override
+    public double getAcceptanceRatio() {
+        long attempted = attempts.sum();
+        return attempted == 0 ? Double.NaN : (double) flips.sum() / attempted;
+    }
+
+    @Override
+    public double getFlipsPerSecond() {
+        long nanos = warmUpNanos.sum() + samplingNanos.sum();
+        return nanos == 0 ? 0 : attempts.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getWarmUpNanos() {
+        return warmUpNanos.sum();
+    }
+
+    @Override
+    public long getSamplingNanos() {
+        return samplingNanos.sum();
+    }
+
+    @Override
+    public long getRecalculations() {
+        return recalculations.sum();
+    }
+
+    @Override
+    public long getRecalculationNanos() {
+        return recalculationNanos.sum();
+    }
+
+    @Override
+    public SortedMap<Double, Double> getAcceptanceRatios() {
+        SortedMap<Double, Double> ratios = new TreeMap<>();
+        byTemp.forEach((temp, counters) -> ratios.put(temp, counters.acceptanceRatio()));
+        return ratios;
+    }
+
+    @Override
+    public long[] getPointMillisHistogram() {
+        return toArray(pointMillis);
+    }
+
+    @Override
+    public long[] getRecalculationMicrosHistogram() {
+        return toArray(recalculationMicros);
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = histogram.get(i);
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{points, attempts, flips, warmUpNanos, samplingNanos, recalculations,
+                recalculationNanos})
+            adder.reset();
+        byTemp.clear();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            pointMillis.set(i, 0);
+            recalculationMicros.set(i, 0);
+        }
+    }
+}
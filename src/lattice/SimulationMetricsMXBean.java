@@ -0,0 +1,57 @@
+package lattice;
+
+import java.util.SortedMap;
+
+/**
+ * Management interface of the {@link SimulationMetrics}, registered with the platform MBean server as
+ * {@value SimulationMetrics#OBJECT_NAME}. Times are totals over all simulation threads.
+ */
+public interface SimulationMetricsMXBean {
+    long getPoints();
+
+    long getAttemptedFlips();
+
+    long getAcceptedFlips();
+
+    double getAcceptanceRatio();
+
+    /**
+     * Gets the rate at which flips have been attempted by each simulation thread, on average.
+     *
+     * @return the number of flips attempted per second of warm up and sampling time
+     */
+    double getFlipsPerSecond();
+
+    long getWarmUpNanos();
+
+    long getSamplingNanos();
+
+    long getRecalculations();
+
+    long getRecalculationNanos();
+
+    /**
+     * Gets the acceptance ratio of the flips attempted at each temperature simulated.
+     *
+     * @return the ratio by temperature
+     */
+    SortedMap<Double, Double> getAcceptanceRatios();
+
+    /**
+     * Gets a histogram of the time taken to simulate each temperature. Bucket 0 counts the points that took less than
+     * a millisecond and bucket {@code n} those that took from {@code 2^(n-1)} to {@code 2^n} milliseconds.
+     *
+     * @return the count in each bucket
+     */
+    long[] getPointMillisHistogram();
+
+    /**
+     * Gets a histogram of the time taken by each full recalculation of a lattice, in buckets of microseconds as for
+     * {@link #getPointMillisHistogram()}.
+     *
+     * @return the count in each bucket
+     */
+    long[] getRecalculationMicrosHistogram();
+
+    void reset();
+}
@@ -0,0 +1,11 @@
+package lattice;
+
+/**
+ * Metropolis move that attempts to flip the spin of a single random particle.
+ */
+public class SingleFlip implements Move {
+    @Override
+    public void apply(Lattice lattice) {
+        lattice.randomFlip();
+    }
+}
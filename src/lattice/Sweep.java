@@ -0,0 +1,589 @@
+package lattice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Simulation of the lattice across a range of temperatures, with the temperatures shared between a number of
+ * independent lattices that are simulated in parallel.
+ * <p>
+ * The range is split into contiguous chunks, one per thread. A single lattice is first warmed up at the lowest
+ * temperature and each chunk starts from a copy of it, warming up again at the first temperature of the chunk. Each
+ * point within a chunk then starts from the state left by the previous point, as a single simulation of the whole range
+ * would. Results are published in temperature order as each point completes.
+ * <p>
+ * Each lattice is given a new random number generator, seeded from the seed of the sweep, before each warm up and each
+ * point, so a sweep with the same seed, generator algorithm and parallelism can be reproduced. This also means the
+ * spins of each lattice are all that is needed to resume a sweep from a {@link Checkpoint}, if one is set with
+ * {@link #setCheckpoint(Path)}.
+ * <p>
+ * With {@link #setKeepHistograms(boolean)} set, the {@link Histogram} of each point is kept so that the results can be
+ * interpolated between the temperatures simulated by a {@link Reweighting}.
+ * <p>
+ * With a {@link ResultCache} set by {@link #setCache(ResultCache)}, the points already in the cache are published as
+ * soon as the sweep starts, and a chunk carries on from the spins cached with the last point before each one it has to
+ * simulate, so only missing points are simulated. The warm ups are skipped when they are not needed.
+ * <p>
+ * With {@link #setMultiSpin(boolean)} set, each chunk instead simulates an ensemble of replicas with a
+ * {@link MultiSpinSimulation}, and each result averages over the replicas. With {@link #setRejectionFree(boolean)} set,
+ * each lattice is updated by an {@link NFoldWay} at the temperatures where most flips are rejected. With
+ * {@link #setReplicaExchange(boolean)} set, the whole range is instead simulated by a single {@link ReplicaExchange},
+ * with one lattice at each temperature. With {@link #setLatticeThreads(int)} set, each chunk updates its lattice by
+ * {@link ParallelMetropolis} sweeps across that many threads of its own, so a large lattice can use more cores than
+ * there are chunks. With a {@link Move} set by {@link #setMove(Supplier)}, each step of each lattice applies that move
+ * rather than a single random flip.
+ */
+public class Sweep {
+    public final static String DEFAULT_GENERATOR = "SplittableRandom";
+    private final double tempMin;
+    private final double tempMax;
+    private final double tempStep;
+    private final int parallelism;
+    private final List<Double> temps = new ArrayList<>();
+    private final Simulation first = new Simulation();
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private Simulation.Iterations iterations = Simulation.Iterations.DEFAULT;
+    private Optional<Simulation.Precision> precision = Optional.empty();
+    private long seed = new Random().nextLong();
+    private RandomGeneratorFactory<RandomGenerator> generators = RandomGeneratorFactory.of(DEFAULT_GENERATOR);
+    private Optional<Path> checkpointFile = Optional.empty();
+    private Optional<ResultCache> cache = Optional.empty();
+    private Optional<Consumer<Result>> partialResults = Optional.empty();
+    private boolean keepHistograms = false;
+    private boolean multiSpin = false;
+    private boolean rejectionFree = false;
+    private boolean replicaExchange = false;
+    private int latticeThreads = 1;
+    private Optional<Supplier<Move>> moves = Optional.empty();
+    private double[] exchangeAcceptanceRates = new double[0];
+    private Histogram[] histograms = new Histogram[0];
+
+    /**
+     * Constructs a sweep using one thread per available processor.
+     */
+    public Sweep(double tempMin, double tempMax, double tempStep) {
+        this(tempMin, tempMax, tempStep, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a sweep of a range of temperatures.
+     *
+     * @param tempMin the first temperature in the range
+     * @param tempMax the maximum temperature in the range
+     * @param tempStep the difference between successive temperatures
+     * @param parallelism the maximum number of lattices to simulate at once
+     */
+    public Sweep(double tempMin, double tempMax, double tempStep, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.tempMin = tempMin;
+        this.tempMax = tempMax;
+        this.tempStep = tempStep;
+        this.parallelism = parallelism;
+        for (double temp = tempMin; temp <= tempMax; temp += tempStep)
+            temps.add(temp);
+    }
+
+    public double getTempMin() {
+        return tempMin;
+    }
+
+    public double getTempMax() {
+        return tempMax;
+    }
+
+    public double getTempStep() {
+        return tempStep;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setIterations(Simulation.Iterations iterations) {
+        this.iterations = iterations;
+    }
+
+    public Simulation.Iterations getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets a target precision for the simulation of each temperature, which makes the iteration counts minimums.
+     *
+     * @param precision the target precision
+     * @see Simulation#setPrecision(Simulation.Precision)
+     */
+    public void setPrecision(Simulation.Precision precision) {
+        this.precision = Optional.of(precision);
+    }
+
+    public Optional<Simulation.Precision> getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the seed for the random number generators of the lattices. By default a random seed is used.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the algorithm of the random number generators of the lattices, such as {@code "L64X128MixRandom"} or
+     * {@code "Xoshiro256PlusPlus"}. By default {@link #DEFAULT_GENERATOR} is used.
+     *
+     * @param algorithm the name of the algorithm
+     * @throws IllegalArgumentException if the algorithm is not available
+     */
+    public void setGenerator(String algorithm) {
+        this.generators = RandomGeneratorFactory.of(algorithm);
+    }
+
+    public String getGenerator() {
+        return generators.name();
+    }
+
+    /**
+     * Sets a file to checkpoint the progress of the sweep to. If the file already holds a checkpoint of a sweep with
+     * the same parameters that finished its initial warm up, the sweep resumes from it using the seed of the original
+     * sweep. Otherwise the sweep starts afresh.
+     *
+     * @param file the checkpoint file
+     */
+    public void setCheckpoint(Path file) {
+        this.checkpointFile = Optional.of(file);
+    }
+
+    /**
+     * Sets a cache to serve points from and to save simulated points to. A sweep with a cache cannot also have a
+     * checkpoint, and keeps no histograms for the points served from the cache.
+     *
+     * @param cache the cache
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = Optional.of(cache);
+    }
+
+    /**
+     * Sets whether each chunk simulates a {@link MultiSpinLattice} of {@link MultiSpinLattice#REPLICAS} replicas
+     * rather than a single lattice, so that each result averages over the replicas. A multi-spin sweep has no
+     * checkpoint, cache, histograms or precision.
+     *
+     * @param multiSpin true, if the sweep should simulate ensembles of replicas
+     */
+    public void setMultiSpin(boolean multiSpin) {
+        this.multiSpin = multiSpin;
+    }
+
+    /**
+     * Sets whether each lattice is updated by an {@link NFoldWay}, which switches to rejection-free flips where the
+     * acceptance ratio is low. The results have the same distribution either way, but differ for the same seed.
+     *
+     * @param rejectionFree true, if the lattices should use the n-fold way
+     * @see Simulation#setRejectionFree(boolean)
+     */
+    public void setRejectionFree(boolean rejectionFree) {
+        this.rejectionFree = rejectionFree;
+    }
+
+    public boolean isRejectionFree() {
+        return rejectionFree;
+    }
+
+    /**
+     * Sets the number of threads that update the lattice of each chunk. With more than one, each chunk runs
+     * {@link ParallelMetropolis} sweeps, recording the lattice once per sweep, and the sweep as a whole uses up to its
+     * parallelism times this many threads. A sweep with parallel lattices has no checkpoint, cache, precision, multi-spin
+     * ensembles, replica exchange or n-fold way.
+     *
+     * @param latticeThreads the number of threads, which must be positive
+     * @see Simulation#setParallelism(int, long)
+     */
+    public void setLatticeThreads(int latticeThreads) {
+        if (latticeThreads <= 0)
+            throw new IllegalArgumentException("Lattice threads must be positive");
+        this.latticeThreads = latticeThreads;
+    }
+
+    public int getLatticeThreads() {
+        return latticeThreads;
+    }
+
+    /**
+     * Sets the move applied by each step of the lattices, such as a {@link ClusterFlip}, in place of the default
+     * {@link SingleFlip}. Each iteration applies the move once. Moves may hold working storage, so each lattice is
+     * given its own. A sweep with a move has no checkpoint, cache, multi-spin ensembles, replica exchange, n-fold way or
+     * parallel lattices, which either flip single particles themselves or do not record the move.
+     *
+     * @param moves creates the move of each lattice
+     */
+    public void setMove(Supplier<Move> moves) {
+        this.moves = Optional.of(moves);
+    }
+
+    /**
+     * Sets whether the range is simulated by a {@link ReplicaExchange}, with a lattice at every temperature that
+     * exchanges configurations with its neighbours, rather than by chunks of single lattices. Every replica warms up
+     * for the initial warm up iterations and then records the simulation iterations, so every point completes at once.
+     * A replica exchange sweep has no checkpoint, cache, histograms, precision, multi-spin ensembles or n-fold way.
+     *
+     * @param replicaExchange true, if the sweep should exchange configurations between temperatures
+     */
+    public void setReplicaExchange(boolean replicaExchange) {
+        this.replicaExchange = replicaExchange;
+    }
+
+    /**
+     * Gets the proportion of attempted exchanges accepted between each pair of neighbouring temperatures, once a
+     * replica exchange sweep has been run.
+     *
+     * @return the acceptance rate for the pair with each lower temperature index, or an empty array if the sweep did
+     *         not exchange configurations
+     * @see ReplicaExchange#getAcceptanceRates()
+     */
+    public double[] getExchangeAcceptanceRates() {
+        return exchangeAcceptanceRates.clone();
+    }
+
+    /**
+     * Sets a listener for the running results of each point while it is being simulated. The listener is called by the
+     * threads simulating the chunks of the range, possibly at the same time, so it must be thread-safe.
+     *
+     * @param listener receives the result of the steps recorded so far at a temperature
+     * @see Simulation#setPartialResults(Consumer)
+     */
+    public void setPartialResults(Consumer<Result> listener) {
+        this.partialResults = Optional.of(listener);
+    }
+
+    /**
+     * Sets whether the histogram of the states recorded at each temperature is kept.
+     *
+     * @param keepHistograms true, if the histograms should be kept
+     * @see Simulation#setKeepHistogram(boolean)
+     */
+    public void setKeepHistograms(boolean keepHistograms) {
+        this.keepHistograms = keepHistograms;
+    }
+
+    /**
+     * Gets the histograms of the states recorded at each temperature, which are only kept if
+     * {@link #setKeepHistograms(boolean)} was set before the sweep was run.
+     *
+     * @return the histograms in temperature order
+     * @throws IllegalStateException if a histogram was not kept, including for points restored from a checkpoint
+     */
+    public List<Histogram> getHistograms() {
+        if (histograms.length < temps.size() || Arrays.asList(histograms).contains(null))
+            throw new IllegalStateException("Histograms were not kept for every temperature");
+        return List.of(histograms);
+    }
+
+    public List<Double> getTemps() {
+        return List.copyOf(temps);
+    }
+
+    /**
+     * Gets the lattice used for the lowest temperatures in the sweep.
+     *
+     * @return the lattice of the first chunk
+     */
+    public Lattice getLattice() {
+        return first.getMatrix();
+    }
+
+    /**
+     * Runs the simulation at every temperature in the range. A sweep can only be run once.
+     *
+     * @param progress receives the results completed so far, in temperature order, each time a point completes; it is
+     *                 called by one thread at a time
+     * @return the results for every temperature in the range, in temperature order
+     * @throws InterruptedException if the thread is interrupted while waiting for the simulations to complete
+     */
+    public List<Result> run(Consumer<List<Result>> progress) throws InterruptedException {
+        Result[] results = new Result[temps.size()];
+        histograms = new Histogram[temps.size()];
+        if (results.length == 0)
+            return List.of();
+        int chunks = Math.min(parallelism, temps.size());
+        if (replicaExchange)
+            return runReplicaExchange(progress);
+        if (multiSpin)
+            return runMultiSpin(chunks, progress);
+        if (cache.isPresent() && checkpointFile.isPresent())
+            throw new IllegalStateException("A sweep cannot have both a cache and a checkpoint");
+        if (latticeThreads > 1 && (checkpointFile.isPresent() || cache.isPresent() || precision.isPresent()
+                || rejectionFree))
+            throw new IllegalStateException("A sweep with parallel lattices cannot have a checkpoint, cache, precision "
+                    + "or n-fold way");
+        if (moves.isPresent() && (checkpointFile.isPresent() || cache.isPresent() || rejectionFree
+                || latticeThreads > 1))
+            throw new IllegalStateException("A sweep with a move cannot have a checkpoint, cache, n-fold way or "
+                    + "parallel lattices");
+        List<Simulation> simulations = new ArrayList<>();
+        ResultCache.Entry[] cached = readCache(chunks);
+        Optional<Checkpoint> checkpoint = openCheckpoint(chunks);
+        try {
+            boolean resumed = checkpoint.map(Checkpoint::isResumed).orElse(false);
+            checkpoint.ifPresent(saved -> seed = saved.getSeed());
+            first.setIterations(iterations);
+            precision.ifPresent(first::setPrecision);
+            first.setRejectionFree(rejectionFree);
+            first.setParallelism(latticeThreads, random(-2 - chunks).nextLong());
+            moves.ifPresent(move -> first.getMatrix().setMove(move.get()));
+            if (resumed) {
+                for (int i = 0; i < results.length; i++)
+                    results[i] = checkpoint.get().result(i).orElse(null);
+                progress.accept(Arrays.stream(results).filter(Objects::nonNull).toList());
+            } else {
+                for (int i = 0; i < results.length; i++)
+                    results[i] = cached[i] == null ? null : cached[i].result();
+                if (cache.isPresent())
+                    progress.accept(Arrays.stream(results).filter(Objects::nonNull).toList());
+                boolean warmUp = false;
+                for (int chunk = 0; chunk < chunks; chunk++)
+                    warmUp |= cached[chunk * temps.size() / chunks] == null;
+                if (warmUp) {
+                    first.getMatrix().setRandom(random(-1));
+                    first.warmup(tempMin);
+                }
+            }
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                Simulation simulation = chunk == 0 ? first : new Simulation(new Lattice(first.getMatrix()));
+                simulation.setIterations(iterations);
+                precision.ifPresent(simulation::setPrecision);
+                simulation.setRejectionFree(rejectionFree);
+                if (chunk > 0) {
+                    simulation.setParallelism(latticeThreads, random(-2 - chunks - chunk).nextLong());
+                    moves.ifPresent(move -> simulation.getMatrix().setMove(move.get()));
+                }
+                simulations.add(simulation);
+                partialResults.ifPresent(simulation::setPartialResults);
+                simulation.setKeepHistogram(keepHistograms);
+                int from = chunk * temps.size() / chunks;
+                int to = (chunk + 1) * temps.size() / chunks;
+                if (!resumed) {
+                    int start = chunk;
+                    checkpoint.ifPresent(saved -> saved.saveChunk(start, from, simulation.getMatrix()));
+                }
+                tasks.add(chunkTask(chunk, simulation, from, to, results, cached, checkpoint, progress));
+            }
+            if (!resumed)
+                checkpoint.ifPresent(Checkpoint::start);
+            execute(tasks);
+        } finally {
+            for (Simulation simulation : simulations)
+                simulation.setParallelism(1, 0);
+            if (checkpoint.isPresent())
+                closeCheckpoint(checkpoint.get());
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Runs the tasks of the chunks at once, stopping the rest if one fails.
+     */
+    private void execute(List<Callable<Void>> tasks) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(tasks.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks)
+                futures.add(pool.submit(task));
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Simulation failed", ex.getCause());
+        } finally {
+            stopped.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the sweep as a single {@link ReplicaExchange} across the whole range, with the replicas simulated by up to
+     * the parallelism of the sweep at once. The replica starting at each temperature takes the random number stream of
+     * that point, and the exchanges take that of the initial warm up.
+     */
+    private List<Result> runReplicaExchange(Consumer<List<Result>> progress) throws InterruptedException {
+        if (checkpointFile.isPresent() || cache.isPresent() || keepHistograms || precision.isPresent() || multiSpin
+                || rejectionFree || latticeThreads > 1 || moves.isPresent())
+            throw new IllegalStateException("A replica exchange sweep cannot have a checkpoint, cache, histograms, "
+                    + "precision, multi-spin ensembles, n-fold way, parallel lattices or move");
+        ReplicaExchange exchange = new ReplicaExchange(temps, parallelism);
+        exchange.setRandom(this::random);
+        partialResults.ifPresent(exchange::setPartialResults);
+        List<Result> results = exchange.run(iterations.initialWarmUp(), iterations.simulation());
+        exchangeAcceptanceRates = exchange.getAcceptanceRates();
+        progress.accept(results);
+        return results;
+    }
+
+    /**
+     * Runs the sweep with a {@link MultiSpinSimulation} for each chunk. Each chunk warms up its own ensemble at its
+     * first temperature, since there is no single lattice to copy.
+     */
+    private List<Result> runMultiSpin(int chunks, Consumer<List<Result>> progress) throws InterruptedException {
+        if (checkpointFile.isPresent() || cache.isPresent() || keepHistograms || precision.isPresent() || rejectionFree
+                || latticeThreads > 1 || moves.isPresent())
+            throw new IllegalStateException("A multi-spin sweep cannot have a checkpoint, cache, histograms, "
+                    + "precision, n-fold way, parallel lattices or move");
+        Result[] results = new Result[temps.size()];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int start = chunk;
+            int from = chunk * temps.size() / chunks;
+            int to = (chunk + 1) * temps.size() / chunks;
+            tasks.add(() -> {
+                MultiSpinSimulation simulation = new MultiSpinSimulation();
+                simulation.setIterations(iterations);
+                partialResults.ifPresent(simulation::setPartialResults);
+                MultiSpinLattice ensemble = simulation.getEnsemble();
+                ensemble.setRandom(random(-2 - start));
+                simulation.warmup(temps.get(from));
+                for (int i = from; i < to && !stopped.get(); i++) {
+                    ensemble.setRandom(random(i));
+                    Result result = simulation.simulate(temps.get(i));
+                    synchronized (results) {
+                        results[i] = result;
+                        progress.accept(Arrays.stream(results).filter(Objects::nonNull).toList());
+                    }
+                }
+                return null;
+            });
+        }
+        execute(tasks);
+        return List.of(results);
+    }
+
+    /**
+     * Creates the task to simulate a chunk of the range. If the chunk has been checkpointed it starts from the saved
+     * spins and the next temperature. A chunk that has not yet simulated its first temperature warms up again at that
+     * temperature, unless it is the first chunk or the temperature is cached. Cached points are skipped, and the
+     * lattice is restored from the spins cached with the previous point before a point that is simulated.
+     */
+    private Callable<Void> chunkTask(int chunk, Simulation simulation, int from, int to, Result[] results,
+                                     ResultCache.Entry[] cached, Optional<Checkpoint> checkpoint,
+                                     Consumer<List<Result>> progress) {
+        Lattice lattice = simulation.getMatrix();
+        return () -> {
+            int next = from;
+            if (checkpoint.isPresent() && checkpoint.get().isResumed()) {
+                next = checkpoint.get().next(chunk).orElseThrow();
+                checkpoint.get().loadChunk(chunk, lattice);
+            }
+            if (next == from && from > 0 && cached[from] == null) {
+                lattice.setRandom(random(-2 - chunk));
+                simulation.warmup(temps.get(from));
+            }
+            for (int i = next; i < to && !stopped.get(); i++) {
+                if (cached[i] != null)
+                    continue;
+                if (i > from && cached[i - 1] != null)
+                    lattice.loadSpins(cached[i - 1].spins(), 0);
+                lattice.setRandom(random(i));
+                Result result = simulation.simulate(temps.get(i));
+                histograms[i] = simulation.getHistogram().orElse(null);
+                if (cache.isPresent())
+                    cache.get().put(cachePoint(chunk, from, i), result, lattice);
+                if (checkpoint.isPresent()) {
+                    checkpoint.get().saveResult(i, result);
+                    checkpoint.get().saveChunk(chunk, i + 1, lattice);
+                }
+                synchronized (results) {
+                    results[i] = result;
+                    progress.accept(Arrays.stream(results).filter(Objects::nonNull).toList());
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Creates the random number generator for a stage of the sweep: -1 for the initial warm up, -2 - chunk for the warm
+     * up of each chunk, -2 - chunks - chunk for the seed of the parallel sweeps of each chunk and the index of the
+     * temperature for each point.
+     */
+    private RandomGenerator random(int stage) {
+        return random(generators, seed, stage);
+    }
+
+    /**
+     * Creates the random number generator for a stage of a sweep with a seed, so that a stage simulated elsewhere, such
+     * as by a {@link Worker}, uses the same numbers.
+     */
+    static RandomGenerator random(RandomGeneratorFactory<RandomGenerator> generators, long seed, int stage) {
+        return generators.create(new SplittableRandom(seed ^ stage * 0x9E3779B97F4A7C15L).nextLong());
+    }
+
+    /**
+     * Reads the entry of each point from the cache, if there is one.
+     *
+     * @return the entries in temperature order, with null for each point that is not cached
+     */
+    private ResultCache.Entry[] readCache(int chunks) {
+        ResultCache.Entry[] cached = new ResultCache.Entry[temps.size()];
+        if (cache.isEmpty())
+            return cached;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = chunk * temps.size() / chunks;
+            int to = (chunk + 1) * temps.size() / chunks;
+            for (int i = from; i < to; i++)
+                cached[i] = cache.get().get(cachePoint(chunk, from, i)).orElse(null);
+        }
+        return cached;
+    }
+
+    private ResultCache.Point cachePoint(int chunk, int from, int index) {
+        return new ResultCache.Point(seed, generators.name(), iterations,
+                precision.map(Simulation.Precision::relativeError).orElse(0.0),
+                precision.map(Simulation.Precision::maxIterations).orElse(0), rejectionFree, tempMin, tempStep, chunk,
+                from, index, temps.get(index));
+    }
+
+    private Optional<Checkpoint> openCheckpoint(int chunks) {
+        if (checkpointFile.isEmpty())
+            return Optional.empty();
+        Checkpoint.Parameters parameters = new Checkpoint.Parameters(seed, tempMin, tempMax, tempStep, chunks,
+                temps.size(), iterations, Position.count(), Lattice.INTERACTION_DISTANCE,
+                generators.name().hashCode(), precision.map(Simulation.Precision::relativeError).orElse(0.0),
+                precision.map(Simulation.Precision::maxIterations).orElse(0), rejectionFree);
+        try {
+            return Optional.of(Checkpoint.open(checkpointFile.get(), parameters));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void closeCheckpoint(Checkpoint checkpoint) {
+        try {
+            checkpoint.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package lattice;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Energy kernel that multiplies the spins of each particle's interactions by their weights a vector at a time. The
+ * spins of a particle's interactions are first copied into a contiguous buffer, since the gathering loads of the
+ * incubating API are not reliable on every JDK 17 build. The integer field weights are held as doubles, which represent
+ * them and their sums exactly. Only created by {@link EnergyKernel#of(Neighbourhood)} when the Vector API is available.
+ * <p>
+ * The kernel is shared by every lattice and by the threads of a {@link ParallelMetropolis}, so each thread has its own
+ * buffer, allocated on its first call rather than on every call.
+ */
+final class VectorEnergyKernel implements EnergyKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private final Neighbourhood.Table within;
+    private final Neighbourhood.Table couplings;
+    private final double[] fieldWeights;
+    private final int longestRow;
+    private final ThreadLocal<double[]> buffers = ThreadLocal.withInitial(this::createBuffer);
+
+    VectorEnergyKernel(Neighbourhood neighbourhood) {
+        this.within = neighbourhood.within;
+        this.couplings = neighbourhood.couplings;
+        this.fieldWeights = Arrays.stream(neighbourhood.fieldWeights).asDoubleStream().toArray();
+        int longest = 0;
+        for (Neighbourhood.Table table : new Neighbourhood.Table[]{within, couplings}) {
+            for (int i = 0; i < table.offsets().length - 1; i++)
+                longest = Math.max(longest, table.offsets()[i + 1] - table.offsets()[i]);
+        }
+        this.longestRow = longest;
+    }
+
+    private double[] createBuffer() {
+        return new double[longestRow];
+    }
+
+    @Override
+    public void calculate(double[] spins, double gibbs, double[] energies, long[] fields, int from, int to) {
+        double[] buffer = buffers.get();
+        for (int site = from; site < to; site++) {
+            double field = sum(spins, within.indices(), within.offsets()[site], within.offsets()[site + 1],
+                    within.weights(), within.offsets()[site] + within.shift(site), buffer);
+            energies[site] = spins[site] * (gibbs + field);
+            fields[site] = (long) sum(spins, couplings.indices(), couplings.offsets()[site],
+                    couplings.offsets()[site + 1], fieldWeights, couplings.offsets()[site] + couplings.shift(site),
+                    buffer);
+        }
+    }
+
+    private static double sum(double[] spins, int[] indices, int from, int to, double[] weights, int weightsFrom,
+                              double[] buffer) {
+        int length = to - from;
+        for (int i = 0; i < length; i++)
+            buffer[i] = spins[indices[from + i]];
+        DoubleVector total = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector neighbours = DoubleVector.fromArray(SPECIES, buffer, i);
+            total = neighbours.fma(DoubleVector.fromArray(SPECIES, weights, weightsFrom + i), total);
+        }
+        double sum = total.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++)
+            sum += buffer[i] * weights[weightsFrom + i];
+        return sum;
+    }
+}
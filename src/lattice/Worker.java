@@ -0,0 +1,226 @@
+package lattice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Command line application that simulates units of a temperature sweep for a {@link Coordinator}, which may be on the
+ * same machine or another. Each worker thread connects to the coordinator, receives the settings of the sweep and then
+ * simulates one unit at a time until the coordinator stops it or closes the connection.
+ * <p>
+ * Each unit starts from a new lattice, which is warmed up at the first temperature of the unit and then simulated at
+ * each temperature in turn, as a chunk of a {@link Sweep} is. The random number generator of each stage is seeded
+ * from the seed of the sweep as {@link Sweep} seeds it, so the results depend only on the seed and on how the sweep was
+ * split into units, and not on which worker simulated each unit.
+ * <p>
+ * Options are given as {@code --name value} pairs: {@code --host} and {@code --port} of the coordinator,
+ * {@code --token}, the token the coordinator was given or printed, and {@code --threads}, the number of units to
+ * simulate at once. The token may instead be given in the {@link #TOKEN_VARIABLE} environment variable, which keeps it
+ * out of the process list. A worker started before its coordinator keeps trying to connect for
+ * {@link #CONNECT_MILLIS}.
+ */
+public class Worker {
+    public final static int CONNECT_MILLIS = 60_000;
+    public final static String TOKEN_VARIABLE = "PYROCHLORE_TOKEN";
+    private final static int RETRY_MILLIS = 500;
+    private static final Set<String> OPTIONS = Set.of("host", "port", "token", "threads");
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Worker(Socket socket) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host;
+        int port;
+        int threads;
+        String token;
+        try {
+            Map<String, String> options = parse(args);
+            host = options.getOrDefault("host", "localhost");
+            port = number(options, "port", -1);
+            threads = number(options, "threads", Runtime.getRuntime().availableProcessors());
+            token = options.getOrDefault("token", System.getenv(TOKEN_VARIABLE));
+            if (port < 0 || port > 0xFFFF || threads <= 0)
+                throw new IllegalArgumentException("A port and a positive number of threads are required");
+            if (token == null)
+                throw new IllegalArgumentException("The token of the coordinator is required");
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java lattice.Worker --port <port> --token <token> [--host <host>] "
+                    + "[--threads <count>]");
+            System.exit(2);
+            return;
+        }
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = connect(host, port)) {
+                    new Worker(socket).serve(token);
+                } catch (IOException | InterruptedException ex) {
+                    System.err.println("Worker stopped: " + ex);
+                    failed.set(true);
+                }
+            }, "worker-" + i);
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers)
+            thread.join();
+        System.exit(failed.get() ? 1 : 0);
+    }
+
+    private static Socket connect(String host, int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+        while (true) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException ex) {
+                if (System.currentTimeMillis() > deadline)
+                    throw ex;
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Simulates the units sent by the coordinator until it sends {@link WorkerProtocol#STOP} or closes the connection.
+     * A unit whose simulation throws is reported as failed, leaving the coordinator to decide whether to assign it
+     * again.
+     */
+    private void serve(String token) throws IOException {
+        new WorkerProtocol.Hello(token).write(out);
+        WorkerProtocol.Settings settings;
+        try {
+            settings = WorkerProtocol.Settings.read(in);
+        } catch (EOFException ex) {
+            throw new IOException("The coordinator closed the connection, as it does when the token does not "
+                    + "match", ex);
+        }
+        System.setProperty(Position.THICKNESS_PROPERTY, Integer.toString(settings.thickness()));
+        System.setProperty(Lattice.INTERACTION_DISTANCE_PROPERTY, Integer.toString(settings.interactionDistance()));
+        synchronized (out) {
+            out.writeByte(WorkerProtocol.READY);
+            out.writeInt(Position.count());
+            out.flush();
+        }
+        Thread heartbeat = new Thread(this::heartbeat, "heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        try {
+            RandomGeneratorFactory<RandomGenerator> generators = RandomGeneratorFactory.of(settings.generator());
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException ex) {
+                    return;
+                }
+                if (type == WorkerProtocol.STOP)
+                    return;
+                if (type != WorkerProtocol.UNIT)
+                    throw new IOException("Unexpected message " + type);
+                WorkerProtocol.Unit unit = WorkerProtocol.Unit.read(in);
+                try {
+                    simulate(settings, generators, unit);
+                    synchronized (out) {
+                        out.writeByte(WorkerProtocol.DONE);
+                        out.flush();
+                    }
+                } catch (RuntimeException ex) {
+                    synchronized (out) {
+                        out.writeByte(WorkerProtocol.FAILED);
+                        out.writeUTF(String.valueOf(ex));
+                        out.flush();
+                    }
+                }
+            }
+        } finally {
+            closed.set(true);
+            heartbeat.interrupt();
+        }
+    }
+
+    private void simulate(WorkerProtocol.Settings settings, RandomGeneratorFactory<RandomGenerator> generators,
+                          WorkerProtocol.Unit unit) throws IOException {
+        Simulation simulation = new Simulation();
+        simulation.setIterations(new Simulation.Iterations(settings.initialWarmUp(), settings.followingWarmUp(),
+                settings.simulation()));
+        if (settings.relativeError() > 0)
+            simulation.setPrecision(new Simulation.Precision(settings.relativeError(), settings.maxIterations()));
+        simulation.setRejectionFree(settings.rejectionFree());
+        Lattice lattice = simulation.getMatrix();
+        int warmUpStage = unit.first() == 0 ? -1 : -2 - unit.first();
+        lattice.setRandom(Sweep.random(generators, settings.seed(), warmUpStage));
+        simulation.warmup(unit.temps()[0]);
+        for (int i = 0; i < unit.temps().length; i++) {
+            lattice.setRandom(Sweep.random(generators, settings.seed(), unit.first() + i));
+            double[] values = simulation.simulate(unit.temps()[i]).toArray();
+            synchronized (out) {
+                out.writeByte(WorkerProtocol.RESULT);
+                out.writeInt(unit.first() + i);
+                for (double value : values)
+                    out.writeDouble(value);
+                out.flush();
+            }
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            while (!closed.get()) {
+                Thread.sleep(WorkerProtocol.HEARTBEAT_MILLIS);
+                synchronized (out) {
+                    out.writeByte(WorkerProtocol.HEARTBEAT);
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException | IOException ex) {
+            // the connection is closing, which the main loop of the worker reports
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !OPTIONS.contains(args[i].substring(2)))
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int number(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal value for --" + name + ": " + value);
+        }
+    }
+}
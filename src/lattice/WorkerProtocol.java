@@ -0,0 +1,159 @@
+package lattice;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Messages exchanged between a {@link Coordinator} and its {@link Worker}s over a socket. Each message is a type byte
+ * followed by its fields, written with {@link DataOutputStream} and flushed as a whole.
+ * <ul>
+ * <li>The worker sends {@link Hello} first, with the token shared with the coordinator. The coordinator closes the
+ * connection of a worker whose token does not match, without sending it anything.</li>
+ * <li>The coordinator then sends {@link Settings}, then a {@link Unit} each time the worker is idle, and finally
+ * {@link #STOP} when the sweep is complete.</li>
+ * <li>The worker replies to the settings with {@link #READY} and the number of particles in its lattice, which must
+ * match the coordinator's. It sends a {@link #RESULT} for each temperature of a unit as it completes and {@link #DONE}
+ * at the end of the unit, or {@link #FAILED} with a message if the simulation throws. It also sends a
+ * {@link #HEARTBEAT} at a fixed interval, so a worker that has stopped without closing its connection can be
+ * detected.</li>
+ * </ul>
+ * The settings include the lattice size, so they are read before any class that depends on the size is initialised.
+ * Nothing in this class refers to such a class.
+ */
+final class WorkerProtocol {
+    static final int MAGIC = 0x50595257;
+    static final int VERSION = 3;
+    static final byte STOP = 0;
+    static final byte SETTINGS = 1;
+    static final byte READY = 2;
+    static final byte UNIT = 3;
+    static final byte RESULT = 4;
+    static final byte DONE = 5;
+    static final byte FAILED = 6;
+    static final byte HEARTBEAT = 7;
+    static final byte HELLO = 8;
+    static final int HEARTBEAT_MILLIS = 2_000;
+    /**
+     * The time without a message after which the coordinator treats a worker as failed.
+     */
+    static final int TIMEOUT_MILLIS = 5 * HEARTBEAT_MILLIS;
+
+    private WorkerProtocol() {
+    }
+
+    /**
+     * The first message of a worker, identifying it as a worker of a coordinator that shares its token.
+     *
+     * @param token the shared token
+     */
+    record Hello(String token) {
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(HELLO);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(token);
+            out.flush();
+        }
+
+        static Hello read(DataInputStream in) throws IOException {
+            expect(in, HELLO);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a compatible worker");
+            return new Hello(in.readUTF());
+        }
+
+        /**
+         * Compares the token with another in a time that does not depend on where they differ.
+         */
+        boolean matches(String expected) {
+            return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    expected.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Parameters shared by every unit of a sweep. The iterations and precision are held as plain values, as their
+     * types depend on the lattice size. A relative error of 0 means no target precision.
+     */
+    record Settings(int thickness, int interactionDistance, long seed, String generator, int initialWarmUp,
+                    int followingWarmUp, int simulation, double relativeError, int maxIterations,
+                    boolean rejectionFree) {
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(SETTINGS);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(thickness);
+            out.writeInt(interactionDistance);
+            out.writeLong(seed);
+            out.writeUTF(generator);
+            out.writeInt(initialWarmUp);
+            out.writeInt(followingWarmUp);
+            out.writeInt(simulation);
+            out.writeDouble(relativeError);
+            out.writeInt(maxIterations);
+            out.writeBoolean(rejectionFree);
+            out.flush();
+        }
+
+        static Settings read(DataInputStream in) throws IOException {
+            expect(in, SETTINGS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a compatible coordinator");
+            return new Settings(in.readInt(), in.readInt(), in.readLong(), in.readUTF(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readDouble(), in.readInt(), in.readBoolean());
+        }
+    }
+
+    /**
+     * A run of consecutive temperatures of a sweep, simulated in turn by one worker from a single warm up.
+     *
+     * @param id the identifier of the unit, unique within the sweep
+     * @param first the index in the sweep of the first temperature
+     * @param temps the temperatures
+     * @param attempt the number of times the unit, or a unit it was split from, has been assigned before
+     */
+    record Unit(int id, int first, double[] temps, int attempt) {
+        /**
+         * Gets the unit of the temperatures from an index onwards, to be assigned again after a failure.
+         *
+         * @param from the index in the sweep of the first temperature of the new unit
+         * @param id the identifier of the new unit
+         * @return the remaining temperatures
+         */
+        Unit remainder(int from, int id) {
+            return new Unit(id, from, Arrays.copyOfRange(temps, from - first, temps.length), attempt + 1);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(UNIT);
+            out.writeInt(id);
+            out.writeInt(first);
+            out.writeInt(temps.length);
+            for (double temp : temps)
+                out.writeDouble(temp);
+            out.flush();
+        }
+
+        /**
+         * Reads the fields of a unit after its type byte.
+         */
+        static Unit read(DataInputStream in) throws IOException {
+            int id = in.readInt();
+            int first = in.readInt();
+            double[] temps = new double[in.readInt()];
+            for (int i = 0; i < temps.length; i++)
+                temps[i] = in.readDouble();
+            return new Unit(id, first, temps, 0);
+        }
+    }
+
+    static void expect(DataInputStream in, byte type) throws IOException {
+        byte actual = in.readByte();
+        if (actual != type)
+            throw new IOException("Expected message " + type + " but received " + actual);
+    }
+}
@@ -2,5 +2,9 @@ module JoeAssignment {
     requires javafx.base;
     requires javafx.controls;
     requires javafx.graphics;
+    requires static jdk.incubator.vector;
+    requires jdk.jfr;
+    requires java.management;
     exports view to javafx.graphics;
+    exports lattice to java.management;
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package view;
+
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line chart that also draws a band around each series showing the error of each point, which is taken from the extra
+ * value of the point's data. A point without an error, or with an error of NaN, has no width of band. The bands are
+ * drawn behind the lines in the translucent fill colour of their series, as an area chart would draw them.
+ */
+class BandedLineChart extends LineChart<Number, Number> {
+    private final Map<Series<Number, Number>, Path> bands = new HashMap<>();
+
+    BandedLineChart(NumberAxis xAxis, NumberAxis yAxis) {
+        super(xAxis, yAxis);
+    }
+
+    @Override
+    protected void seriesAdded(Series<Number, Number> series, int seriesIndex) {
+        super.seriesAdded(series, seriesIndex);
+        Path band = new Path();
+        bands.put(series, band);
+        getPlotChildren().add(0, band);
+    }
+
+    @Override
+    protected void layoutPlotChildren() {
+        super.layoutPlotChildren();
+        for (int i = 0; i < getData().size(); i++) {
+            Path band = bands.get(getData().get(i));
+            if (band == null)
+                continue;
+            band.getStyleClass().setAll("chart-series-area-fill", "series" + i, "default-color" + i % 8);
+            band.getElements().setAll(outline(getData().get(i)));
+        }
+    }
+
+    @Override
+    protected void seriesRemoved(Series<Number, Number> series) {
+        super.seriesRemoved(series);
+        Path band = bands.remove(series);
+        if (band != null)
+            getPlotChildren().remove(band);
+    }
+
+    /**
+     * Traces the tops of the error bars of a series from left to right and then the bottoms from right to left.
+     */
+    private List<PathElement> outline(Series<Number, Number> series) {
+        List<PathElement> elements = new ArrayList<>();
+        List<Data<Number, Number>> points = series.getData();
+        if (points.size() < 2)
+            return elements;
+        for (int i = 0; i < points.size(); i++) {
+            double x = getXAxis().getDisplayPosition(points.get(i).getXValue());
+            double y = getYAxis().getDisplayPosition(points.get(i).getYValue().doubleValue() + error(points.get(i)));
+            elements.add(i == 0 ? new MoveTo(x, y) : new LineTo(x, y));
+        }
+        for (int i = points.size() - 1; i >= 0; i--) {
+            double x = getXAxis().getDisplayPosition(points.get(i).getXValue());
+            double y = getYAxis().getDisplayPosition(points.get(i).getYValue().doubleValue() - error(points.get(i)));
+            elements.add(new LineTo(x, y));
+        }
+        elements.add(new ClosePath());
+        return elements;
+    }
+
+    private static double error(Data<Number, Number> point) {
+        return point.getExtraValue() instanceof Double error && !error.isNaN() ? error : 0;
+    }
+}
@@ -1,5 +1,7 @@
 package view;
 
+import javafx.animation.AnimationTimer;
+import javafx.concurrent.Worker;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
@@ -10,29 +12,41 @@ import lattice.Result;
 import lattice.Simulation;
 
 import java.util.List;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Panel containing a line chart of the results of a simulation. Each element of the {@link Result} is plotted as a
- * separate series against the temperature of the simulation.
+ * separate series against the temperature of the simulation, with a band showing its error.
+ * <p>
+ * The chart follows the simulation live, including the running results of the temperatures still being simulated. An
+ * {@link AnimationTimer} takes whatever has changed from the {@link SimulationTask} once per frame, so the chart is
+ * redrawn at most once a frame however quickly results arrive.
  */
 public class ChartPanel extends BorderPane {
     private final SimulationTask rangeSimulation;
     private final XYChart.Series<Number, Number> energySeries = new XYChart.Series<>();
     private final XYChart.Series<Number, Number> magnetismSeries = new XYChart.Series<>();
     private final XYChart.Series<Number, Number> heatCapacitySeries = new XYChart.Series<>();
+    private final AnimationTimer refresh = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            rangeSimulation.takeUpdate().ifPresent(ChartPanel.this::showData);
+        }
+    };
 
     public ChartPanel(SimulationTask rangeSimulation) {
         this.rangeSimulation = rangeSimulation;
         NumberAxis values = new NumberAxis();
         NumberAxis temp = new NumberAxis("Temperature",
                 rangeSimulation.getTempMin(), rangeSimulation.getTempMax(), rangeSimulation.getTempStep());
-        LineChart<Number, Number> chart = new LineChart<>(temp, values);
+        LineChart<Number, Number> chart = new BandedLineChart(temp, values);
         chart.setTitle("Lattice size " + Position.SIZE
                 + ", Interaction distance " + Lattice.INTERACTION_DISTANCE
                 + ", Iterations " + Simulation.SIMULATION_ITERATIONS
                 + ", Enthalpy %.2f".formatted(Lattice.DELTA_H)
                 + ", Entropy %.2f".formatted(Lattice.DELTA_S));
         chart.setCreateSymbols(false);
+        chart.setAnimated(false);
         energySeries.setName("Energy");
         magnetismSeries.setName("Magnetism");
         heatCapacitySeries.setName("Heat Capacity");
@@ -40,15 +54,30 @@ public class ChartPanel extends BorderPane {
         //noinspection unchecked
         chart.getData().addAll(magnetismSeries, heatCapacitySeries);
         chart.setVerticalGridLinesVisible(false);
-        rangeSimulation.progressProperty().addListener((ov, l1, l2) -> showData());
+        rangeSimulation.stateProperty().addListener((ov, s1, s2) -> {
+            if (s2 == Worker.State.SUCCEEDED || s2 == Worker.State.FAILED || s2 == Worker.State.CANCELLED) {
+                refresh.stop();
+                rangeSimulation.takeUpdate().ifPresent(this::showData);
+            }
+        });
+        refresh.start();
     }
 
-    private void showData() {
-        List<Result> results = rangeSimulation.getValue();
-        for (Result result : results.subList(energySeries.getData().size(), results.size())) {
-            energySeries.getData().add(new XYChart.Data<>(result.temp(), result.averageEnergy()));
-            magnetismSeries.getData().add(new XYChart.Data<>(result.temp(), result.averageMagnetism()));
-            heatCapacitySeries.getData().add(new XYChart.Data<>(result.temp(), result.averageHeatCapacity()));
-        }
+    /**
+     * Shows the results so far. Results can complete in any order, so each series is replaced with the current results
+     * in temperature order.
+     */
+    private void showData(List<Result> results) {
+        energySeries.getData().setAll(points(results, Result::averageEnergy, Result::energyError));
+        magnetismSeries.getData().setAll(points(results, Result::averageMagnetism, Result::magnetismError));
+        heatCapacitySeries.getData().setAll(points(results, Result::averageHeatCapacity, Result::heatCapacityError));
+    }
+
+    private static List<XYChart.Data<Number, Number>> points(List<Result> results, ToDoubleFunction<Result> value,
+                                                             ToDoubleFunction<Result> error) {
+        return results.stream()
+                .map(result -> new XYChart.Data<Number, Number>(result.temp(), value.applyAsDouble(result),
+                        error.applyAsDouble(result)))
+                .toList();
     }
 }
@@ -1,23 +1,35 @@
 package view;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.geometry.Point3D;
 import javafx.scene.Group;
 import javafx.scene.PerspectiveCamera;
 import javafx.scene.Scene;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.PhongMaterial;
-import javafx.scene.shape.Cylinder;
-import javafx.scene.shape.Sphere;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
 import javafx.scene.transform.Rotate;
 import javafx.scene.transform.Translate;
+import javafx.util.Duration;
+import lattice.Lattice;
 import lattice.Position;
-import lattice.Simulation;
 
+import java.util.BitSet;
 import java.util.Optional;
 
 /**
  * 3D visualisation of the pyrochlore lattice being simulated. Designed to allow the connections to be visually
- * verified.
+ * verified, and to show the spins of the particles as the simulation runs.
+ * <p>
+ * All particles are drawn as a single mesh and all links as another, so the scene has the same few nodes however large
+ * the lattice is. The tessellation of the particles and links is chosen from the number of particles to keep the total
+ * number of triangles within a budget. Each particle has its own texture coordinate into a small palette image, and
+ * its colour shows its spin and whether it is in an even or odd layer. The spins are copied from the lattice at a
+ * throttled rate, and the texture coordinates of all particles are replaced when they change, so refreshing the colours
+ * never rebuilds the geometry.
  */
 public class LatticeScene {
     private static final double X_SCALE = 20;
@@ -26,24 +38,53 @@ public class LatticeScene {
     private static final double maxX = X_SCALE * Position.SIZE;
     private static final double maxY = Y_SCALE * Position.SIZE;
     private static final double maxZ = Z_SCALE * Position.THICKNESS;
+    private static final int TRIANGLE_BUDGET = 1_000_000;
+    private static final int MIN_SEGMENTS = 4;
+    private static final int MAX_SEGMENTS = 32;
+    private static final Duration REFRESH_INTERVAL = Duration.millis(250);
+    /**
+     * Particle colours by spin and layer: spin +1 in even and odd layers, then spin -1 in even and odd layers.
+     */
+    private static final Color[] PALETTE = {Color.RED, Color.LIGHTPINK, Color.ROYALBLUE, Color.LIGHTSKYBLUE};
 
     private final Group root = new Group();
     private final PerspectiveCamera camera = new PerspectiveCamera();
     private final Rotate rotateX = new Rotate(0, Rotate.X_AXIS);
     private final Rotate rotateY = new Rotate(0, Rotate.Y_AXIS);
     private final Translate zoom = new Translate(-maxX / 2, -maxY / 2, -100 - maxZ / 2);
-    private final PhongMaterial evenParticleMaterial;
-    private final PhongMaterial oddParticleMaterial;
-    private final PhongMaterial linkMaterial;
+    private final Lattice lattice;
+    private final TriangleMesh particleMesh = new TriangleMesh();
+    private final float[] texCoords;
+    private final Timeline refresh;
+    private BitSet shownSpins = null;
     private Optional<DragStart> drag = Optional.empty();
 
-    public LatticeScene(Simulation simulation) {
-        this.evenParticleMaterial = new PhongMaterial(Color.RED);
-        this.oddParticleMaterial = new PhongMaterial(Color.LIGHTPINK);
-        this.linkMaterial = new PhongMaterial(Color.DARKGREY);
+    public LatticeScene(Lattice lattice) {
+        this.lattice = lattice;
         Translate centre = new Translate(maxX / 2, maxY / 2, maxZ / 2);
         camera.getTransforms().addAll(centre, rotateX, rotateY, zoom);
-        simulation.getMatrix().forEach(this::addParticle);
+        int count = Position.count();
+        // a sphere of n segments has about n * n triangles
+        int segments = (int) Math.sqrt(TRIANGLE_BUDGET / (double) count);
+        segments = Math.max(MIN_SEGMENTS, Math.min(MAX_SEGMENTS, segments));
+        int sides = Math.max(3, segments / 4);
+        MeshBuilder particles = new MeshBuilder();
+        MeshBuilder links = new MeshBuilder();
+        for (int i = 0; i < count; i++) {
+            Position position = Position.at(i);
+            Point3D point = positionToPoint(position);
+            particles.addSphere(point.getX(), point.getY(), point.getZ(), X_SCALE / 3, segments, i);
+            position.neighbours().forEach(neighbour -> addLink(links, position, neighbour, sides));
+        }
+        texCoords = new float[2 * count];
+        particleMesh.getTexCoords().setAll(texCoords);
+        root.getChildren().addAll(
+                meshView(particleMesh, particles, paletteMaterial()),
+                meshView(new TriangleMesh(), links, new PhongMaterial(Color.DARKGREY)));
+        refreshSpins();
+        refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, ae -> refreshSpins()));
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        refresh.play();
     }
 
     public Scene getScene() {
@@ -61,38 +102,58 @@ public class LatticeScene {
         return scene;
     }
 
-    private void addParticle(Position position, int charge) {
-        Sphere sphere = new Sphere(X_SCALE / 3, 64);
-        sphere.setMouseTransparent(true);
-        sphere.setMaterial(position.z() % 2 == 0 ? evenParticleMaterial : oddParticleMaterial);
-        Point3D point = positionToPoint(position);
-        sphere.setTranslateX(point.getX());
-        sphere.setTranslateY(point.getY());
-        sphere.setTranslateZ(point.getZ());
-        root.getChildren().add(sphere);
-        position.neighbours().forEach(n -> addLink(position, n));
+    /**
+     * Stops refreshing the colours of the particles from the lattice.
+     */
+    public void stop() {
+        refresh.stop();
     }
 
-    private void addLink(Position from, Position to) {
+    /**
+     * Copies the spins from the lattice and, if any have changed since they were last shown, points the texture
+     * coordinate of each particle at the colour for its spin.
+     */
+    private void refreshSpins() {
+        BitSet spins = lattice.snapshotSpins();
+        if (spins.equals(shownSpins))
+            return;
+        for (int i = 0; i < texCoords.length / 2; i++) {
+            int colour = (spins.get(i) ? 0 : 2) + Position.at(i).z() % 2;
+            texCoords[2 * i] = (colour + 0.5f) / PALETTE.length;
+            texCoords[2 * i + 1] = 0.5f;
+        }
+        particleMesh.getTexCoords().set(0, texCoords, 0, texCoords.length);
+        shownSpins = spins;
+    }
+
+    private void addLink(MeshBuilder links, Position from, Position to, int sides) {
         if (Math.abs(from.x() - to.x()) > 2 || Math.abs(from.y() - to.y()) > 2 || Math.abs(from.z() - to.z()) > 2)
             return;
         Point3D fromPoint = positionToPoint(from);
         Point3D toPoint = positionToPoint(to);
-        Point3D difference = toPoint.subtract(fromPoint);
-
-        Point3D midPoint = fromPoint.midpoint(toPoint);
-        Translate moveToMidpoint = new Translate(midPoint.getX(), midPoint.getY(), midPoint.getZ());
+        links.addPrism(new double[]{fromPoint.getX(), fromPoint.getY(), fromPoint.getZ()},
+                new double[]{toPoint.getX(), toPoint.getY(), toPoint.getZ()}, X_SCALE / 10, sides, 0);
+    }
 
-        Point3D yAxis = new Point3D(0, 1, 0);
-        Point3D axisOfRotation = difference.crossProduct(yAxis);
-        double angle = -Math.toDegrees(Math.acos(difference.normalize().dotProduct(yAxis)));
-        Rotate rotateAroundMidpoint = new Rotate(angle, axisOfRotation);
+    private static MeshView meshView(TriangleMesh mesh, MeshBuilder builder, PhongMaterial material) {
+        mesh.getPoints().setAll(builder.getPoints());
+        if (mesh.getTexCoords().size() == 0)
+            mesh.getTexCoords().setAll(0.5f, 0.5f);
+        mesh.getFaces().setAll(builder.getFaces());
+        mesh.getFaceSmoothingGroups().setAll(builder.getSmoothingGroups());
+        MeshView view = new MeshView(mesh);
+        view.setMaterial(material);
+        view.setMouseTransparent(true);
+        return view;
+    }
 
-        Cylinder link = new Cylinder(X_SCALE / 10, difference.magnitude(), 64);
-        link.getTransforms().addAll(moveToMidpoint, rotateAroundMidpoint);
-        link.setMouseTransparent(true);
-        link.setMaterial(linkMaterial);
-        root.getChildren().add(link);
+    private static PhongMaterial paletteMaterial() {
+        WritableImage palette = new WritableImage(PALETTE.length, 1);
+        for (int i = 0; i < PALETTE.length; i++)
+            palette.getPixelWriter().setColor(i, 0, PALETTE[i]);
+        PhongMaterial material = new PhongMaterial();
+        material.setDiffuseMap(palette);
+        return material;
     }
 
     private Point3D positionToPoint(Position position) {
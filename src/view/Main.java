@@ -6,15 +6,28 @@ import javafx.scene.control.Button;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
 import javafx.stage.Stage;
-import lattice.Simulation;
+import lattice.ResultCache;
+import lattice.Sweep;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
 
 /**
  * Application to run a simulation of the state of a pyrochlore lattice at a range of temperatures and plot the
- * results.
+ * results. A {@code --checkpoint=<file>} parameter saves the progress of the simulation to a file, and resumes from it
+ * if it already exists.
+ * <p>
+ * Each launch is unseeded unless a {@code --seed=<seed>} parameter is given. A seeded sweep can be repeated, so its
+ * points are kept in a {@link ResultCache} in {@code --cache=<directory>}, by default {@code .pyrochlore/cache} in the
+ * home directory, and a launch with the same seed and parameters shows the points simulated by earlier launches
+ * straight away and only simulates the rest. {@code --cache-size=<megabytes>} sets the maximum size of the cache and
+ * {@code --cache=none} turns it off. An unseeded sweep is never cached. A seed or cache size that is not a valid number
+ * is reported before the window opens, and the application exits.
  */
 public class Main extends Application {
-    private final Simulation simulation = new Simulation();
-    private final SimulationTask range = new SimulationTask(simulation, 23, 80, .5);
+    private final Sweep sweep = new Sweep(23, 80, .5);
+    private final SimulationTask range = new SimulationTask(sweep);
     private final ChartPanel chartPanel = new ChartPanel(range);
     private final FlowPane buttons = new FlowPane();
     private final Button showLattice = new Button("Show Lattice");
@@ -26,6 +39,14 @@ public class Main extends Application {
 
     @Override
     public void start(Stage primaryStage) {
+        Map<String, String> parameters = getParameters().getNamed();
+        try {
+            configure(parameters);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+            return;
+        }
         primaryStage.setTitle("Pyrochlore Simulation");
         BorderPane borderPane = new BorderPane();
         buttons.setHgap(5.0);
@@ -39,10 +60,53 @@ public class Main extends Application {
         new Thread(range).start();
     }
 
+    /**
+     * Configures the sweep from the named parameters.
+     *
+     * @throws IllegalArgumentException if the seed or cache size is not a valid number
+     */
+    private void configure(Map<String, String> parameters) {
+        String seed = parameters.get("seed");
+        if (seed != null) {
+            try {
+                sweep.setSeed(Long.parseLong(seed));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Illegal value for --seed: " + seed);
+            }
+        }
+        double megabytes = ResultCache.DEFAULT_MAX_BYTES >> 20;
+        String cacheSize = parameters.get("cache-size");
+        if (cacheSize != null) {
+            try {
+                megabytes = Double.parseDouble(cacheSize);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Illegal value for --cache-size: " + cacheSize);
+            }
+            if (!(megabytes > 0))
+                throw new IllegalArgumentException("Cache size must be positive");
+        }
+        String checkpoint = parameters.get("checkpoint");
+        String cache = parameters.getOrDefault("cache",
+                Path.of(System.getProperty("user.home"), ".pyrochlore", "cache").toString());
+        if (checkpoint != null) {
+            sweep.setCheckpoint(Path.of(checkpoint));
+        } else if (seed == null) {
+            if (parameters.containsKey("cache"))
+                System.err.println("Running without a cache, since only a sweep with a seed is cached");
+        } else if (!cache.equals("none")) {
+            try {
+                sweep.setCache(new ResultCache(Path.of(cache), (long) (megabytes * (1 << 20))));
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Running without a cache: " + ex);
+            }
+        }
+    }
+
     private void showLattice() {
         Stage latticeStage = new Stage();
-        LatticeScene latticeScene = new LatticeScene(simulation);
+        LatticeScene latticeScene = new LatticeScene(sweep.getLattice());
         latticeStage.setScene(latticeScene.getScene());
+        latticeStage.setOnHidden(we -> latticeScene.stop());
         latticeStage.show();
     }
 
@@ -0,0 +1,139 @@
+package view;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the points and faces of many shapes into the arrays of a single triangle mesh, so that a whole lattice
+ * can be drawn by one node rather than a node for each shape. Faces are in the format of a JavaFX {@code TriangleMesh}
+ * with texture coordinates: the indices of three points, each followed by the index of a texture coordinate. Every
+ * face of a shape uses the same texture coordinate, so the colour of a shape can be changed by moving its coordinate.
+ * <p>
+ * Faces are wound so that the cross product of their first two edges points out of the shape, and all faces are in the
+ * same smoothing group, so curved shapes are shaded smoothly.
+ */
+final class MeshBuilder {
+    private float[] points = new float[1024];
+    private int[] faces = new int[1024];
+    private int pointCount = 0;
+    private int faceCount = 0;
+
+    /**
+     * Adds a sphere tessellated into a number of segments around its axis and half as many rings along it.
+     *
+     * @param x the x coordinate of the centre
+     * @param y the y coordinate of the centre
+     * @param z the z coordinate of the centre
+     * @param radius the radius of the sphere
+     * @param segments the number of segments, which must be at least 4
+     * @param texCoord the index of the texture coordinate of every face
+     */
+    void addSphere(double x, double y, double z, double radius, int segments, int texCoord) {
+        int rings = segments / 2;
+        int north = addPoint(x, y - radius, z);
+        int first = pointCount;
+        for (int ring = 1; ring < rings; ring++) {
+            double theta = Math.PI * ring / rings;
+            for (int segment = 0; segment < segments; segment++) {
+                double phi = 2.0 * Math.PI * segment / segments;
+                addPoint(x + radius * Math.sin(theta) * Math.cos(phi), y - radius * Math.cos(theta),
+                        z + radius * Math.sin(theta) * Math.sin(phi));
+            }
+        }
+        int south = addPoint(x, y + radius, z);
+        for (int segment = 0; segment < segments; segment++) {
+            int next = (segment + 1) % segments;
+            addFace(north, first + segment, first + next, texCoord);
+            for (int ring = 0; ring < rings - 2; ring++) {
+                int upper = first + ring * segments;
+                int lower = upper + segments;
+                addFace(upper + segment, lower + segment, lower + next, texCoord);
+                addFace(upper + segment, lower + next, upper + next, texCoord);
+            }
+            int last = first + (rings - 2) * segments;
+            addFace(south, last + next, last + segment, texCoord);
+        }
+    }
+
+    /**
+     * Adds the sides of a prism between two points. The ends are left open, as they are hidden inside the particles.
+     *
+     * @param from the coordinates of the centre of one end
+     * @param to the coordinates of the centre of the other end
+     * @param radius the distance of the edges from the axis
+     * @param sides the number of sides, which must be at least 3
+     * @param texCoord the index of the texture coordinate of every face
+     */
+    void addPrism(double[] from, double[] to, double radius, int sides, int texCoord) {
+        double[] axis = normalise(subtract(to, from));
+        double[] reference = Math.abs(axis[0]) < 0.9 ? new double[]{1, 0, 0} : new double[]{0, 1, 0};
+        double[] u = normalise(cross(axis, reference));
+        double[] v = cross(axis, u);
+        int first = pointCount;
+        for (int side = 0; side < sides; side++) {
+            double angle = 2.0 * Math.PI * side / sides;
+            double cos = radius * Math.cos(angle);
+            double sin = radius * Math.sin(angle);
+            for (double[] end : new double[][]{from, to})
+                addPoint(end[0] + cos * u[0] + sin * v[0], end[1] + cos * u[1] + sin * v[1],
+                        end[2] + cos * u[2] + sin * v[2]);
+        }
+        for (int side = 0; side < sides; side++) {
+            int start = first + 2 * side;
+            int next = first + 2 * ((side + 1) % sides);
+            addFace(start, next, start + 1, texCoord);
+            addFace(start + 1, next, next + 1, texCoord);
+        }
+    }
+
+    float[] getPoints() {
+        return Arrays.copyOf(points, pointCount * 3);
+    }
+
+    int[] getFaces() {
+        return Arrays.copyOf(faces, faceCount * 6);
+    }
+
+    int[] getSmoothingGroups() {
+        int[] groups = new int[faceCount];
+        Arrays.fill(groups, 1);
+        return groups;
+    }
+
+    int getFaceCount() {
+        return faceCount;
+    }
+
+    private int addPoint(double x, double y, double z) {
+        if (pointCount * 3 + 3 > points.length)
+            points = Arrays.copyOf(points, points.length * 2);
+        points[pointCount * 3] = (float) x;
+        points[pointCount * 3 + 1] = (float) y;
+        points[pointCount * 3 + 2] = (float) z;
+        return pointCount++;
+    }
+
+    private void addFace(int a, int b, int c, int texCoord) {
+        if (faceCount * 6 + 6 > faces.length)
+            faces = Arrays.copyOf(faces, faces.length * 2);
+        int i = faceCount++ * 6;
+        faces[i] = a;
+        faces[i + 1] = texCoord;
+        faces[i + 2] = b;
+        faces[i + 3] = texCoord;
+        faces[i + 4] = c;
+        faces[i + 5] = texCoord;
+    }
+
+    private static double[] subtract(double[] a, double[] b) {
+        return new double[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+    }
+
+    private static double[] cross(double[] a, double[] b) {
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static double[] normalise(double[] a) {
+        double length = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+        return new double[]{a[0] / length, a[1] / length, a[2] / length};
+    }
+}
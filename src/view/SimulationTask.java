@@ -2,50 +2,75 @@ package view;
 
 import javafx.concurrent.Task;
 import lattice.Result;
-import lattice.Simulation;
+import lattice.Sweep;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Task to run a set of pyrochlore simulations for a range of temperatures and generate a {@link Result} for each
- * simulation. The task reports results after each simulation to allow them to be plotted on a graph as the simulation
- * continues.
+ * simulation. The simulations are run in parallel by a {@link Sweep}.
+ * <p>
+ * As well as the results completed so far, the task collects the running result of each temperature that is still
+ * being simulated. The simulation threads only record the latest values and mark them as changed, without involving
+ * the FX thread, and the chart takes them with {@link #takeUpdate()} at its own rate. However quickly results arrive,
+ * the FX thread does at most one update for each time it asks.
  */
 public class SimulationTask extends Task<List<Result>> {
-    private final Simulation simulation;
-    private final double tempMin;
-    private final double tempMax;
-    private final double tempStep;
-
-    public SimulationTask(Simulation simulation, double tempMin, double tempMax, double tempStep) {
-        this.simulation = simulation;
-        this.tempMin = tempMin;
-        this.tempMax = tempMax;
-        this.tempStep = tempStep;
+    private final Sweep sweep;
+    private final Map<Double, Result> running = new ConcurrentHashMap<>();
+    private volatile List<Result> completed = List.of();
+    private final AtomicBoolean changed = new AtomicBoolean(false);
+
+    public SimulationTask(Sweep sweep) {
+        this.sweep = sweep;
+        sweep.setPartialResults(result -> {
+            running.put(result.temp(), result);
+            changed.set(true);
+        });
     }
 
     public double getTempMin() {
-        return tempMin;
+        return sweep.getTempMin();
     }
 
     public double getTempMax() {
-        return tempMax;
+        return sweep.getTempMax();
     }
 
     public double getTempStep() {
-        return tempStep;
+        return sweep.getTempStep();
+    }
+
+    /**
+     * Gets the results completed so far together with the running results of the temperatures still being simulated,
+     * if any have changed since the last call.
+     *
+     * @return the results in temperature order, or empty if nothing has changed
+     */
+    public Optional<List<Result>> takeUpdate() {
+        if (!changed.getAndSet(false))
+            return Optional.empty();
+        List<Result> results = new ArrayList<>(completed);
+        results.forEach(result -> running.remove(result.temp()));
+        results.addAll(running.values());
+        results.sort(Comparator.comparingDouble(Result::temp));
+        return Optional.of(results);
     }
 
     @Override
-    protected List<Result> call() {
-        List<Result> results = new ArrayList<>();
-        simulation.warmup(tempMin);
-        for (double temp = tempMin; temp <= tempMax; temp += tempStep) {
-            results.add(Result.calculate(temp, simulation.simulate(temp)));
+    protected List<Result> call() throws InterruptedException {
+        int count = sweep.getTemps().size();
+        return sweep.run(results -> {
+            completed = results;
+            changed.set(true);
             updateValue(results);
-            updateProgress(temp - tempMin, tempMax - tempMin);
-        }
-        return results;
+            updateProgress(results.size(), count);
+        });
     }
 }